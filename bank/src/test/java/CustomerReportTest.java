@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Exposure rankings of one book and of a book in shards: top=K reports K customers, page=N pages through them
+class CustomerReportTest {
+    private static final int CUSTOMERS = 200;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3})
+    void topAloneReportsTheHighestExposures(int shards) throws IOException {
+        try (ShardedBook book = book(shards)) {
+            List<String> reported = new ArrayList<>();
+
+            assertNull(print(book, "top=23", reported));
+            assertEquals(highest(23), reported);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3})
+    void pagesStopAtTheEndOfTheTop(int shards) throws IOException {
+        try (ShardedBook book = book(shards)) {
+            List<String> reported = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                int before = reported.size();
+                cursor = print(book, "page=5 top=23" + (cursor == null ? "" : " after=" + cursor), reported);
+                assertEquals(Math.min(5, 23 - before), reported.size() - before);
+                pages++;
+            } while (cursor != null);
+
+            assertEquals(5, pages);
+            assertEquals(highest(23), reported);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3})
+    void pageLargerThanTopReportsTheTop(int shards) throws IOException {
+        try (ShardedBook book = book(shards)) {
+            List<String> reported = new ArrayList<>();
+
+            assertNull(print(book, "top=10 page=50", reported));
+            assertEquals(highest(10), reported);
+        }
+    }
+
+    @Test
+    void cursorPastTheTopIsRejected() {
+        ReportQuery query = ReportQuery.parse("top=10 page=5 after=10@100.0:3");
+
+        assertThrows(IllegalArgumentException.class, query::getRanked);
+    }
+
+    // Customer i has exposure 1000 * ((i * 7) % CUSTOMERS), so every exposure is different
+    private static ShardedBook book(int shards) {
+        CustomerRegistry registry = new CustomerRegistry();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer(WorkloadGenerator.customerID(i), 50_000);
+            customer.addCreditRecord(new AutoLoan(1, 4.5, 3, 1000.0 * ((i * 7) % CUSTOMERS)));
+            registry.add(customer);
+        }
+        if (shards > 1) {
+            registry = new ShardedRegistry(Partitioning.HASH, ShardedRegistry.split(registry, Partitioning.HASH, shards));
+        }
+        return new ShardedBook(registry, new BookPersistence[shards], BankMetrics.disabled());
+    }
+
+    // IDs of the k customers with the highest exposure, highest first
+    private static List<String> highest(int k) {
+        List<String> customerIDs = new ArrayList<>();
+        for (int exposure = CUSTOMERS - 1; customerIDs.size() < k; exposure--) {
+            for (int i = 0; i < CUSTOMERS; i++) {
+                if ((i * 7) % CUSTOMERS == exposure) {
+                    customerIDs.add(WorkloadGenerator.customerID(i));
+                }
+            }
+        }
+        return customerIDs;
+    }
+
+    // Prints a report, adding the customer IDs it wrote; returns the next page's cursor
+    private static String print(ShardedBook book, String options, List<String> customerIDs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String cursor;
+        try (ReportWriter writer = new ReportWriter(Channels.newChannel(bytes), StandardCharsets.UTF_8, true)) {
+            cursor = book.print(ReportQuery.parse(options), writer);
+        }
+        for (String line : bytes.toString(StandardCharsets.UTF_8).split("\\R")) {
+            if (line.startsWith("Customer ID: ")) {
+                customerIDs.add(line.substring("Customer ID: ".length()));
+            }
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Customers evicted from the cache are written back to the file when changed, and only then
+class DiskRegistryTest {
+    private static final int CAPACITY = 2;
+
+    @TempDir
+    Path directory;
+
+    private DiskRegistry registry;
+
+    @BeforeEach
+    void openBook() throws IOException {
+        CustomerRegistry book = new CustomerRegistry();
+        for (int i = 0; i < 5; i++) {
+            Customer customer = new Customer(WorkloadGenerator.customerID(i), 10_000 + i);
+            customer.addCreditRecord(new AutoLoan(1, 4.5, 3, 1000));
+            book.add(customer);
+        }
+        registry = DiskRegistry.copyOf(book, directory.resolve("book"), CAPACITY);
+    }
+
+    @AfterEach
+    void closeBook() throws IOException {
+        registry.close();
+    }
+
+    @Test
+    void changedCustomerIsWrittenBackOnEviction() throws IOException {
+        String changedID = WorkloadGenerator.customerID(0);
+        registry.find(changedID).setCustomerIncome(99_000);
+        registry.find(changedID).addCreditRecord(new AutoLoan(2, 5.5, 4, 2000));
+
+        registry.find(WorkloadGenerator.customerID(1));
+        registry.find(WorkloadGenerator.customerID(2));
+
+        assertEquals(1, registry.getEvictions());
+        assertEquals(1, registry.getWriteBacks());
+        Customer stored = inFile(changedID);
+        assertEquals(99_000, stored.getCustomerIncome());
+        assertEquals(2, stored.getCreditRecords().size());
+        assertEquals(3000, stored.getTotalExposure());
+    }
+
+    @Test
+    void unchangedCustomerIsNotWrittenBack() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            registry.find(WorkloadGenerator.customerID(i)).getCustomerIncome();
+        }
+
+        assertEquals(3, registry.getEvictions());
+        assertEquals(0, registry.getWriteBacks());
+        registry.flush();
+        assertEquals(0, registry.getWriteBacks());
+    }
+
+    @Test
+    void changeAfterEvictionIsWrittenBackToo() throws IOException {
+        String heldID = WorkloadGenerator.customerID(0);
+        Customer held = registry.find(heldID);
+        registry.find(WorkloadGenerator.customerID(1));
+        registry.find(WorkloadGenerator.customerID(2)); // evicts the held customer, unchanged
+
+        held.setCustomerIncome(77_000); // puts them back in the cache
+        assertSame(held, registry.find(heldID));
+        registry.find(WorkloadGenerator.customerID(3));
+        registry.find(WorkloadGenerator.customerID(4));
+
+        assertEquals(77_000, inFile(heldID).getCustomerIncome());
+    }
+
+    @Test
+    void changesSurviveReopening() throws IOException {
+        String changedID = WorkloadGenerator.customerID(3);
+        registry.find(changedID).setEligibilityStatus(false);
+        registry.close();
+
+        registry = new DiskRegistry(directory.resolve("book"), CAPACITY, false);
+
+        assertEquals(5, registry.size());
+        assertEquals(false, registry.find(changedID).isEligibilityStatus());
+    }
+
+    // The customer as the file holds them, read past the cache
+    private Customer inFile(String customerID) throws IOException {
+        DiskBook book = registry.getBook();
+        return book.read(book.position(CustomerIds.encode(customerID)), new Customer());
+    }
+}
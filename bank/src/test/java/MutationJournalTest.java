@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Replay of journal segments, and the torn records a crash leaves at the end of one
+class MutationJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayAppliesEveryChange() throws IOException {
+        Path base = directory.resolve("journal");
+        try (MutationJournal journal = new MutationJournal(base, 0, 0)) {
+            writeChanges(journal);
+        }
+
+        CustomerRegistry registry = new CustomerRegistry();
+        ReplayResult result = MutationJournal.replay(base, 0, registry);
+
+        assertEquals(5, result.getApplied());
+        assertEquals(0, result.getTruncatedBytes());
+        assertBook(registry);
+    }
+
+    @Test
+    void tornTailIsCutOffAndReplayedOnce() throws IOException {
+        Path base = directory.resolve("journal");
+        try (MutationJournal journal = new MutationJournal(base, 0, 0)) {
+            writeChanges(journal);
+        }
+        Path segment = directory.resolve("journal.1");
+        long written = Files.size(segment);
+        // The start of another record: its length, operation and part of the payload, with no checksum
+        Files.write(segment, new byte[] {0, 0, 0, 9, MutationJournal.UPDATE_INCOME, 0, 0}, StandardOpenOption.APPEND);
+
+        CustomerRegistry registry = new CustomerRegistry();
+        ReplayResult result = MutationJournal.replay(base, 0, registry);
+
+        assertEquals(5, result.getApplied());
+        assertEquals(7, result.getTruncatedBytes());
+        assertEquals(written, Files.size(segment));
+        assertBook(registry);
+
+        CustomerRegistry again = new CustomerRegistry();
+        ReplayResult second = MutationJournal.replay(base, 0, again);
+        assertEquals(5, second.getApplied());
+        assertEquals(0, second.getTruncatedBytes());
+        assertBook(again);
+    }
+
+    @Test
+    void recordWithBadChecksumEndsItsSegmentOnly() throws IOException {
+        Path base = directory.resolve("journal");
+        try (MutationJournal journal = new MutationJournal(base, 0, 0)) {
+            journal.logRegisterCustomer(CustomerIds.encode("AAA001"), 1000);
+            journal.logUpdateIncome(CustomerIds.encode("AAA001"), 2000);
+            journal.rotate();
+            journal.logUpdateEligibility(CustomerIds.encode("AAA001"), false);
+        }
+        Path first = directory.resolve("journal.1");
+        byte[] bytes = Files.readAllBytes(first);
+        bytes[bytes.length - 1] ^= 1; // checksum of the income update
+        Files.write(first, bytes);
+
+        CustomerRegistry registry = new CustomerRegistry();
+        ReplayResult result = MutationJournal.replay(base, 0, registry);
+
+        Customer customer = registry.find("AAA001");
+        assertEquals(2, result.getApplied());
+        assertEquals(1000, customer.getCustomerIncome());
+        assertEquals(false, customer.isEligibilityStatus());
+    }
+
+    @Test
+    void segmentsCoveredBySnapshotAreSkipped() throws IOException {
+        Path base = directory.resolve("journal");
+        try (MutationJournal journal = new MutationJournal(base, 0, 0)) {
+            journal.logRegisterCustomer(CustomerIds.encode("AAA001"), 1000);
+            long covered = journal.rotate();
+            assertEquals(1, covered);
+            journal.logRegisterCustomer(CustomerIds.encode("AAA002"), 2000);
+        }
+
+        CustomerRegistry registry = new CustomerRegistry();
+        ReplayResult result = MutationJournal.replay(base, 1, registry);
+
+        assertEquals(1, result.getApplied());
+        assertNull(registry.find("AAA001"));
+        assertEquals(2000, registry.find("AAA002").getCustomerIncome());
+    }
+
+    @Test
+    void changesToMissingCustomersAreCounted() throws IOException {
+        Path base = directory.resolve("journal");
+        try (MutationJournal journal = new MutationJournal(base, 0, 0)) {
+            journal.logUpdateIncome(CustomerIds.encode("ZZZ999"), 1000);
+            journal.logRemoveLoan(CustomerIds.encode("ZZZ999"), 1);
+        }
+
+        ReplayResult result = MutationJournal.replay(base, 0, new CustomerRegistry());
+
+        assertEquals(0, result.getApplied());
+        assertEquals(2, result.getMissing());
+        assertEquals(List.of("ZZZ999"), result.getMissingCustomers());
+    }
+
+    private static void writeChanges(MutationJournal journal) throws IOException {
+        int first = CustomerIds.encode("ABC123");
+        int second = CustomerIds.encode("XYZ789");
+        journal.logRegisterCustomer(first, 50_000);
+        journal.logRegisterCustomer(second, 60_000);
+        journal.logAddLoan(first, new AutoLoan(1, 4.5, 3, 12_000));
+        journal.logUpdateEligibility(first, false);
+        journal.logUpdateIncome(second, 65_000);
+    }
+
+    private static void assertBook(CustomerRegistry registry) {
+        assertEquals(2, registry.size());
+        Customer first = registry.find("ABC123");
+        assertEquals(50_000, first.getCustomerIncome());
+        assertEquals(false, first.isEligibilityStatus());
+        assertEquals(1, first.getCreditRecords().size());
+        assertEquals(12_000, first.getCreditRecords().get(0).getAmountLeftToPay());
+        assertEquals(65_000, registry.find("XYZ789").getCustomerIncome());
+    }
+}
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// Loan slots freed by removals are reused, and compact() repacks the chains without losing or reordering loans
+class OffHeapBookTest {
+    private static final int AUTO = 0;
+
+    @Test
+    void removedSlotIsReusedByNextLoan() {
+        OffHeapBook book = new OffHeapBook();
+        int position = book.addCustomer(CustomerIds.encode("ABC123"), 50_000, true);
+        int first = book.addLoan(position, 1, AUTO, 4.5, 3, 1000, 0);
+        int second = book.addLoan(position, 2, AUTO, 4.5, 3, 2000, 0);
+        book.addLoan(position, 3, AUTO, 4.5, 3, 3000, 0);
+
+        assertTrue(book.removeLoan(position, second));
+        assertEquals(1, book.freeSlots());
+        assertEquals(2, book.loans());
+        assertEquals(4000, book.exposure(position));
+
+        int reused = book.addLoan(position, 4, AUTO, 4.5, 3, 4000, 0);
+        assertEquals(second, reused);
+        assertEquals(0, book.freeSlots());
+        assertEquals(List.of(1, 3, 4), recordIDs(book, position));
+        assertEquals(8000, book.exposure(position));
+        assertEquals(first, book.findLoan(position, 1));
+    }
+
+    @Test
+    void removingLoanNotHeldChangesNothing() {
+        OffHeapBook book = new OffHeapBook();
+        int owner = book.addCustomer(CustomerIds.encode("ABC123"), 50_000, true);
+        int other = book.addCustomer(CustomerIds.encode("XYZ789"), 50_000, true);
+        int slot = book.addLoan(owner, 1, AUTO, 4.5, 3, 1000, 0);
+
+        assertFalse(book.removeLoan(other, slot));
+        assertEquals(0, book.freeSlots());
+        assertEquals(List.of(1), recordIDs(book, owner));
+    }
+
+    @Test
+    void compactRepacksScatteredLoans() {
+        OffHeapBook book = new OffHeapBook();
+        int customers = 1000;
+        int loansEach = 100;
+        for (int i = 0; i < customers; i++) {
+            int position = book.addCustomer(i, 50_000, true);
+            for (int recordID = 1; recordID <= loansEach; recordID++) {
+                book.addLoan(position, recordID, AUTO, 4.5, 3, recordID, 0);
+            }
+        }
+        // Every customer keeps record IDs 10, 20 ... 100, the other slots go onto the free list
+        for (int position = 0; position < customers; position++) {
+            for (int recordID = 1; recordID <= loansEach; recordID++) {
+                if (recordID % 10 != 0) {
+                    book.removeLoan(position, book.findLoan(position, recordID));
+                }
+            }
+        }
+        OffHeapLoan view = new OffHeapLoan(book, 500, book.findLoan(500, 70));
+        long bytes = book.offHeapBytes();
+        assertTrue(book.isFragmented());
+
+        book.compact();
+
+        assertFalse(book.isFragmented());
+        assertEquals(0, book.freeSlots());
+        assertEquals(customers * 10, book.loans());
+        assertTrue(book.offHeapBytes() < bytes, book.offHeapBytes() + " >= " + bytes);
+        List<Integer> kept = List.of(10, 20, 30, 40, 50, 60, 70, 80, 90, 100);
+        for (int position = 0; position < customers; position++) {
+            assertEquals(kept, recordIDs(book, position));
+            assertEquals(550, book.exposure(position));
+        }
+        assertEquals(70, view.getAmountLeftToPay());
+
+        // A loan added after compaction takes a new slot past the packed ones
+        int slot = book.addLoan(0, 101, AUTO, 4.5, 3, 101, 0);
+        assertEquals(customers * 10, slot);
+    }
+
+    private static List<Integer> recordIDs(OffHeapBook book, int position) {
+        List<Integer> recordIDs = new ArrayList<>();
+        for (int slot = book.firstLoan(position); slot != OffHeapBook.NONE; slot = book.nextLoan(slot)) {
+            recordIDs.add(book.recordID(slot));
+        }
+        assertEquals(book.loanCount(position), recordIDs.size());
+        return recordIDs;
+    }
+}
@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// The report layout is written without Formatter on the fast path, and must come out as the printf it replaced
+class ReportWriterTest {
+    private static final String ROW = "%07d | %-8s | %.2f | %.0f | %.0f%n";
+
+    private Locale defaultLocale;
+
+    @BeforeEach
+    void saveLocale() {
+        defaultLocale = Locale.getDefault();
+    }
+
+    @AfterEach
+    void restoreLocale() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    void customerMatchesPrintf() throws IOException {
+        Customer customer = new Customer("ABC123", 50_000);
+        customer.addCreditRecord(new AutoLoan(1, 4.5, 3, 12_000.5));
+        customer.addCreditRecord(new MortgageLoan(1234567, 3.255, 24.5, 10, 180_000.49));
+
+        StringBuilder expected = new StringBuilder();
+        expected.append(String.format("Customer ID: %s%n", customer.getCustomerID()));
+        expected.append(String.format("Eligible to arrange new loans - NO%n"));
+        expected.append(String.format("RecordID | LoanType | IntRate | AmountLeft | TimeLeft%n"));
+        expected.append(String.format("------- | -------- | -------- | ---------- | --------%n"));
+        for (Loan loan : customer.getCreditRecords()) {
+            expected.append(row(loan));
+        }
+
+        assertEquals(expected.toString(), write(writer -> writer.printCustomer(customer, false)));
+    }
+
+    @Test
+    void roundingMatchesPrintf() throws IOException {
+        double[] values = {0, -0.0, 0.5, 1.5, 2.5, -2.5, 0.005, 0.015, 0.125, 1.005, 2.675, 1.115, 10.555,
+                0.994999, 0.995, 99.995, 1e14 + 0.5, 1e15, 123456789012.345, 1e20, -1e-9, 4.35, 0.045,
+                Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double value : values) {
+            Loan loan = new AutoLoan(42, value, value, value);
+            assertEquals(row(loan), write(writer -> writer.printLoanRow(loan)), "value " + value);
+        }
+    }
+
+    @Test
+    void randomRowsMatchPrintf() throws IOException {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < 100_000; i++) {
+            // Amounts in cents and rates in thousandths put many values on or next to a rounding tie
+            double rate = random.nextInt(20_000) / 1000.0;
+            double term = random.nextInt(720) / 24.0;
+            double amount = random.nextInt(100_000_000) / 100.0;
+            Loan loan = new MortgageLoan(random.nextInt(10_000_000), rate, term, 0, amount);
+            assertEquals(row(loan), write(writer -> writer.printLoanRow(loan)));
+        }
+    }
+
+    @Test
+    void otherDecimalSeparatorMatchesPrintf() throws IOException {
+        Locale.setDefault(Locale.GERMANY);
+        Loan loan = new AutoLoan(7, 4.25, 3.5, 1234.5);
+
+        assertEquals(row(loan), write(writer -> writer.printLoanRow(loan)));
+    }
+
+    @Test
+    void nonAsciiTextIsEncoded() throws IOException {
+        assertEquals(String.format("Zürich – 5 €%n"), write(writer -> writer.println("Zürich – 5 €")));
+    }
+
+    private static String row(Loan loan) {
+        return String.format(ROW, loan.getRecordID(), loan.getLoanType(), loan.getInterestRate(),
+                loan.getAmountLeftToPay(), loan.getLoanTermLeft());
+    }
+
+    private interface Report {
+        void writeTo(ReportWriter writer);
+    }
+
+    private static String write(Report report) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ReportWriter writer = new ReportWriter(Channels.newChannel(bytes), StandardCharsets.UTF_8, true)) {
+            report.writeTo(writer);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
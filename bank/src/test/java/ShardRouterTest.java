@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.BindException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Paged reports through a router, with a BankServer in this JVM as each shard instead of a shard process
+class ShardRouterTest {
+    private static final int SHARDS = 3;
+    private static final int CUSTOMERS = 40;
+
+    private final List<ShardedBook> books = new ArrayList<>();
+    private final List<BankServer> servers = new ArrayList<>();
+    private ShardRouter router;
+    private Socket socket;
+    private BufferedReader in;
+    private PrintWriter out;
+
+    @BeforeEach
+    void startShards() throws IOException {
+        int basePort = startServers();
+        router = new ShardRouter(0, SHARDS, Partitioning.HASH, basePort);
+        router.startAccepting();
+        socket = new Socket("localhost", router.getPort());
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            assertEquals(List.of("OK"), request("REGISTER " + WorkloadGenerator.customerID(i) + " 50000"));
+        }
+    }
+
+    @AfterEach
+    void stopShards() throws IOException {
+        socket.close();
+        router.close();
+        for (BankServer server : servers) {
+            server.close();
+        }
+        for (ShardedBook book : books) {
+            book.close();
+        }
+    }
+
+    @Test
+    void pagesCoverEveryCustomerOnceShardByShard() throws IOException {
+        List<String> reported = new ArrayList<>();
+        String cursor = null;
+        int shard = 0;
+        int pages = 0;
+        do {
+            List<String> answer = request("REPORT page=7" + (cursor == null ? "" : " after=" + cursor));
+            assertEquals("OK", answer.get(answer.size() - 1));
+            List<String> page = customerIDs(answer);
+            assertTrue(page.size() <= 7, "page of " + page.size());
+            reported.addAll(page);
+            cursor = nextCursor(answer);
+            if (cursor != null) {
+                int next = Integer.parseInt(cursor.split(":")[0]);
+                assertTrue(next == shard || next == shard + 1, "cursor " + cursor + " after shard " + shard);
+                shard = next;
+            }
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(SHARDS - 1, shard);
+        assertTrue(pages >= CUSTOMERS / 7, pages + " pages");
+        assertEquals(CUSTOMERS, reported.size());
+        assertEquals(allCustomers(), new HashSet<>(reported));
+    }
+
+    @Test
+    void reportWithoutPageReturnsEveryCustomer() throws IOException {
+        List<String> answer = request("REPORT");
+
+        assertEquals("OK", answer.get(answer.size() - 1));
+        assertEquals(null, nextCursor(answer));
+        assertEquals(allCustomers(), new HashSet<>(customerIDs(answer)));
+    }
+
+    @Test
+    void filtersApplyOnEveryShard() throws IOException {
+        assertEquals(List.of("OK"), request("ELIGIBILITY " + WorkloadGenerator.customerID(5) + " false"));
+        assertEquals(List.of("OK"), request("ELIGIBILITY " + WorkloadGenerator.customerID(31) + " false"));
+
+        Set<String> reported = new HashSet<>();
+        String cursor = null;
+        do {
+            List<String> answer = request("REPORT eligible=false page=1" + (cursor == null ? "" : " after=" + cursor));
+            reported.addAll(customerIDs(answer));
+            cursor = nextCursor(answer);
+        } while (cursor != null);
+
+        assertEquals(Set.of(WorkloadGenerator.customerID(5), WorkloadGenerator.customerID(31)), reported);
+    }
+
+    @Test
+    void cursorOfUnknownShardIsRejected() throws IOException {
+        assertEquals(List.of("ERR SYNTAX Invalid report cursor: " + SHARDS + ":0"),
+                request("REPORT page=5 after=" + SHARDS + ":0"));
+        assertEquals(List.of("ERR SYNTAX Invalid report cursor: x"), request("REPORT page=5 after=x"));
+    }
+
+    @Test
+    void rankingByExposureIsRejected() throws IOException {
+        List<String> answer = request("REPORT top=5");
+
+        assertEquals(1, answer.size());
+        assertTrue(answer.get(0).startsWith("ERR SYNTAX top="), answer.get(0));
+    }
+
+    // Starts a server for each shard on consecutive ports, as the router expects, and returns the first port
+    private int startServers() throws IOException {
+        SplittableRandom random = new SplittableRandom();
+        for (int attempt = 0; ; attempt++) {
+            int basePort = 20_000 + random.nextInt(30_000);
+            try {
+                for (int shard = 0; shard < SHARDS; shard++) {
+                    ShardedBook book = new ShardedBook(new CustomerRegistry(), new BookPersistence[1],
+                            BankMetrics.disabled());
+                    books.add(book);
+                    BankServer server = new BankServer(book, basePort + shard, 100, 16, 1000);
+                    servers.add(server);
+                    server.start();
+                }
+                return basePort;
+            } catch (BindException e) {
+                stopShards(attempt);
+            }
+        }
+    }
+
+    private void stopShards(int attempt) throws IOException {
+        for (BankServer server : servers) {
+            server.close();
+        }
+        for (ShardedBook book : books) {
+            book.close();
+        }
+        servers.clear();
+        books.clear();
+        if (attempt == 10) {
+            throw new IOException("No free ports for the shards");
+        }
+    }
+
+    // Sends a request and returns the lines of its answer, up to and including the status line
+    private List<String> request(String request) throws IOException {
+        out.println(request);
+        List<String> answer = new ArrayList<>();
+        String line;
+        do {
+            line = in.readLine();
+            answer.add(line);
+        } while (!line.equals("OK") && !line.startsWith("ERR "));
+        return answer;
+    }
+
+    private static List<String> customerIDs(List<String> answer) {
+        List<String> customerIDs = new ArrayList<>();
+        for (String line : answer) {
+            if (line.startsWith("Customer ID: ")) {
+                customerIDs.add(line.substring("Customer ID: ".length()));
+            }
+        }
+        return customerIDs;
+    }
+
+    private static String nextCursor(List<String> answer) {
+        for (String line : answer) {
+            if (line.startsWith("NEXT ")) {
+                return line.substring("NEXT ".length());
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> allCustomers() {
+        Set<String> customerIDs = new HashSet<>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customerIDs.add(WorkloadGenerator.customerID(i));
+        }
+        return customerIDs;
+    }
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Snapshots round-trip the book, and anything damaged or of an unknown version is refused rather than loaded
+class SnapshotStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsWhatWasWritten() throws IOException {
+        SnapshotStore store = new SnapshotStore(directory.resolve("book.snapshot"));
+        store.write(book(), 7);
+
+        CustomerRegistry loaded = store.load();
+
+        assertEquals(7, store.getJournalGeneration());
+        assertEquals(2, loaded.size());
+        Customer customer = loaded.find("ABC123");
+        assertEquals(50_000, customer.getCustomerIncome());
+        assertEquals(false, customer.isEligibilityStatus());
+        assertEquals(2, customer.getCreditRecords().size());
+        Loan mortgage = customer.getCreditRecords().get(1);
+        assertEquals(2, mortgage.getRecordID());
+        assertEquals("Mortgage", mortgage.getLoanType());
+        assertEquals(3.25, mortgage.getInterestRate());
+        assertEquals(25, mortgage.getLoanTermLeft());
+        assertEquals(10, mortgage.getOverpayment());
+        assertEquals(180_000, mortgage.getAmountLeftToPay());
+        assertEquals(0, loaded.find("XYZ789").getCreditRecords().size());
+    }
+
+    @Test
+    void damagedSnapshotIsRejected() throws IOException {
+        Path path = directory.resolve("book.snapshot");
+        SnapshotStore store = new SnapshotStore(path);
+        store.write(book(), 7);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(path, bytes);
+
+        IOException e = assertThrows(IOException.class, store::load);
+        assertTrue(e.getMessage().endsWith("snapshot checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void truncatedSnapshotIsRejected() throws IOException {
+        Path path = directory.resolve("book.snapshot");
+        SnapshotStore store = new SnapshotStore(path);
+        store.write(book(), 7);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 9));
+
+        assertThrows(IOException.class, store::load);
+    }
+
+    @Test
+    void newerVersionIsRejected() throws IOException {
+        Path path = directory.resolve("book.snapshot");
+        SnapshotStore store = new SnapshotStore(path);
+        store.write(book(), 7);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        bytes.putInt(4, SnapshotStore.VERSION + 1);
+        Files.write(path, withChecksum(bytes.array()));
+
+        IOException e = assertThrows(IOException.class, store::load);
+        assertTrue(e.getMessage().endsWith("unsupported snapshot version " + (SnapshotStore.VERSION + 1)),
+                e.getMessage());
+    }
+
+    @Test
+    void otherFileIsRejected() throws IOException {
+        Path path = directory.resolve("book.snapshot");
+        SnapshotStore store = new SnapshotStore(path);
+        store.write(book(), 7);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        bytes.putInt(0, 0x504B0304);
+        Files.write(path, withChecksum(bytes.array()));
+
+        IOException e = assertThrows(IOException.class, store::load);
+        assertTrue(e.getMessage().endsWith("not a snapshot file"), e.getMessage());
+    }
+
+    @Test
+    void versionOneLoadsWithoutJournalGeneration() throws IOException {
+        Path path = directory.resolve("book.snapshot");
+        SnapshotStore store = new SnapshotStore(path);
+        store.write(book(), 7);
+        // Version 1 has no journal generation after the loan count
+        byte[] v2 = Files.readAllBytes(path);
+        byte[] v1 = new byte[v2.length - 8];
+        System.arraycopy(v2, 0, v1, 0, 20);
+        System.arraycopy(v2, 28, v1, 20, v2.length - 28);
+        ByteBuffer.wrap(v1).putInt(4, 1);
+        Files.write(path, withChecksum(v1));
+
+        CustomerRegistry loaded = store.load();
+
+        assertEquals(0, store.getJournalGeneration());
+        assertEquals(2, loaded.size());
+        assertEquals(2, loaded.find("ABC123").getCreditRecords().size());
+    }
+
+    // Replaces the trailer with the checksum of everything before it
+    private static byte[] withChecksum(byte[] bytes) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, bytes.length - 4);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, (int) checksum.getValue());
+        return bytes;
+    }
+
+    private static CustomerRegistry book() {
+        CustomerRegistry registry = new CustomerRegistry();
+        Customer first = new Customer("ABC123", 50_000);
+        first.setEligibilityStatus(false);
+        first.addCreditRecord(new AutoLoan(1, 4.5, 3, 12_000));
+        first.addCreditRecord(new MortgageLoan(2, 3.25, 25, 10, 180_000));
+        registry.add(first);
+        registry.add(new Customer("XYZ789", 65_000));
+        return registry;
+    }
+}
@@ -0,0 +1,60 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+// A book of customers with the same number of loans each, shared by the threads of a benchmark
+// Customers get scattered WorkloadGenerator IDs, incomes of 20000-200000 and loans of up to half their income,
+// so most stay eligible. Lookups cycle through a fixed random sample of customers.
+@State(Scope.Benchmark)
+public class BookState {
+    static final int SAMPLE = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    public int customers;
+
+    @Param({"1", "5"})
+    public int loansPerCustomer;
+
+    CustomerRegistry registry;
+    // IDs of registered customers, and of customers that are not registered
+    String[] sampleIDs;
+    String[] missingIDs;
+    Customer[] sampleCustomers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = buildRegistry(customers, loansPerCustomer);
+        SplittableRandom random = new SplittableRandom(7);
+        sampleIDs = new String[SAMPLE];
+        missingIDs = new String[SAMPLE];
+        sampleCustomers = new Customer[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++) {
+            sampleIDs[i] = WorkloadGenerator.customerID(random.nextInt(customers));
+            missingIDs[i] = WorkloadGenerator.customerID(customers + random.nextInt(customers));
+            sampleCustomers[i] = registry.find(sampleIDs[i]);
+        }
+    }
+
+    static CustomerRegistry buildRegistry(int customers, int loansPerCustomer) {
+        SplittableRandom random = new SplittableRandom(42);
+        CustomerRegistry registry = new CustomerRegistry(customers);
+        for (int i = 0; i < customers; i++) {
+            int income = 20_000 + random.nextInt(180_000);
+            Customer customer = new Customer(WorkloadGenerator.customerID(i), income);
+            for (int recordID = 1; recordID <= loansPerCustomer; recordID++) {
+                LoanType type = LoanTypes.byOrdinal(random.nextInt(LoanTypes.count()));
+                double overpayment = type.hasOverpayment() ? random.nextInt(21) : 0;
+                customer.addCreditRecord(type.create(recordID, 2 + random.nextInt(1000) / 100.0,
+                        1 + random.nextInt(360) / 12.0, overpayment, Math.round(income * random.nextDouble() * 0.5)));
+            }
+            registry.add(customer);
+        }
+        return registry;
+    }
+}
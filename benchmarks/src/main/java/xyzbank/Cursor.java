@@ -0,0 +1,14 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// Per-thread position in a state's sample, so consecutive calls look up different customers
+@State(Scope.Thread)
+public class Cursor {
+    private int next;
+
+    int next() {
+        return next = (next + 1) & (BookState.SAMPLE - 1);
+    }
+}
@@ -0,0 +1,29 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Finding a customer by ID, as every menu option and server command does first
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CustomerLookupBenchmark {
+    @Benchmark
+    public Object findCustomer(BookState book, Cursor cursor) {
+        return book.registry.find(book.sampleIDs[cursor.next()]);
+    }
+
+    @Benchmark
+    public Object findMissingCustomer(BookState book, Cursor cursor) {
+        return book.registry.find(book.missingIDs[cursor.next()]);
+    }
+}
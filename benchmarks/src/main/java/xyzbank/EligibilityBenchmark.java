@@ -0,0 +1,31 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The eligibility rule on one customer, from the running exposure and from a full recount of the loans
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class EligibilityBenchmark {
+    @Benchmark
+    public boolean checkEligibility(BookState book, Cursor cursor) {
+        Customer customer = book.sampleCustomers[cursor.next()];
+        return customer.checkEligibility(customer);
+    }
+
+    @Benchmark
+    public boolean checkEligibilityFromLoans(BookState book, Cursor cursor) {
+        Customer customer = book.sampleCustomers[cursor.next()];
+        return Customer.isWithinExposureLimit(customer.recomputeExposure(), customer.getCustomerIncome());
+    }
+}
@@ -0,0 +1,79 @@
+package xyzbank;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+// Collector pauses of each iteration, as their count, p50, p99 and longest, from the JVM's collection notifications
+// JMH's gc profiler gives the count and total time of collections; this one shows how long the application was
+// stopped at a time. Run with: java -jar benchmarks.jar -prof xyzbank.GcPauseProfiler [JMH options]
+public class GcPauseProfiler implements InternalProfiler {
+    // Pauses of the running iteration; notifications arrive on a JMX thread
+    private volatile LatencyHistogram pauses;
+
+    private final NotificationListener listener = (Notification notification, Object handback) -> {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        // Concurrent cycles are reported too, but do not stop the application
+        LatencyHistogram current = pauses;
+        if (!info.getGcName().contains("Concurrent") && current != null) {
+            current.record(info.getGcInfo().getDuration() * 1_000_000L);
+        }
+    };
+
+    @Override
+    public String getDescription() {
+        return "Collector pauses: count, p50, p99 and max per iteration";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        pauses = new LatencyHistogram(1);
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams, IterationResult result) {
+        // Notifications are sent just after each collection, so give the last ones a moment to arrive
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            try {
+                ((NotificationEmitter) collector).removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // not registered with this collector
+            }
+        }
+        LatencyHistogram.Snapshot snapshot = pauses.snapshot();
+        pauses = null;
+        return Arrays.asList(
+                new ScalarResult("gc.pause.count", snapshot.getCount(), "counts", AggregationPolicy.SUM),
+                new ScalarResult("gc.pause.p50", snapshot.getPercentile(50) / 1e6, "ms", AggregationPolicy.AVG),
+                new ScalarResult("gc.pause.p99", snapshot.getPercentile(99) / 1e6, "ms", AggregationPolicy.AVG),
+                new ScalarResult("gc.pause.max", snapshot.getMax() / 1e6, "ms", AggregationPolicy.MAX));
+    }
+}
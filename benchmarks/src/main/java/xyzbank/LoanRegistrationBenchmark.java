@@ -0,0 +1,44 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The service paths behind registerLoanForCustomer and removeLoanForCustomer
+// Record IDs 1..loansPerCustomer exist for every customer; addAndRemoveLoan leaves the book as it found it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class LoanRegistrationBenchmark {
+    @Benchmark
+    public boolean duplicateRecordCheck(ServiceState state, Cursor cursor) {
+        return state.service.hasLoan(state.sampleIDs[cursor.next()], state.loansPerCustomer);
+    }
+
+    @Benchmark
+    public boolean newRecordCheck(ServiceState state, Cursor cursor) {
+        return state.service.hasLoan(state.sampleIDs[cursor.next()], state.loansPerCustomer + 1);
+    }
+
+    @Benchmark
+    public Object addDuplicateLoan(ServiceState state, Cursor cursor) {
+        Loan loan = new AutoLoan(state.loansPerCustomer, 5.5, 3, 1000);
+        return state.service.addLoan(state.sampleIDs[cursor.next()], loan);
+    }
+
+    @Benchmark
+    public Object addAndRemoveLoan(ServiceState state, Cursor cursor) {
+        String customerID = state.sampleIDs[cursor.next()];
+        int recordID = state.loansPerCustomer + 1;
+        state.service.addLoan(customerID, new AutoLoan(recordID, 5.5, 3, 1000));
+        return state.service.removeLoan(customerID, recordID);
+    }
+}
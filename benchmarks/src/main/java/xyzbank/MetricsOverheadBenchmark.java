@@ -0,0 +1,70 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Cost of BankMetrics: the same cheap service calls with metrics off and on, and a bare histogram record
+// The difference between metrics=false and metrics=true is the instrumentation overhead per operation
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+    @State(Scope.Benchmark)
+    public static class InstrumentedService {
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        BankService service;
+        LatencyHistogram histogram;
+        String[] sampleIDs;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int customers = 100_000;
+            service = new BankService(BookState.buildRegistry(customers, 1), null, new BankMetrics(metrics));
+            histogram = new LatencyHistogram();
+            SplittableRandom random = new SplittableRandom(7);
+            sampleIDs = new String[BookState.SAMPLE];
+            for (int i = 0; i < sampleIDs.length; i++) {
+                sampleIDs[i] = WorkloadGenerator.customerID(random.nextInt(customers));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean exists(InstrumentedService state, Cursor cursor) {
+        return state.service.exists(state.sampleIDs[cursor.next()]);
+    }
+
+    @Benchmark
+    public Object addDuplicateLoan(InstrumentedService state, Cursor cursor) {
+        return state.service.addLoan(state.sampleIDs[cursor.next()], new AutoLoan(1, 5.5, 3, 1000));
+    }
+
+    @Benchmark
+    public void histogramRecord(InstrumentedService state, Cursor cursor) {
+        state.histogram.record(cursor.next() * 37L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended(InstrumentedService state, Cursor cursor) {
+        state.histogram.record(cursor.next() * 37L);
+    }
+}
@@ -0,0 +1,105 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// GC pauses with the same generated book held as heap objects and in an OffHeapBook
+// fullCollection times explicit full collections, which trace the whole live heap; churn allocates short- and
+// medium-lived garbage next to the book as a busy service would, and shows its pauses when run with
+// -prof xyzbank.GcPauseProfiler (or -prof gc for counts and total time); scan is the cost of reading every loan.
+// The live heap and off-heap size of each layout are printed at setup.
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-XX:MaxDirectMemorySize=8g"})
+@State(Scope.Benchmark)
+public class OffHeapBenchmark {
+    // Objects the churn keeps alive for a while, so some survive young collections like cached replies would
+    private static final int RETAINED = 1 << 20;
+
+    @Param({"heap", "offHeap"})
+    public String layout;
+
+    @Param({"2000000"})
+    public int customers;
+
+    private CustomerRegistry registry;
+    private Object[] retained;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CustomerRegistry heap = new CustomerRegistry(customers);
+        new WorkloadGenerator(1, Runtime.getRuntime().availableProcessors()).generateInto(heap, customers);
+        long offHeapBytes = 0;
+        if (layout.equals("offHeap")) {
+            OffHeapRegistry offHeap = OffHeapRegistry.copyOf(heap);
+            offHeapBytes = offHeap.getBook().offHeapBytes();
+            registry = offHeap; // leaves only the off-heap copy reachable
+        } else {
+            registry = heap;
+        }
+        retained = new Object[RETAINED];
+        random = new SplittableRandom(7);
+        System.gc();
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%n%s: heap %d MB, off-heap %d MB, collectors %s%n", layout, used >> 20,
+                offHeapBytes >> 20, collectorNames());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public void fullCollection() {
+        System.gc();
+    }
+
+    // Request-sized garbage replacing random entries of a large table, so that part of it lives long enough to be
+    // promoted, as session and cache entries of a busy service would
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void churn() {
+        List<Object> reply = new ArrayList<>(4);
+        reply.add(new byte[32 + random.nextInt(256)]);
+        reply.add(Integer.toString(random.nextInt()));
+        retained[random.nextInt(RETAINED)] = reply;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public double scan() {
+        double total = 0;
+        for (Customer customer : registry) {
+            for (Loan loan : customer.getCreditRecords()) {
+                total += loan.getAmountLeftToPay();
+            }
+        }
+        return total;
+    }
+
+    private static String collectorNames() {
+        List<String> names = new ArrayList<>();
+        ManagementFactory.getGarbageCollectorMXBeans().forEach(collector -> names.add(collector.getName()));
+        return String.join(", ", names);
+    }
+}
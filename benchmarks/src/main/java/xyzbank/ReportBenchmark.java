@@ -0,0 +1,60 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The report layout of the print options, written to a channel that discards the bytes
+// printCustomer measures one customer with their loans; printAllCustomers the whole book
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class ReportBenchmark {
+    private ReportWriter report;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        report = new ReportWriter(Channels.newChannel(OutputStream.nullOutputStream()), StandardCharsets.UTF_8, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        report.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void printCustomer(BookState book, Cursor cursor) {
+        Customer customer = book.sampleCustomers[cursor.next()];
+        report.printCustomer(customer, customer.isEligibilityStatus());
+        report.flush();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void printAllCustomers(BookState book) {
+        for (Customer customer : book.registry) {
+            report.printCustomer(customer, customer.isEligibilityStatus());
+            report.println();
+        }
+        report.flush();
+    }
+}
@@ -0,0 +1,33 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+// A BankService over a book like BookState's, without persistence, for the loan registration paths
+// Kept apart from BookState so only the benchmarks that need it pay for building the loan indexes
+@State(Scope.Benchmark)
+public class ServiceState {
+    @Param({"1000", "100000", "1000000"})
+    public int customers;
+
+    @Param({"1", "5"})
+    public int loansPerCustomer;
+
+    BankService service;
+    String[] sampleIDs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new BankService(BookState.buildRegistry(customers, loansPerCustomer), null);
+        SplittableRandom random = new SplittableRandom(7);
+        sampleIDs = new String[BookState.SAMPLE];
+        for (int i = 0; i < sampleIDs.length; i++) {
+            sampleIDs[i] = WorkloadGenerator.customerID(random.nextInt(customers));
+        }
+    }
+}
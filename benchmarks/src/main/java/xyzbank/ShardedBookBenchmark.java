@@ -0,0 +1,145 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Scaling of the same generated book split into 1, 2, 4 or 8 shards in one process
+// build creates the shards' services; applyBatch applies random changes a batch at a time as the batch mode does;
+// then bulk eligibility from views, a whole-book print to a discarding channel, and a top-100 exposure report.
+// Shards work in parallel, so the gains follow the processor count.
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class ShardedBookBenchmark {
+    private static final int BATCH_SIZE = 8192;
+    private static final int COMMANDS = 1 << 20;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"1000000"})
+    public int customers;
+
+    @Param({"hash"})
+    public String partitioning;
+
+    private CustomerRegistry registry;
+    private ShardedBook book;
+    private BankCommand[] stream;
+    private BankService.Status[] results;
+    private int nextBatch;
+    private BulkEligibilityEngine engine;
+    private ReportWriter discard;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CustomerRegistry generated = new CustomerRegistry(customers);
+        new WorkloadGenerator(1, Runtime.getRuntime().availableProcessors()).generateInto(generated, customers);
+        Partitioning parsed = Partitioning.parse(partitioning);
+        CustomerRegistry[] parts = ShardedRegistry.split(generated, parsed, shards);
+        registry = shards == 1 ? parts[0] : new ShardedRegistry(parsed, parts);
+        book = new ShardedBook(registry, new BookPersistence[shards], BankMetrics.disabled());
+        stream = commands(customers, COMMANDS);
+        results = new BankService.Status[COMMANDS];
+        engine = new BulkEligibilityEngine();
+        discard = new ReportWriter(Channels.newChannel(OutputStream.nullOutputStream()), StandardCharsets.UTF_8,
+                true, 1 << 16);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        book.close();
+        discard.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public void build() {
+        new ShardedBook(registry, new BookPersistence[shards], BankMetrics.disabled()).close();
+    }
+
+    // Throughput in commands per second
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BankService.Status[] applyBatch() {
+        int from = nextBatch;
+        nextBatch = (nextBatch + BATCH_SIZE) % COMMANDS;
+        book.applyAll(stream, from, from + BATCH_SIZE, results);
+        return results;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PortfolioStats eligibility() {
+        return book.evaluateEligibility(engine);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void printAll() {
+        book.print(new ReportQuery(), discard);
+        discard.flush();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void top100() {
+        book.print(new ReportQuery().topByExposure(100), discard);
+        discard.flush();
+    }
+
+    // Random changes to existing customers, each batch grouped by customer as BatchProcessor groups it
+    private static BankCommand[] commands(int customers, int count) {
+        SplittableRandom random = new SplittableRandom(2);
+        BankCommand[] stream = new BankCommand[count];
+        for (int i = 0; i < count; i++) {
+            String customerID = WorkloadGenerator.customerID(random.nextInt(customers));
+            stream[i] = random.nextBoolean()
+                    ? BankCommand.updateIncome(customerID, 20_000 + random.nextInt(200_000))
+                    : BankCommand.updateEligibility(customerID, random.nextInt(10) > 0);
+        }
+        for (int from = 0; from < count; from += BATCH_SIZE) {
+            int to = Math.min(count, from + BATCH_SIZE);
+            long[] keys = new long[to - from];
+            for (int i = from; i < to; i++) {
+                keys[i - from] = ((long) stream[i].getCustomerCode() << 32) | (i - from);
+            }
+            Arrays.sort(keys);
+            BankCommand[] grouped = new BankCommand[to - from];
+            for (int i = 0; i < grouped.length; i++) {
+                grouped[i] = stream[from + (int) keys[i]];
+            }
+            System.arraycopy(grouped, 0, stream, from, grouped.length);
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,36 @@
+package xyzbank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Input validation of the menu, over a mix of valid and invalid input
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+    private final String[] customerIDs = {"ABC123", "XYZ999", "abc123", "AB1234", "ABC12", "ABC1234", "QQQ000", ""};
+    private final String[] loanTypes = {"Auto", "Builder", "mortgage", "PERSONAL", "Other", "Car", "", "Mortgages"};
+    private int next;
+
+    @Benchmark
+    public boolean isValidCustomerID() {
+        return XYZBank.isValidCustomerID(customerIDs[next++ & 7]);
+    }
+
+    @Benchmark
+    public boolean isValidLoanType() {
+        return XYZBank.isValidLoanType(loanTypes[next++ & 7]);
+    }
+}
@@ -0,0 +1,80 @@
+import java.time.YearMonth;
+import java.util.SplittableRandom;
+
+// Benchmark of AmortizationEngine.projectBook on 1, 2, 4 ... threads up to the number of cores
+// Needs about 100 bytes of heap per loan, for example -Xmx2g for the default 10M loans
+// Run with: java -Xmx2g AmortizationBenchmark [loans]
+class AmortizationBenchmark {
+    private static final LoanType[] LOAN_TYPES = {
+            LoanTypes.AUTO, LoanTypes.BUILDER, LoanTypes.MORTGAGE, LoanTypes.PERSONAL, LoanTypes.OTHER};
+    private static final int LOANS_PER_CUSTOMER = 4;
+
+    public static void main(String[] args) {
+        int loans = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        LoanStore store = generate(loans);
+        YearMonth asOf = YearMonth.of(2026, 1);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Loans: " + loans);
+        System.out.println("Threads | Time (ms) | Loans/s");
+        BookProjection totals = null;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            AmortizationEngine engine = new AmortizationEngine(store, asOf, threads);
+            engine.projectBook(); // warm-up
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                totals = engine.projectBook();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%7d | %9.0f | %11.0f%n", threads, best / 1e6, loans / (best / 1e9));
+            if (threads == cores) {
+                checkSample(engine, store, asOf);
+                measureCache(engine, store);
+                engine.shutdown();
+                break;
+            }
+            engine.shutdown();
+        }
+        totals.print();
+    }
+
+    // The batch results must match the single-loan projection
+    private static void checkSample(AmortizationEngine engine, LoanStore store, YearMonth asOf) {
+        for (int row = 0; row < store.size(); row += Math.max(1, store.size() / 1000)) {
+            LoanProjection single = LoanProjection.of(store.interestRate(row), store.loanTermLeft(row),
+                    store.amountLeftToPay(row), store.overpayment(row), asOf);
+            if (single.getMonthsLeft() != engine.monthsLeft(row)
+                    || Math.abs(single.getInterestLeft() - engine.interestLeft(row)) > 1e-6) {
+                throw new IllegalStateException("Row " + row + " differs from its single-loan projection");
+            }
+        }
+    }
+
+    // First lookups compute and cache, repeated lookups only find
+    private static void measureCache(AmortizationEngine engine, LoanStore store) {
+        int lookups = Math.min(100_000, store.customerCount());
+        for (int pass = 1; pass <= 2; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                engine.project(store.customerCodeAt(i), 1).getSchedule();
+            }
+            System.out.printf("Per-loan projections with schedule, %s: %.2f us each%n",
+                    pass == 1 ? "computed" : "cached", (System.nanoTime() - start) / 1e3 / lookups);
+        }
+    }
+
+    // Random loans: rates 0-12%, terms up to 30 years, amounts up to 500000, overpayments up to 20% where allowed
+    private static LoanStore generate(int loans) {
+        SplittableRandom random = new SplittableRandom(42);
+        LoanStore store = new LoanStore(loans);
+        for (int i = 0; i < loans; i++) {
+            LoanType type = LOAN_TYPES[random.nextInt(LOAN_TYPES.length)];
+            double overpayment = type.hasOverpayment() ? random.nextInt(21) : 0;
+            store.append(i / LOANS_PER_CUSTOMER, i % LOANS_PER_CUSTOMER + 1, type.getOrdinal(),
+                    Math.round(random.nextDouble() * 1200) / 100.0, 1 + random.nextInt(360) / 12.0,
+                    Math.round(random.nextDouble() * 500_000), overpayment);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,402 @@
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Projects repayments for every loan of a LoanStore: monthly payment, months left, interest left and payoff date
+//
+// Loans are annuities with monthly compounding at interestRate / 12 over the term left rounded up to whole months.
+// The overpayment option of Builder and Mortgage loans pays that percentage on top of every monthly payment, which
+// shortens the term; the payoff month and interest then follow in closed form, with no month-by-month loop.
+//
+// The book is split over a ForkJoinPool into blocks of rows. Each block is computed in separate passes over primitive
+// arrays (rates and months, then discount factors, then payments and payoff) so the arithmetic passes stay simple
+// enough for the JIT to vectorize. Single loans are projected on demand and kept in a cache.
+// The store must not change while the engine is in use; call invalidate after changing it.
+class AmortizationEngine {
+    // Rows computed by one leaf task, also the length of its scratch arrays
+    private static final int BLOCK_SIZE = 4096;
+    // Balances below this are treated as paid off, to absorb rounding in the closed form
+    private static final double PAID_OFF = 1e-9;
+
+    private final LoanStore store;
+    private final YearMonth asOf;
+    private final ForkJoinPool pool;
+    private final Map<Long, LoanProjection> cache = new ConcurrentHashMap<>();
+
+    // Per-row results of the last projectBook
+    private double[] monthlyPayments;
+    private int[] monthsLeft;
+    private int[] scheduledMonths;
+    private double[] interestLeft;
+    private double[] interestSaved;
+
+    // Engine running on the common pool, projecting from the given month
+    public AmortizationEngine(LoanStore store, YearMonth asOf) {
+        this(store, asOf, ForkJoinPool.commonPool());
+    }
+
+    // Engine running on a dedicated pool with the given number of worker threads
+    public AmortizationEngine(LoanStore store, YearMonth asOf, int parallelism) {
+        this(store, asOf, new ForkJoinPool(parallelism));
+    }
+
+    private AmortizationEngine(LoanStore store, YearMonth asOf, ForkJoinPool pool) {
+        this.store = store;
+        this.asOf = asOf;
+        this.pool = pool;
+    }
+
+    // Method to project every loan, keeping the per-row results and returning the book totals
+    // A store with holes is compacted first
+    public BookProjection projectBook() {
+        if (!store.isCompact()) {
+            store.compact();
+        }
+        int size = store.size();
+        monthlyPayments = new double[size];
+        monthsLeft = new int[size];
+        scheduledMonths = new int[size];
+        interestLeft = new double[size];
+        interestSaved = new double[size];
+        return pool.invoke(new ProjectionTask(this, 0, size));
+    }
+
+    // Results of the last projectBook for a row
+    public double monthlyPayment(int row) {
+        return monthlyPayments[row];
+    }
+
+    public int monthsLeft(int row) {
+        return monthsLeft[row];
+    }
+
+    public int scheduledMonths(int row) {
+        return scheduledMonths[row];
+    }
+
+    public double interestLeft(int row) {
+        return interestLeft[row];
+    }
+
+    public double interestSaved(int row) {
+        return interestSaved[row];
+    }
+
+    public YearMonth payoffDate(int row) {
+        return asOf.plusMonths(monthsLeft[row]);
+    }
+
+    // Method to project one loan, computed on first use and then served from the cache; null if there is no such loan
+    public LoanProjection project(int customerCode, int recordID) {
+        int row = store.find(customerCode, recordID);
+        if (row < 0) {
+            return null;
+        }
+        return cache.computeIfAbsent(((long) customerCode << 32) | (recordID & 0xFFFFFFFFL),
+                key -> LoanProjection.of(store.interestRate(row), store.loanTermLeft(row), store.amountLeftToPay(row),
+                        store.overpayment(row), asOf));
+    }
+
+    // Method to drop cached projections after the store changed
+    public void invalidate() {
+        cache.clear();
+        monthlyPayments = null;
+        monthsLeft = null;
+        scheduledMonths = null;
+        interestLeft = null;
+        interestSaved = null;
+    }
+
+    // Method to release the worker threads of a dedicated pool
+    public void shutdown() {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    // Projects rows [from, to) of the input columns into the output columns at the same positions
+    // Scratch arrays must hold at least to - from values
+    static void projectRange(double[] rates, double[] terms, double[] amounts, double[] overpayments, int from, int to,
+                             double[] payments, int[] months, int[] scheduled, double[] interest, double[] saved,
+                             double[] monthlyRate, double[] periods, double[] growth) {
+        int count = to - from;
+
+        // Pass 1: monthly rate and whole months left
+        for (int i = 0; i < count; i++) {
+            monthlyRate[i] = rates[from + i] / 1200.0;
+            periods[i] = Math.max(1.0, Math.ceil(terms[from + i] * 12.0 - 1e-9));
+        }
+
+        // Pass 2: log(1 + r), the continuous growth per month
+        for (int i = 0; i < count; i++) {
+            growth[i] = Math.log(1.0 + monthlyRate[i]);
+        }
+
+        // Pass 3: scheduled annuity payment and interest over the full term
+        for (int i = 0; i < count; i++) {
+            int row = from + i;
+            double principal = Math.max(0.0, amounts[row]);
+            double r = monthlyRate[i];
+            double n = periods[i];
+            double discount = Math.exp(-n * growth[i]);
+            double payment = r > 0 ? principal * r / (1.0 - discount) : principal / n;
+            payments[row] = payment;
+            scheduled[row] = principal > 0 ? (int) n : 0;
+            interest[row] = payment * n - principal;
+        }
+
+        // Pass 4: with the overpayment on top, the balance after k months is P(1+r)^k - M'((1+r)^k - 1) / r,
+        // which reaches zero after -log(1 - P r / M') / log(1 + r) months
+        for (int i = 0; i < count; i++) {
+            int row = from + i;
+            double extra = overpayments[row];
+            if (extra <= 0 || payments[row] <= 0) {
+                months[row] = scheduled[row];
+                saved[row] = 0;
+                continue;
+            }
+            double principal = amounts[row];
+            double r = monthlyRate[i];
+            double payment = payments[row] * (1.0 + extra / 100.0);
+            double exact = r > 0 ? -Math.log(1.0 - principal * r / payment) / growth[i] : principal / payment;
+            double full = Math.floor(exact);
+            double factor = Math.exp(full * growth[i]);
+            double balance = r > 0 ? principal * factor - payment * (factor - 1.0) / r : principal - payment * full;
+            boolean finalPayment = balance > PAID_OFF * principal;
+            double totalPaid = full * payment + (finalPayment ? balance * (1.0 + r) : 0.0);
+            double scheduledInterest = interest[row];
+            interest[row] = totalPaid - principal;
+            saved[row] = scheduledInterest - interest[row];
+            months[row] = (int) full + (finalPayment ? 1 : 0);
+        }
+    }
+
+    private static class ProjectionTask extends RecursiveTask<BookProjection> {
+        private static final long serialVersionUID = 1L;
+
+        private final AmortizationEngine engine;
+        private final int from;
+        private final int to;
+
+        ProjectionTask(AmortizationEngine engine, int from, int to) {
+            this.engine = engine;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BookProjection compute() {
+            if (to - from <= BLOCK_SIZE) {
+                return computeBlock();
+            }
+            int middle = from + (((to - from) / BLOCK_SIZE + 1) / 2) * BLOCK_SIZE;
+            ProjectionTask left = new ProjectionTask(engine, from, middle);
+            left.fork();
+            BookProjection right = new ProjectionTask(engine, middle, to).compute();
+            return left.join().merge(right);
+        }
+
+        private BookProjection computeBlock() {
+            AmortizationEngine e = engine;
+            LoanStore store = e.store;
+            int count = to - from;
+            projectRange(store.interestRateColumn(), store.loanTermLeftColumn(), store.amountLeftToPayColumn(),
+                    store.overpaymentColumn(), from, to,
+                    e.monthlyPayments, e.monthsLeft, e.scheduledMonths, e.interestLeft, e.interestSaved,
+                    new double[count], new double[count], new double[count]);
+            BookProjection totals = new BookProjection(e.asOf);
+            for (int row = from; row < to; row++) {
+                totals.add(e.monthlyPayments[row], e.monthsLeft[row], e.scheduledMonths[row], e.interestLeft[row],
+                        e.interestSaved[row]);
+            }
+            return totals;
+        }
+    }
+}
+
+// Repayment projection of one loan; the month-by-month schedule is only built when asked for
+class LoanProjection {
+    private final double interestRate;
+    private final double amountLeftToPay;
+    private final double overpayment;
+    private final YearMonth asOf;
+    private final double monthlyPayment;
+    private final int monthsLeft;
+    private final int scheduledMonths;
+    private final double interestLeft;
+    private final double interestSaved;
+    private volatile double[][] schedule;
+
+    private LoanProjection(double interestRate, double amountLeftToPay, double overpayment, YearMonth asOf,
+                           double monthlyPayment, int monthsLeft, int scheduledMonths, double interestLeft,
+                           double interestSaved) {
+        this.interestRate = interestRate;
+        this.amountLeftToPay = amountLeftToPay;
+        this.overpayment = overpayment;
+        this.asOf = asOf;
+        this.monthlyPayment = monthlyPayment;
+        this.monthsLeft = monthsLeft;
+        this.scheduledMonths = scheduledMonths;
+        this.interestLeft = interestLeft;
+        this.interestSaved = interestSaved;
+    }
+
+    // Method to project a single loan with the same kernel as the whole book
+    static LoanProjection of(double interestRate, double loanTermLeft, double amountLeftToPay, double overpayment,
+                             YearMonth asOf) {
+        double[] payment = new double[1];
+        int[] months = new int[1];
+        int[] scheduled = new int[1];
+        double[] interest = new double[1];
+        double[] saved = new double[1];
+        AmortizationEngine.projectRange(new double[]{interestRate}, new double[]{loanTermLeft},
+                new double[]{amountLeftToPay}, new double[]{overpayment}, 0, 1,
+                payment, months, scheduled, interest, saved, new double[1], new double[1], new double[1]);
+        return new LoanProjection(interestRate, amountLeftToPay, overpayment, asOf, payment[0], months[0], scheduled[0],
+                interest[0], saved[0]);
+    }
+
+    // Scheduled payment, without the overpayment
+    public double getMonthlyPayment() {
+        return monthlyPayment;
+    }
+
+    // Payment actually made each month, including the overpayment
+    public double getMonthlyPaymentWithOverpayment() {
+        return monthlyPayment * (1.0 + overpayment / 100.0);
+    }
+
+    public int getMonthsLeft() {
+        return monthsLeft;
+    }
+
+    // Months left if only the scheduled payment is made
+    public int getScheduledMonths() {
+        return scheduledMonths;
+    }
+
+    public double getInterestLeft() {
+        return interestLeft;
+    }
+
+    public double getInterestSaved() {
+        return interestSaved;
+    }
+
+    public YearMonth getPayoffDate() {
+        return asOf.plusMonths(monthsLeft);
+    }
+
+    // Month-by-month rows of {payment, interest, principal, balance after}, built on first use
+    public double[][] getSchedule() {
+        double[][] rows = schedule;
+        if (rows == null) {
+            synchronized (this) {
+                rows = schedule;
+                if (rows == null) {
+                    rows = buildSchedule();
+                    schedule = rows;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Method to print the schedule, one line per month
+    public void printSchedule() {
+        System.out.println("Month   | Payment | Interest | Principal | Balance");
+        double[][] rows = getSchedule();
+        for (int month = 0; month < rows.length; month++) {
+            System.out.printf("%s | %.2f | %.2f | %.2f | %.2f%n", asOf.plusMonths(month + 1), rows[month][0],
+                    rows[month][1], rows[month][2], rows[month][3]);
+        }
+    }
+
+    private double[][] buildSchedule() {
+        double r = interestRate / 1200.0;
+        double payment = getMonthlyPaymentWithOverpayment();
+        double balance = Math.max(0.0, amountLeftToPay);
+        double[][] rows = new double[monthsLeft][];
+        for (int month = 0; month < monthsLeft; month++) {
+            double interest = balance * r;
+            double paid = Math.min(payment, balance + interest);
+            if (month == monthsLeft - 1) {
+                paid = balance + interest; // the last payment clears the rounding left over
+            }
+            balance = balance + interest - paid;
+            rows[month] = new double[]{paid, interest, paid - interest, balance};
+        }
+        return rows;
+    }
+}
+
+// Totals of a book projection, merged across the blocks of the engine
+class BookProjection {
+    private final YearMonth asOf;
+    private long loans;
+    private double monthlyPayments;
+    private double interestLeft;
+    private double interestSaved;
+    private long monthsSaved;
+    private int lastPayoffMonth;
+
+    BookProjection(YearMonth asOf) {
+        this.asOf = asOf;
+    }
+
+    // Method to account for one projected loan
+    void add(double monthlyPayment, int monthsLeft, int scheduledMonths, double interest, double saved) {
+        loans++;
+        monthlyPayments += monthlyPayment;
+        interestLeft += interest;
+        interestSaved += saved;
+        monthsSaved += scheduledMonths - monthsLeft;
+        lastPayoffMonth = Math.max(lastPayoffMonth, monthsLeft);
+    }
+
+    // Method to combine the totals of two blocks
+    BookProjection merge(BookProjection other) {
+        loans += other.loans;
+        monthlyPayments += other.monthlyPayments;
+        interestLeft += other.interestLeft;
+        interestSaved += other.interestSaved;
+        monthsSaved += other.monthsSaved;
+        lastPayoffMonth = Math.max(lastPayoffMonth, other.lastPayoffMonth);
+        return this;
+    }
+
+    public long getLoans() {
+        return loans;
+    }
+
+    public double getMonthlyPayments() {
+        return monthlyPayments;
+    }
+
+    public double getInterestLeft() {
+        return interestLeft;
+    }
+
+    public double getInterestSaved() {
+        return interestSaved;
+    }
+
+    public long getMonthsSaved() {
+        return monthsSaved;
+    }
+
+    public YearMonth getLastPayoffDate() {
+        return asOf.plusMonths(lastPayoffMonth);
+    }
+
+    // Method to print the totals
+    public void print() {
+        System.out.println("Loans projected: " + loans);
+        System.out.printf("Scheduled monthly payments: %.2f%n", monthlyPayments);
+        System.out.printf("Interest left to pay: %.2f%n", interestLeft);
+        System.out.printf("Interest saved by overpayments: %.2f (%d months sooner in total)%n", interestSaved, monthsSaved);
+        System.out.println("Last loan paid off: " + getLastPayoffDate());
+    }
+}
@@ -0,0 +1,152 @@
+// One change to the book, as applied by BankService.apply and applyAll
+// Parsed from the line syntax shared by the network server and batch mode, fields separated by whitespace:
+//   REGISTER <customerID> <income>
+//   INCOME <customerID> <income>
+//   ELIGIBILITY <customerID> <true|false>
+//   LOAN <customerID> <recordID> <type> <interestRate> <termLeft> <amountLeft> [<overpayment>]
+//   REMOVELOAN <customerID> <recordID>
+// A customer ID in the wrong format parses, and is rejected when the command is applied, as in the menu.
+class BankCommand {
+    // The kinds of command, with the operation they are timed as
+    enum Kind {
+        REGISTER(BankMetrics.Operation.REGISTER_CUSTOMER),
+        INCOME(BankMetrics.Operation.UPDATE_INCOME),
+        ELIGIBILITY(BankMetrics.Operation.UPDATE_ELIGIBILITY),
+        LOAN(BankMetrics.Operation.ADD_LOAN),
+        REMOVELOAN(BankMetrics.Operation.REMOVE_LOAN);
+
+        private final BankMetrics.Operation operation;
+
+        Kind(BankMetrics.Operation operation) {
+            this.operation = operation;
+        }
+
+        public BankMetrics.Operation getOperation() {
+            return operation;
+        }
+
+        // Method to find a kind by command word, case-insensitive, returns null if it is not a change
+        public static Kind of(String word) {
+            for (Kind kind : values()) {
+                if (kind.name().equalsIgnoreCase(word)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Kind kind;
+    private final int customerCode;
+    private final int value; // income, or the record ID to remove
+    private final boolean eligible;
+    private final Loan loan;
+
+    private BankCommand(Kind kind, int customerCode, int value, boolean eligible, Loan loan) {
+        this.kind = kind;
+        this.customerCode = customerCode;
+        this.value = value;
+        this.eligible = eligible;
+        this.loan = loan;
+    }
+
+    public static BankCommand register(String customerID, int income) {
+        return new BankCommand(Kind.REGISTER, CustomerIds.encode(customerID), income, false, null);
+    }
+
+    public static BankCommand updateIncome(String customerID, int income) {
+        return new BankCommand(Kind.INCOME, CustomerIds.encode(customerID), income, false, null);
+    }
+
+    public static BankCommand updateEligibility(String customerID, boolean eligible) {
+        return new BankCommand(Kind.ELIGIBILITY, CustomerIds.encode(customerID), 0, eligible, null);
+    }
+
+    public static BankCommand addLoan(String customerID, Loan loan) {
+        return new BankCommand(Kind.LOAN, CustomerIds.encode(customerID), loan.getRecordID(), false, loan);
+    }
+
+    public static BankCommand removeLoan(String customerID, int recordID) {
+        return new BankCommand(Kind.REMOVELOAN, CustomerIds.encode(customerID), recordID, false, null);
+    }
+
+    // Method to parse the fields of a command line, the command word first
+    // Throws IllegalArgumentException, or its NumberFormatException, if the fields do not form a command
+    public static BankCommand parse(String[] fields) {
+        Kind kind = Kind.of(fields[0]);
+        if (kind == null) {
+            throw new IllegalArgumentException("Unknown command: " + fields[0]);
+        }
+        int expected = kind == Kind.LOAN ? 7 : 3;
+        if (fields.length < expected) {
+            throw new IllegalArgumentException("Missing fields: " + usage(kind));
+        }
+        String customerID = fields[1];
+        switch (kind) {
+            case REGISTER:
+                return register(customerID, Integer.parseInt(fields[2]));
+            case INCOME:
+                return updateIncome(customerID, Integer.parseInt(fields[2]));
+            case ELIGIBILITY:
+                if (!fields[2].equalsIgnoreCase("true") && !fields[2].equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("Expected true or false: " + fields[2]);
+                }
+                return updateEligibility(customerID, Boolean.parseBoolean(fields[2]));
+            case LOAN:
+                LoanType type = LoanTypes.parse(fields[3]);
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown loan type: " + fields[3]);
+                }
+                if (type.hasOverpayment() && fields.length < 8) {
+                    throw new IllegalArgumentException("Missing overpayment: " + usage(kind));
+                }
+                double overpayment = type.hasOverpayment() ? Double.parseDouble(fields[7]) : 0;
+                return addLoan(customerID, type.create(Integer.parseInt(fields[2]), Double.parseDouble(fields[4]),
+                        Double.parseDouble(fields[5]), overpayment, Double.parseDouble(fields[6])));
+            default:
+                return removeLoan(customerID, Integer.parseInt(fields[2]));
+        }
+    }
+
+    // Syntax of a kind of command, for error messages
+    public static String usage(Kind kind) {
+        switch (kind) {
+            case REGISTER:
+                return "REGISTER <customerID> <income>";
+            case INCOME:
+                return "INCOME <customerID> <income>";
+            case ELIGIBILITY:
+                return "ELIGIBILITY <customerID> <true|false>";
+            case LOAN:
+                return "LOAN <customerID> <recordID> <" + LoanTypes.names("|") + "> <interestRate> <termLeft> "
+                        + "<amountLeft> [<overpayment>]";
+            default:
+                return "REMOVELOAN <customerID> <recordID>";
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // Packed customer code, CustomerIds.NONE when the ID was malformed
+    public int getCustomerCode() {
+        return customerCode;
+    }
+
+    public int getIncome() {
+        return value;
+    }
+
+    public boolean isEligible() {
+        return eligible;
+    }
+
+    public Loan getLoan() {
+        return loan;
+    }
+
+    public int getRecordID() {
+        return value;
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator for BankServer: many concurrent connections, each registering its own customer and then sending
+// a mix of requests (60% PRINT, 20% INCOME, 10% LOAN, 10% REMOVELOAN) one at a time. Reports throughput and
+// latency percentiles; the first 10% of each connection's requests are warm-up and not measured.
+// Start the server first, for example: java XYZBank --serve 7070
+// Run with: java BankLoadGenerator [host] [port] [connections] [requestsPerConnection]
+class BankLoadGenerator {
+    // Customers of the generator start here so they do not collide with the sample book
+    private static final int FIRST_CODE = 10_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int warmup = requests / 10;
+        int measured = requests - warmup;
+
+        long[] latencies = new long[connections * measured];
+        AtomicLong busy = new AtomicLong();
+        AtomicLong failedConnections = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(connections);
+        ExecutorService clients = BankServer.newThreadPerTaskExecutor("load-client");
+        long begin = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            clients.execute(() -> {
+                try {
+                    run(host, port, connection, requests, warmup, latencies, connection * measured, busy);
+                } catch (IOException e) {
+                    failedConnections.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        clients.shutdown();
+
+        // Connections that failed left zeros in their slots, leave them out
+        Arrays.sort(latencies);
+        int first = 0;
+        while (first < latencies.length && latencies[first] == 0) {
+            first++;
+        }
+        long[] measuredLatencies = Arrays.copyOfRange(latencies, first, latencies.length);
+        long total = (connections - failedConnections.get()) * requests;
+        System.out.println("Connections: " + connections + " (" + failedConnections.get() + " failed), requests per connection: "
+                + requests + ", client threads: " + (BankServer.hasVirtualThreads() ? "virtual" : "platform"));
+        System.out.printf("Throughput: %.0f requests/s, %d answered ERR BUSY%n", total / (nanos / 1e9), busy.get());
+        if (measuredLatencies.length > 0) {
+            System.out.printf("Latency (us): p50 %d | p90 %d | p99 %d | p999 %d | max %d%n",
+                    percentile(measuredLatencies, 0.50), percentile(measuredLatencies, 0.90),
+                    percentile(measuredLatencies, 0.99), percentile(measuredLatencies, 0.999),
+                    measuredLatencies[measuredLatencies.length - 1] / 1000);
+        }
+    }
+
+    private static void run(String host, int port, int connection, int requests, int warmup, long[] latencies,
+                            int offset, AtomicLong busy) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            SplittableRandom random = new SplittableRandom(connection);
+            String customerID = CustomerIds.decode(FIRST_CODE + connection);
+            request(in, out, "REGISTER " + customerID + " 100000", busy);
+
+            int nextRecord = 1;
+            int lastRecord = 0;
+            for (int i = 0; i < requests; i++) {
+                int op = random.nextInt(10);
+                String line;
+                if (op < 6) {
+                    line = "PRINT " + customerID;
+                } else if (op < 8) {
+                    line = "INCOME " + customerID + " " + (50_000 + random.nextInt(100_000));
+                } else if (op < 9) {
+                    lastRecord = nextRecord++;
+                    line = "LOAN " + customerID + " " + lastRecord + " Auto 5.5 3 " + (1000 + random.nextInt(20_000));
+                } else {
+                    line = "REMOVELOAN " + customerID + " " + lastRecord;
+                }
+                long start = System.nanoTime();
+                request(in, out, line, busy);
+                long latency = System.nanoTime() - start;
+                if (i >= warmup) {
+                    latencies[offset + i - warmup] = Math.max(1, latency);
+                }
+            }
+            request(in, out, "QUIT", busy);
+        }
+    }
+
+    // Sends one request and reads the answer up to its OK or ERR line
+    private static void request(BufferedReader in, Writer out, String line, AtomicLong busy) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        String answer;
+        while ((answer = in.readLine()) != null) {
+            if (answer.equals("OK")) {
+                return;
+            }
+            if (answer.startsWith("ERR ")) {
+                if (answer.startsWith("ERR BUSY")) {
+                    busy.incrementAndGet();
+                }
+                return;
+            }
+        }
+        throw new IOException("Connection closed by the server");
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000;
+    }
+}
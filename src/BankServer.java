@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Network front end for the menu operations, one thread per connection
+// Connections run on virtual threads when the JVM has them (Java 21+), otherwise on platform threads with small stacks.
+//
+// Protocol: UTF-8 lines, one request per line, space-separated fields. Every request is answered by zero or more
+// report lines followed by "OK" or "ERR <STATUS> <message>".
+//   REGISTER <customerID> <income>
+//   INCOME <customerID> <income>
+//   ELIGIBILITY <customerID> <true|false>
+//   LOAN <customerID> <recordID> <type> <interestRate> <termLeft> <amountLeft> [<overpayment>]
+//   REMOVELOAN <customerID> <recordID>
+//   PRINT <customerID>
+//   PRINTALL
+//   REPORT [type=<LoanType>] [eligible=<true|false>] [prefix=<ID prefix>] [top=<K>] [page=<size>] [after=<cursor>]
+//        answered by the page, then "NEXT <cursor>" when there are more pages
+//   METRICS
+//   QUIT
+//
+// Backpressure: connections over the limit are answered "ERR BUSY" and closed; requests that cannot get an
+// in-flight permit within the wait are answered "ERR BUSY" and the connection stays open. Requests longer than
+// MAX_LINE characters are dropped unread past the limit and answered "ERR SYNTAX". When accepting fails, as it
+// does while the process is out of file descriptors, the acceptor waits before it tries again.
+//
+// System properties:
+//   xyzbank.server.maxConnections   open connections accepted at once (default 10000)
+//   xyzbank.server.maxInFlight      requests executed at once (default 256)
+//   xyzbank.server.requestWaitMillis  how long a request waits for a permit before it is rejected (default 1000)
+class BankServer implements Closeable {
+    static final int MAX_LINE = 1024;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+    private static final int WRITER_BUFFER = 16 * 1024;
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+    private final ShardedBook service;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Semaphore connectionPermits;
+    private final Semaphore requestPermits;
+    private final long requestWaitMillis;
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    public BankServer(ShardedBook service, int port, int maxConnections, int maxInFlight, long requestWaitMillis)
+            throws IOException {
+        this.service = service;
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.requestPermits = new Semaphore(maxInFlight);
+        this.requestWaitMillis = requestWaitMillis;
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port), 1024);
+        this.connections = newThreadPerTaskExecutor("bank-connection");
+        this.acceptor = new Thread(this::acceptLoop, "bank-acceptor");
+    }
+
+    // Server on the given port with the limits from system properties
+    public static BankServer fromSystemProperties(ShardedBook service, int port) throws IOException {
+        return new BankServer(service, port,
+                Integer.getInteger("xyzbank.server.maxConnections", 10_000),
+                Integer.getInteger("xyzbank.server.maxInFlight", 256),
+                Long.getLong("xyzbank.server.requestWaitMillis", 1000));
+    }
+
+    // Executor with one new thread per task: virtual threads when available, small-stack daemon threads otherwise
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(null, runnable, name + "-" + count.incrementAndGet(), PLATFORM_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
+    public static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    // Method to block until the server is closed
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    // Method to stop accepting and close the connections' executor; open connections end when their clients leave
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        connections.shutdown();
+    }
+
+    private void acceptLoop() {
+        long backoffMillis = 1;
+        while (running) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+                backoffMillis = 1;
+            } catch (IOException e) {
+                if (!running || !server.isOpen()) {
+                    return;
+                }
+                System.out.println("Accept failed, retrying in " + backoffMillis + " ms: " + e.getMessage());
+                backoffMillis = backOff(backoffMillis);
+                continue;
+            }
+            if (!connectionPermits.tryAcquire()) {
+                reject(client);
+                continue;
+            }
+            try {
+                connections.execute(() -> {
+                    try {
+                        serve(client);
+                    } finally {
+                        connectionPermits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                connectionPermits.release();
+                reject(client);
+            }
+        }
+    }
+
+    // Method to wait after a failed accept, so a persistent failure does not spin the acceptor, returns the next
+    // wait: doubled, up to MAX_ACCEPT_BACKOFF_MILLIS
+    static long backOff(long waitMillis) {
+        try {
+            Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Math.min(waitMillis * 2, MAX_ACCEPT_BACKOFF_MILLIS);
+    }
+
+    private static void reject(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.write(ByteBuffer.wrap("ERR BUSY too many connections\n".getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.socket().setTcpNoDelay(true);
+            LineReader in = new LineReader(Channels.newInputStream(channel), StandardCharsets.UTF_8, MAX_LINE);
+            ReportWriter out = new ReportWriter(channel, StandardCharsets.UTF_8, false, WRITER_BUFFER);
+            String line;
+            while (running && (line = in.readLine()) != null) {
+                if (in.tooLong()) {
+                    out.println("ERR SYNTAX request longer than " + MAX_LINE + " characters");
+                } else if (!handle(line.trim(), out)) {
+                    out.println("OK");
+                    out.flush();
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a broken connection only ends that client's session
+        }
+    }
+
+    // Method to run one request, returns false when the client asked to quit
+    private boolean handle(String line, ReportWriter out) {
+        String[] fields = line.split("\\s+");
+        String command = fields[0].toUpperCase();
+        if (command.equals("QUIT")) {
+            return false;
+        }
+        try {
+            if (!requestPermits.tryAcquire(requestWaitMillis, TimeUnit.MILLISECONDS)) {
+                out.println("ERR BUSY server overloaded, retry later");
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("ERR BUSY server shutting down");
+            return true;
+        }
+        try {
+            execute(command, fields, out);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            out.println("ERR SYNTAX " + usage(command));
+        } finally {
+            requestPermits.release();
+        }
+        return true;
+    }
+
+    private void execute(String command, String[] fields, ReportWriter out) {
+        switch (command) {
+            case "REGISTER":
+            case "INCOME":
+            case "ELIGIBILITY":
+            case "LOAN":
+            case "REMOVELOAN":
+                reply(out, service.apply(BankCommand.parse(fields)));
+                break;
+            case "PRINT":
+                // Copied under the customer's lock and written after it, so a slow client never holds a lock
+                long start = service.getMetrics().start();
+                Customer customer = service.query(fields[1], Customer::copy);
+                if (customer == null) {
+                    reply(out, BankService.Status.CUSTOMER_NOT_FOUND);
+                    break;
+                }
+                out.printCustomer(customer, customer.isEligibleForNewLoans());
+                service.getMetrics().record(BankMetrics.Operation.REPORT, start);
+                out.println("OK");
+                break;
+            case "PRINTALL":
+                // Streamed a page at a time, so the book is never copied whole
+                long startAll = service.getMetrics().start();
+                service.print(new ReportQuery(), out);
+                service.getMetrics().record(BankMetrics.Operation.REPORT, startAll);
+                out.println("OK");
+                break;
+            case "REPORT":
+                ReportQuery query = ReportQuery.parse(String.join(" ", Arrays.copyOfRange(fields, 1, fields.length)));
+                long startReport = service.getMetrics().start();
+                String cursor = service.print(query, out);
+                service.getMetrics().record(BankMetrics.Operation.REPORT, startReport);
+                if (cursor != null) {
+                    out.println("NEXT " + cursor);
+                }
+                out.println("OK");
+                break;
+            case "METRICS":
+                out.println((service.getMetrics().formatSummary() + service.getRegistry().formatStats()).trim());
+                out.println("OK");
+                break;
+            default:
+                out.println("ERR SYNTAX unknown command " + command);
+        }
+    }
+
+    private static void reply(ReportWriter out, BankService.Status status) {
+        out.println(status == BankService.Status.OK ? "OK" : "ERR " + status + " " + status.getMessage());
+    }
+
+    private static String usage(String command) {
+        BankCommand.Kind kind = BankCommand.Kind.of(command);
+        if (kind != null) {
+            return "usage: " + BankCommand.usage(kind);
+        }
+        switch (command) {
+            case "PRINT":
+                return "usage: PRINT <customerID>";
+            case "REPORT":
+                return "usage: REPORT [type=<LoanType>] [eligible=<true|false>] [prefix=<ID prefix>] [top=<K>] "
+                        + "[page=<size>] [after=<cursor>]";
+            default:
+                return "usage: " + command;
+        }
+    }
+}
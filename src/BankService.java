@@ -0,0 +1,677 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Thread-safe service layer over the customer registry, separate from the console menu
+//
+// Each customer is guarded by one of a fixed set of striped locks chosen by its customer code, so operations
+// on different customers almost never contend. Registry lookups are optimistic reads of a StampedLock and
+// only registrations take it exclusively. Mutations are written ahead to the journal while the stripe is held,
+// and callers wait for durability after releasing it, so group commit can batch them. Every change is a
+// BankCommand; applyAll takes a batch of them grouped by customer, with one lock per customer and one wait.
+// A LoanIndex, when the book has one (see LoanIndex.isWanted), is kept current with every change and answers
+// record ID lookups and loan queries; without it record IDs are looked up in the customer's own loans and loan
+// queries scan the book.
+// Reports and snapshots read BookViews, which writers keep at a point in time by copying each customer they
+// change while a view is open, before the first change.
+// Every operation is timed into BankMetrics, which costs next to nothing when metrics are disabled.
+class BankService {
+    private static final int STRIPES = 256;
+
+    // Outcome of a service operation, with the message the menu prints for it
+    enum Status {
+        OK("Done."),
+        INVALID_ID("Invalid Customer ID format. Please use the format AAAXXX."),
+        DUPLICATE_CUSTOMER("A customer with this ID already exists."),
+        CUSTOMER_NOT_FOUND("Customer not found."),
+        NOT_ELIGIBLE("Customer is not eligible for a new loan."),
+        DUPLICATE_RECORD("A loan with the specified Record ID already exists for this customer."),
+        RECORD_NOT_FOUND("Loan with the specified Record ID not found."),
+        JOURNAL_FAILURE("Could not journal the change."),
+        WRONG_SHARD("The customer belongs to a shard held by another process.");
+
+        private final String message;
+
+        Status(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final CustomerRegistry registry;
+    private final BookPersistence persistence;
+    private final StampedLock registryLock = new StampedLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final LoanIndex index; // null when the book is not indexed
+    private final BankMetrics metrics;
+    // Loans added and removed through this service, and the book's loans before them, counted on first use
+    private final LoanTotals changes = new LoanTotals();
+    private final Object initialLock = new Object();
+    private volatile LoanTotals initial;
+    // Open point-in-time views, replaced as a whole when one opens or closes
+    private volatile BookView[] views = new BookView[0];
+
+    public BankService(CustomerRegistry registry, BookPersistence persistence) {
+        this(registry, persistence, BankMetrics.disabled());
+    }
+
+    public BankService(CustomerRegistry registry, BookPersistence persistence, BankMetrics metrics) {
+        this(registry, persistence, metrics, LoanIndex.isWanted());
+    }
+
+    // indexed: whether to build and keep a LoanIndex, which reads the whole book now and holds heap for every loan
+    public BankService(CustomerRegistry registry, BookPersistence persistence, BankMetrics metrics, boolean indexed) {
+        this.registry = registry;
+        this.persistence = persistence;
+        this.metrics = metrics;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.index = indexed ? LoanIndex.build(registry) : null;
+    }
+
+    public CustomerRegistry getRegistry() {
+        return registry;
+    }
+
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Method to register a new customer
+    public Status registerCustomer(String customerID, int income) {
+        return apply(BankCommand.register(customerID, income));
+    }
+
+    // Method to update a customer's annual income
+    public Status updateIncome(String customerID, int income) {
+        return apply(BankCommand.updateIncome(customerID, income));
+    }
+
+    // Method to update a customer's eligibility status
+    public Status updateEligibility(String customerID, boolean eligible) {
+        return apply(BankCommand.updateEligibility(customerID, eligible));
+    }
+
+    // Method to add a loan, with the same checks as the menu: eligibility status and a unique record ID
+    public Status addLoan(String customerID, Loan loan) {
+        return apply(BankCommand.addLoan(customerID, loan));
+    }
+
+    // Method to remove every loan of a customer with the given record ID
+    public Status removeLoan(String customerID, int recordID) {
+        return apply(BankCommand.removeLoan(customerID, recordID));
+    }
+
+    // Method to apply one change and wait until it is durable
+    public Status apply(BankCommand command) {
+        long start = metrics.start();
+        long[] position = new long[1];
+        Status status;
+        if (command.getKind() == BankCommand.Kind.REGISTER) {
+            status = register(command, position);
+        } else {
+            Customer customer = find(command.getCustomerCode());
+            if (customer == null) {
+                return metrics.record(command.getKind().getOperation(), start, Status.CUSTOMER_NOT_FOUND);
+            }
+            ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+            stripe.lock();
+            try {
+                status = change(customer, command, position);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        if (status == Status.OK) {
+            status = commit(position[0]);
+        }
+        return metrics.record(command.getKind().getOperation(), start, status);
+    }
+
+    // Method to apply commands[from, to), in which the commands of a customer are next to each other, leaving
+    // one status per command in results
+    // Each customer's run of changes is applied in order under one acquisition of their lock, and the journal is
+    // waited on once, for the whole range. Latencies are recorded without that wait.
+    public void applyAll(BankCommand[] commands, int from, int to, Status[] results) {
+        long[] position = new long[1];
+        int i = from;
+        while (i < to) {
+            BankCommand command = commands[i];
+            long start = metrics.start();
+            if (command.getKind() == BankCommand.Kind.REGISTER) {
+                results[i] = metrics.record(command.getKind().getOperation(), start, register(command, position));
+                i++;
+                continue;
+            }
+            Customer customer = find(command.getCustomerCode());
+            if (customer == null) {
+                results[i] = metrics.record(command.getKind().getOperation(), start, Status.CUSTOMER_NOT_FOUND);
+                i++;
+                continue;
+            }
+            ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+            stripe.lock();
+            try {
+                do {
+                    command = commands[i];
+                    results[i] = metrics.record(command.getKind().getOperation(), start,
+                            change(customer, command, position));
+                    start = metrics.start();
+                    i++;
+                } while (i < to && commands[i].getCustomerCode() == customer.getCustomerCode()
+                        && commands[i].getKind() != BankCommand.Kind.REGISTER);
+            } finally {
+                stripe.unlock();
+            }
+        }
+        if (commit(position[0]) != Status.OK) {
+            for (int j = from; j < to; j++) {
+                if (results[j] == Status.OK) {
+                    results[j] = Status.JOURNAL_FAILURE;
+                }
+            }
+        }
+    }
+
+    // Registers a customer and journals it, leaving the journal position in position[0]
+    private Status register(BankCommand command, long[] position) {
+        int code = command.getCustomerCode();
+        if (code == CustomerIds.NONE) {
+            return Status.INVALID_ID;
+        }
+        long stamp = registryLock.writeLock();
+        try {
+            if (registry.find(code) != null) {
+                return Status.DUPLICATE_CUSTOMER;
+            }
+            MutationJournal journal = journal();
+            if (journal != null) {
+                position[0] = journal.logRegisterCustomer(code, command.getIncome());
+            }
+            Customer customer = new Customer();
+            customer.setCustomerCode(code);
+            customer.setCustomerIncome(command.getIncome());
+            registry.add(customer);
+            if (index != null) {
+                index.customerChanged(customer);
+            }
+            return Status.OK;
+        } catch (IOException e) {
+            return Status.JOURNAL_FAILURE;
+        } finally {
+            registryLock.unlockWrite(stamp);
+        }
+    }
+
+    // Applies any other change to a customer whose lock the caller holds, with the same checks as the menu;
+    // the change is journaled first and its position left in position[0]
+    private Status change(Customer customer, BankCommand command, long[] position) {
+        int code = customer.getCustomerCode();
+        MutationJournal journal = journal();
+        try {
+            switch (command.getKind()) {
+                case INCOME:
+                    if (journal != null) {
+                        position[0] = journal.logUpdateIncome(code, command.getIncome());
+                    }
+                    preserve(customer);
+                    customer.setCustomerIncome(command.getIncome());
+                    if (index != null) {
+                        index.customerChanged(customer);
+                    }
+                    return Status.OK;
+                case ELIGIBILITY:
+                    if (journal != null) {
+                        position[0] = journal.logUpdateEligibility(code, command.isEligible());
+                    }
+                    preserve(customer);
+                    customer.setEligibilityStatus(command.isEligible());
+                    return Status.OK;
+                case LOAN:
+                    Loan loan = command.getLoan();
+                    if (!customer.isEligibilityStatus()) {
+                        return Status.NOT_ELIGIBLE;
+                    }
+                    if (hasRecord(customer, loan.getRecordID())) {
+                        return Status.DUPLICATE_RECORD;
+                    }
+                    if (journal != null) {
+                        position[0] = journal.logAddLoan(code, loan);
+                    }
+                    preserve(customer);
+                    customer.addCreditRecord(loan);
+                    changes.add(loan);
+                    if (index != null) {
+                        index.add(customer, loan);
+                    }
+                    return Status.OK;
+                case REMOVELOAN:
+                    int recordID = command.getRecordID();
+                    if (!hasRecord(customer, recordID)) {
+                        return Status.RECORD_NOT_FOUND;
+                    }
+                    // The index keeps no Loan objects, so the customer's own ones are removed
+                    List<Loan> loansToRemove = new ArrayList<>();
+                    for (Loan held : customer.getCreditRecords()) {
+                        if (held.getRecordID() == recordID) {
+                            loansToRemove.add(held);
+                        }
+                    }
+                    if (journal != null) {
+                        position[0] = journal.logRemoveLoan(code, recordID);
+                    }
+                    preserve(customer);
+                    // Counted first: loans of off-heap and columnar books are views that removal invalidates
+                    for (Loan removed : loansToRemove) {
+                        changes.remove(removed);
+                    }
+                    customer.removeCreditRecords(loansToRemove);
+                    if (index != null) {
+                        index.remove(customer, recordID);
+                    }
+                    return Status.OK;
+                default:
+                    throw new IllegalArgumentException("Not a change to an existing customer: " + command.getKind());
+            }
+        } catch (IOException e) {
+            return Status.JOURNAL_FAILURE;
+        }
+    }
+
+    // Method to read a customer consistently, returns null if the customer does not exist
+    // The reader runs under the customer's lock and must not keep the Customer reference
+    public <T> T query(String customerID, Function<? super Customer, T> reader) {
+        long start = metrics.start();
+        Customer customer = find(CustomerIds.encode(customerID));
+        if (customer == null) {
+            metrics.record(BankMetrics.Operation.LOOKUP, start, Status.CUSTOMER_NOT_FOUND);
+            return null;
+        }
+        ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+        stripe.lock();
+        try {
+            return reader.apply(customer);
+        } finally {
+            stripe.unlock();
+            metrics.record(BankMetrics.Operation.LOOKUP, start);
+        }
+    }
+
+    // Method to check whether a customer may arrange new loans, returns null if the customer does not exist
+    public Boolean isEligible(String customerID) {
+        long start = metrics.start();
+        Customer customer = find(CustomerIds.encode(customerID));
+        if (customer == null) {
+            metrics.record(BankMetrics.Operation.ELIGIBILITY_CHECK, start, Status.CUSTOMER_NOT_FOUND);
+            return null;
+        }
+        ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+        stripe.lock();
+        try {
+            return customer.isEligibilityStatus();
+        } finally {
+            stripe.unlock();
+            metrics.record(BankMetrics.Operation.ELIGIBILITY_CHECK, start);
+        }
+    }
+
+    // Method to find the loans matching a query, through the most selective index, or by a scan of the book
+    public List<IndexedLoan> queryLoans(LoanQuery query) {
+        if (index != null) {
+            return index.query(query);
+        }
+        List<IndexedLoan> matches = new ArrayList<>();
+        forEachCustomer(customer -> {
+            for (Loan loan : customer.getCreditRecords()) {
+                if (query.matches(loan)) {
+                    matches.add(new IndexedLoan(customer.getCustomerCode(), loan, matches.size(), null));
+                }
+            }
+        });
+        return matches;
+    }
+
+    // Method to describe which index a query would use
+    public String explainQuery(LoanQuery query) {
+        return index != null ? index.explain(query) : "full scan (no loan index)";
+    }
+
+    // Method to list the IDs of customers whose exposure is more than ratio x their income, highest last
+    public List<String> customersAboveDebtToIncome(double ratio) {
+        List<String> customerIDs = new ArrayList<>();
+        if (index != null) {
+            for (int code : index.customersAboveDebtToIncome(ratio)) {
+                customerIDs.add(CustomerIds.decode(code));
+            }
+            return customerIDs;
+        }
+        List<double[]> above = new ArrayList<>(); // ratio and customer code
+        forEachCustomer(customer -> {
+            double customerRatio = LoanIndex.debtToIncomeRatio(customer);
+            if (customerRatio > ratio) {
+                above.add(new double[] {customerRatio, customer.getCustomerCode()});
+            }
+        });
+        above.sort(Comparator.<double[]>comparingDouble(entry -> entry[0]).thenComparingDouble(entry -> entry[1]));
+        for (double[] entry : above) {
+            customerIDs.add(CustomerIds.decode((int) entry[1]));
+        }
+        return customerIDs;
+    }
+
+    // Method to check whether a customer has a loan with this record ID
+    public boolean hasLoan(String customerID, int recordID) {
+        long start = metrics.start();
+        int code = CustomerIds.encode(customerID);
+        boolean found;
+        if (index != null) {
+            found = code != CustomerIds.NONE && index.lookup(code, recordID) != null;
+        } else {
+            Customer customer = find(code);
+            found = false;
+            if (customer != null) {
+                ReentrantLock stripe = stripeFor(code);
+                stripe.lock();
+                try {
+                    found = hasRecord(customer, recordID);
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        }
+        metrics.record(BankMetrics.Operation.LOOKUP, start);
+        return found;
+    }
+
+    // The loan index, null when the book is not indexed
+    public LoanIndex getLoanIndex() {
+        return index;
+    }
+
+    // Method to check whether a customer exists
+    public boolean exists(String customerID) {
+        long start = metrics.start();
+        boolean found = find(CustomerIds.encode(customerID)) != null;
+        metrics.record(BankMetrics.Operation.LOOKUP, start);
+        return found;
+    }
+
+    // Method to visit every customer in registration order, each one under its lock
+    // Registrations wait until the walk is over, other operations continue
+    public void forEachCustomer(Consumer<? super Customer> action) {
+        long stamp = registryLock.readLock();
+        try {
+            for (Customer customer : registry) {
+                ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+                stripe.lock();
+                try {
+                    action.accept(customer);
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    // Method to visit up to limit customers in registration order from a position, each one under its lock,
+    // until the visitor returns false; returns the position after the last customer visited
+    // Positions never change, since customers are only ever appended, so the result can resume a later walk
+    public int visitCustomers(int from, int limit, Predicate<? super Customer> visitor) {
+        long stamp = registryLock.readLock();
+        try {
+            int end = (int) Math.min(registry.size(), (long) from + limit);
+            int position = from;
+            while (position < end) {
+                Customer customer = registry.get(position++);
+                ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+                stripe.lock();
+                try {
+                    if (!visitor.test(customer)) {
+                        break;
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+            return position;
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    // Method to open a point-in-time view of the book, which must be closed once read
+    // Opening waits only for a registration in progress; reading the view never holds up changes for long
+    public BookView openView() {
+        long stamp = registryLock.readLock();
+        try {
+            return addView(new BookView(this, registry.size()));
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    // Method to visit customers of a view, as visitCustomers does on the live book
+    int visitCustomers(BookView view, int from, int limit, Predicate<? super Customer> visitor) {
+        if (view.isClosed()) {
+            throw new IllegalStateException("The view is closed");
+        }
+        long stamp = registryLock.readLock();
+        try {
+            int end = (int) Math.min(view.size(), (long) from + limit);
+            int position = from;
+            while (position < end) {
+                Customer customer = registry.get(position++);
+                Customer preserved;
+                ReentrantLock stripe = stripeFor(customer.getCustomerCode());
+                stripe.lock();
+                try {
+                    preserved = view.preserved(customer.getCustomerCode());
+                    if (preserved == null && !visitor.test(customer)) {
+                        break;
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+                // Preserved copies never change, so they are visited without the lock
+                if (preserved != null && !visitor.test(preserved)) {
+                    break;
+                }
+            }
+            return position;
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    synchronized void closeView(BookView view) {
+        BookView[] current = views;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == view) {
+                BookView[] next = new BookView[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, next.length - i);
+                views = next;
+                return;
+            }
+        }
+    }
+
+    public int customerCount() {
+        long stamp = registryLock.readLock();
+        try {
+            return registry.size();
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    // Method to compact the registry if removals fragmented it, then start a background snapshot if one is due
+    // Returns at once when neither is needed, so it can be called often. Every lock is held only while the book
+    // is compacted and a view opened; the snapshot is read from the view
+    public void checkpoint() throws IOException {
+        if ((persistence == null || !persistence.isCheckpointDue()) && !registry.isFragmented()) {
+            return;
+        }
+        long stamp = registryLock.writeLock();
+        try {
+            for (ReentrantLock stripe : stripes) {
+                stripe.lock();
+            }
+            try {
+                if (registry.isFragmented()) {
+                    registry.compact();
+                }
+                if (persistence != null && persistence.isCheckpointDue()) {
+                    BookView view = addView(new BookView(this, registry.size()));
+                    try {
+                        persistence.checkpointAsync(view);
+                    } catch (IOException | RuntimeException e) {
+                        view.close();
+                        throw e;
+                    }
+                }
+            } finally {
+                for (ReentrantLock stripe : stripes) {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            registryLock.unlockWrite(stamp);
+        }
+    }
+
+    // Method to total the loans held and their amount left to pay per type
+    // The book as loaded is counted once, on first use, so opening a disk book does not read it all
+    public LoanTotals getLoanTotals() {
+        LoanTotals totals = new LoanTotals();
+        totals.add(initialTotals());
+        totals.add(changes);
+        return totals;
+    }
+
+    // Counts the book from a view opened together with a copy of the changes so far, which the view already holds
+    private LoanTotals initialTotals() {
+        LoanTotals counted = initial;
+        if (counted != null) {
+            return counted;
+        }
+        synchronized (initialLock) {
+            if (initial != null) {
+                return initial;
+            }
+            LoanTotals before = new LoanTotals();
+            BookView view;
+            long stamp = registryLock.writeLock();
+            try {
+                for (ReentrantLock stripe : stripes) {
+                    stripe.lock();
+                }
+                try {
+                    view = addView(new BookView(this, registry.size()));
+                    before.add(changes);
+                } finally {
+                    for (ReentrantLock stripe : stripes) {
+                        stripe.unlock();
+                    }
+                }
+            } finally {
+                registryLock.unlockWrite(stamp);
+            }
+            try {
+                counted = new LoanTotals();
+                view.forEach(counted::addLoansOf);
+                counted.subtract(before);
+            } finally {
+                view.close();
+            }
+            initial = counted;
+            return counted;
+        }
+    }
+
+    private synchronized BookView addView(BookView view) {
+        BookView[] next = Arrays.copyOf(views, views.length + 1);
+        next[views.length] = view;
+        views = next;
+        return view;
+    }
+
+    // Keeps the customer as they are for every open view, before changing them under their lock
+    private void preserve(Customer customer) {
+        for (BookView view : views) {
+            view.preserve(customer);
+        }
+    }
+
+    // Method to find a customer by code without blocking: an optimistic read, retried under the read lock
+    // if a registration changed the registry meanwhile
+    private Customer find(int code) {
+        if (code == CustomerIds.NONE) {
+            return null;
+        }
+        long stamp = registryLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Customer customer = registry.find(code);
+                if (registryLock.validate(stamp)) {
+                    return customer;
+                }
+            } catch (RuntimeException e) {
+                // the table was resized under us, fall through to the read lock
+            }
+        }
+        stamp = registryLock.readLock();
+        try {
+            return registry.find(code);
+        } finally {
+            registryLock.unlockRead(stamp);
+        }
+    }
+
+    // Whether a customer whose lock the caller holds has a loan with this record ID
+    private boolean hasRecord(Customer customer, int recordID) {
+        if (index != null) {
+            return index.lookup(customer.getCustomerCode(), recordID) != null;
+        }
+        for (Loan held : customer.getCreditRecords()) {
+            if (held.getRecordID() == recordID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Status commit(long position) {
+        if (persistence == null) {
+            return Status.OK;
+        }
+        try {
+            persistence.commit(position);
+            return Status.OK;
+        } catch (IOException e) {
+            return Status.JOURNAL_FAILURE;
+        }
+    }
+
+    private MutationJournal journal() {
+        return persistence == null ? null : persistence.getJournal();
+    }
+
+    private ReentrantLock stripeFor(int code) {
+        int h = code * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Multi-threaded stress check and throughput benchmark of BankService
+//   stress      every thread registers, adds, removes and reads loans at once, then the book is checked:
+//               contended registrations succeed exactly once, every loan added and not removed is there,
+//               the loan index holds exactly those loans, and every customer's cached exposure matches its loans
+//   throughput  mixed workload (50% query, 20% add loan, 10% remove loan, 20% income update) on 1, 2, 4 ...
+//               threads up to the number of cores
+// Run with: java BankServiceBenchmark [stress|throughput] [threads] [operationsPerThread]
+class BankServiceBenchmark {
+    private static final int CUSTOMERS = 10_000;
+    private static final int CONTENDED_IDS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "stress";
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, cores);
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        if (mode.equals("stress")) {
+            stress(threads, operations);
+        } else {
+            System.out.println("Customers: " + CUSTOMERS + ", operations per thread: " + operations);
+            System.out.println("Threads | Time (ms) | Operations/s");
+            for (int t = 1; ; t = Math.min(t * 2, threads)) {
+                throughput(t, operations);
+                if (t == threads) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void stress(int threads, int operations) throws Exception {
+        BankService service = newService();
+        AtomicLong contendedRegistrations = new AtomicLong();
+        AtomicLong loansAdded = new AtomicLong();
+        AtomicLong loansRemoved = new AtomicLong();
+
+        runThreads(threads, thread -> {
+            SplittableRandom random = new SplittableRandom(thread);
+            List<int[]> owned = new ArrayList<>(); // customer code and record ID of loans this thread added
+            int nextRecord = thread * 10_000_000;
+            for (int i = 0; i < operations; i++) {
+                int op = random.nextInt(100);
+                if (op < 2) {
+                    // Every thread races to register the same IDs
+                    String id = CustomerIds.decode(CUSTOMERS + random.nextInt(CONTENDED_IDS));
+                    if (service.registerCustomer(id, 30_000) == BankService.Status.OK) {
+                        contendedRegistrations.incrementAndGet();
+                    }
+                } else if (op < 40) {
+                    int code = random.nextInt(CUSTOMERS);
+                    int recordID = nextRecord++;
+                    Loan loan = new PersonalLoan(recordID, 5.0, 2, 1 + random.nextInt(10_000));
+                    check(service.addLoan(CustomerIds.decode(code), loan), "add loan");
+                    owned.add(new int[]{code, recordID});
+                    loansAdded.incrementAndGet();
+                } else if (op < 60 && !owned.isEmpty()) {
+                    int[] loan = owned.remove(random.nextInt(owned.size()));
+                    check(service.removeLoan(CustomerIds.decode(loan[0]), loan[1]), "remove loan");
+                    loansRemoved.incrementAndGet();
+                } else if (op < 70) {
+                    check(service.updateIncome(CustomerIds.decode(random.nextInt(CUSTOMERS)),
+                            20_000 + random.nextInt(100_000)), "update income");
+                } else {
+                    // Exposure read under the lock must always match the loans read with it
+                    service.query(CustomerIds.decode(random.nextInt(CUSTOMERS)), customer -> {
+                        customer.verifyExposure();
+                        return null;
+                    });
+                }
+            }
+        });
+
+        long[] loans = new long[1];
+        service.forEachCustomer(customer -> {
+            customer.verifyExposure();
+            loans[0] += customer.getCreditRecords().size();
+        });
+        long expectedLoans = loansAdded.get() - loansRemoved.get();
+        if (contendedRegistrations.get() > CONTENDED_IDS || service.customerCount() != CUSTOMERS + contendedRegistrations.get()) {
+            throw new IllegalStateException("Registered " + contendedRegistrations.get() + " contended IDs, book has "
+                    + service.customerCount() + " customers");
+        }
+        if (loans[0] != expectedLoans) {
+            throw new IllegalStateException("Book has " + loans[0] + " loans, expected " + expectedLoans);
+        }
+        if (service.getLoanIndex().size() != loans[0]) {
+            throw new IllegalStateException("Index has " + service.getLoanIndex().size() + " loans, book has " + loans[0]);
+        }
+        System.out.printf("Stress passed: %d threads, %d operations, %d loans added, %d removed, %d contended IDs registered%n",
+                threads, (long) threads * operations, loansAdded.get(), loansRemoved.get(), contendedRegistrations.get());
+    }
+
+    private static void throughput(int threads, int operations) throws Exception {
+        BankService service = newService();
+        long begin = System.nanoTime();
+        runThreads(threads, thread -> {
+            SplittableRandom random = new SplittableRandom(thread);
+            int nextRecord = thread * 10_000_000;
+            int firstRecord = nextRecord;
+            for (int i = 0; i < operations; i++) {
+                String id = CustomerIds.decode(random.nextInt(CUSTOMERS));
+                int op = random.nextInt(10);
+                if (op < 5) {
+                    service.query(id, Customer::getTotalExposure);
+                } else if (op < 7) {
+                    service.addLoan(id, new AutoLoan(nextRecord++, 5.0, 3, 1000));
+                } else if (op < 8) {
+                    service.removeLoan(id, firstRecord + random.nextInt(nextRecord - firstRecord + 1));
+                } else {
+                    service.updateIncome(id, 20_000 + random.nextInt(100_000));
+                }
+            }
+        });
+        long nanos = System.nanoTime() - begin;
+        System.out.printf("%7d | %9.0f | %12.0f%n", threads, nanos / 1e6, (long) threads * operations / (nanos / 1e9));
+    }
+
+    // A book of CUSTOMERS eligible customers with high incomes, no persistence
+    private static BankService newService() {
+        BankService service = new BankService(new CustomerRegistry(CUSTOMERS + CONTENDED_IDS), null);
+        for (int code = 0; code < CUSTOMERS; code++) {
+            check(service.registerCustomer(CustomerIds.decode(code), 10_000_000), "register");
+        }
+        return service;
+    }
+
+    private static void runThreads(int count, Worker worker) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[count];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < count; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(thread);
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new IllegalStateException("Worker failed", failure[0]);
+        }
+    }
+
+    private static void check(BankService.Status status, String operation) {
+        if (status != BankService.Status.OK) {
+            throw new IllegalStateException(operation + " failed: " + status);
+        }
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,242 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+// Non-interactive batch mode: applies a stream of commands, one per line in the BankCommand syntax, and prints a
+// summary at the end instead of echoing the book after every change
+// Two stages joined by a small queue: the calling thread parses lines into batches, while an apply thread sorts
+// each batch by customer and hands it to ShardedBook.applyAll, so a customer's lock is taken once per run of their
+// commands and each shard's journal is waited on once per batch. The sort is stable, so one customer's commands keep
+// their order; commands of different customers are independent and may be applied in another order than read.
+// Blank lines and lines starting with # are skipped.
+class BatchProcessor {
+    private static final int BATCH_SIZE = 8192;
+    // Batches parsed ahead of the apply stage, bounding the memory held while applying falls behind
+    private static final int QUEUE_BATCHES = 4;
+    private static final int MAX_REPORTED = 10;
+    private static final Pattern FIELDS = Pattern.compile("\\s+");
+    private static final Batch END = new Batch(0);
+
+    private final ShardedBook service;
+    private final int threads;
+
+    // threads: how many threads apply the slices of each batch; 1 applies them on the apply stage alone
+    public BatchProcessor(ShardedBook service, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.service = service;
+        this.threads = threads;
+    }
+
+    // Commands parsed together, with the line each one came from
+    private static final class Batch {
+        final BankCommand[] commands;
+        final long[] lines;
+        int size;
+
+        Batch(int capacity) {
+            commands = new BankCommand[capacity];
+            lines = new long[capacity];
+        }
+    }
+
+    // Method to read and apply every command of a stream, returns once all of them are applied
+    public BatchResult run(Reader in) throws IOException {
+        BatchResult result = new BatchResult();
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread applier = new Thread(() -> {
+            try {
+                for (Batch batch = queue.take(); batch != END; batch = queue.take()) {
+                    apply(batch, pool, result);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+                queue.clear(); // unblocks the reader, which stops at the next put
+            }
+        }, "batch-apply");
+        long start = System.nanoTime();
+        applier.start();
+        try {
+            BufferedReader reader = new BufferedReader(in, 1 << 16);
+            Batch batch = new Batch(BATCH_SIZE);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null && failure.get() == null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    batch.commands[batch.size] = BankCommand.parse(FIELDS.split(trimmed));
+                } catch (IllegalArgumentException e) {
+                    result.reject(lineNumber, e.getMessage(), trimmed);
+                    continue;
+                }
+                batch.lines[batch.size++] = lineNumber;
+                if (batch.size == BATCH_SIZE) {
+                    queue.put(batch);
+                    batch = new Batch(BATCH_SIZE);
+                }
+            }
+            if (batch.size > 0) {
+                queue.put(batch);
+            }
+            queue.put(END);
+            applier.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            applier.interrupt();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Batch apply failed", failure.get());
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Groups a batch by customer, applies it, and counts the outcome of every command
+    private void apply(Batch batch, ExecutorService pool, BatchResult result) throws Exception {
+        int size = batch.size;
+        // Customer code in the high half, position in the low half: sorting groups by customer and keeps order
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) batch.commands[i].getCustomerCode() << 32) | i;
+        }
+        Arrays.sort(keys);
+        BankCommand[] grouped = new BankCommand[size];
+        for (int i = 0; i < size; i++) {
+            grouped[i] = batch.commands[(int) keys[i]];
+        }
+
+        BankService.Status[] results = new BankService.Status[size];
+        if (pool == null || size < threads * 2) {
+            service.applyAll(grouped, 0, size, results);
+        } else {
+            // Slices end at customer boundaries, so a customer's commands stay on one thread and in order
+            List<Future<?>> slices = new ArrayList<>(threads);
+            int from = 0;
+            for (int t = 1; t <= threads && from < size; t++) {
+                int to = t == threads ? size : Math.max(from, (int) ((long) size * t / threads));
+                while (to < size && to > 0 && grouped[to].getCustomerCode() == grouped[to - 1].getCustomerCode()) {
+                    to++;
+                }
+                int sliceFrom = from;
+                int sliceTo = to;
+                slices.add(pool.submit(() -> service.applyAll(grouped, sliceFrom, sliceTo, results)));
+                from = to;
+            }
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            result.count(grouped[i].getKind(), results[i], batch.lines[(int) keys[i]]);
+        }
+    }
+
+    // Outcome of a batch run: commands applied and refused by kind, refusals by reason, and malformed lines
+    static class BatchResult {
+        private final Map<BankCommand.Kind, long[]> byKind = new EnumMap<>(BankCommand.Kind.class);
+        private final Map<BankService.Status, Long> refusals = new EnumMap<>(BankService.Status.class);
+        // Written by the reading and the applying thread respectively
+        private final List<String> malformedLines = new ArrayList<>();
+        private final List<String> refusedLines = new ArrayList<>();
+        private long applied;
+        private long refused;
+        private long malformed;
+        private long elapsedNanos;
+
+        BatchResult() {
+            for (BankCommand.Kind kind : BankCommand.Kind.values()) {
+                byKind.put(kind, new long[2]);
+            }
+        }
+
+        private void reject(long lineNumber, String reason, String line) {
+            malformed++;
+            if (malformedLines.size() < MAX_REPORTED) {
+                malformedLines.add("line " + lineNumber + ": " + reason + " [" + line + "]");
+            }
+        }
+
+        private void count(BankCommand.Kind kind, BankService.Status status, long lineNumber) {
+            if (status == BankService.Status.OK) {
+                applied++;
+                byKind.get(kind)[0]++;
+                return;
+            }
+            refused++;
+            byKind.get(kind)[1]++;
+            refusals.merge(status, 1L, Long::sum);
+            if (refusedLines.size() < MAX_REPORTED) {
+                refusedLines.add("line " + lineNumber + ": " + status.getMessage());
+            }
+        }
+
+        public long getApplied() {
+            return applied;
+        }
+
+        // Commands that parsed but were refused by the service, such as loans for unknown customers
+        public long getRefused() {
+            return refused;
+        }
+
+        public long getMalformed() {
+            return malformed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Method to print the totals, the counts per kind of command and the first problems with their line
+        public void print() {
+            long commands = applied + refused;
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%d commands in %.2f s (%.0f per second): %d applied, %d refused, %d malformed lines%n",
+                    commands, seconds, seconds > 0 ? commands / seconds : 0.0, applied, refused, malformed);
+            for (Map.Entry<BankCommand.Kind, long[]> entry : byKind.entrySet()) {
+                long[] counts = entry.getValue();
+                if (counts[0] + counts[1] > 0) {
+                    System.out.printf("  %-12s %10d applied %10d refused%n", entry.getKey(), counts[0], counts[1]);
+                }
+            }
+            for (Map.Entry<BankService.Status, Long> entry : refusals.entrySet()) {
+                System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+            }
+            printLines(malformedLines, malformed, "malformed lines");
+            printLines(refusedLines, refused, "refused commands");
+        }
+
+        private static void printLines(List<String> lines, long total, String what) {
+            for (String line : lines) {
+                System.out.println("  " + line);
+            }
+            if (total > lines.size()) {
+                System.out.println("  ... " + (total - lines.size()) + " more " + what);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Ties the snapshot and the mutation journal together
+// Startup loads the latest snapshot and replays the newer journal segments on top of it; every checkpoint
+// rotates the journal, snapshots the book and drops the segments the snapshot now covers. A checkpoint is due once
+// the journal has grown enough since the last snapshot, or the interval has passed with changes journaled, so the
+// cost of a snapshot is spread over many changes; the final snapshot is written on close.
+//
+// System properties:
+//   xyzbank.snapshot                   snapshot file
+//   xyzbank.journal                    journal base path, segments are <path>.<generation>
+//   xyzbank.journal.groupCommitMillis  group commit interval, 0 fsyncs every mutation (default 5)
+//   xyzbank.journal.groupCommitBytes   buffered bytes that trigger a commit before the interval ends (default 65536)
+//   xyzbank.checkpoint.journalBytes    journal bytes since the last snapshot that make a checkpoint due (default 64 MB)
+//   xyzbank.checkpoint.intervalSeconds seconds since the last snapshot after which a checkpoint is due if anything
+//                                      was journaled, or at all without a journal (default 300)
+// A sharded book keeps one snapshot and journal per shard, at these paths followed by ".shard<n>".
+class BookPersistence {
+    private final SnapshotStore snapshots;
+    private final String journalPath;
+    private final long groupCommitMillis;
+    private final int groupCommitBytes;
+    private final long checkpointBytes;
+    private final long checkpointIntervalNanos;
+    private MutationJournal journal;
+    private volatile long lastSnapshot = System.nanoTime();
+    private volatile boolean checkpointRequested;
+
+    public BookPersistence(SnapshotStore snapshots, String journalPath, long groupCommitMillis, int groupCommitBytes) {
+        this(snapshots, journalPath, groupCommitMillis, groupCommitBytes, 64L << 20, 300);
+    }
+
+    public BookPersistence(SnapshotStore snapshots, String journalPath, long groupCommitMillis, int groupCommitBytes,
+                           long checkpointBytes, long checkpointIntervalSeconds) {
+        this.snapshots = snapshots;
+        this.journalPath = journalPath;
+        this.groupCommitMillis = groupCommitMillis;
+        this.groupCommitBytes = groupCommitBytes;
+        this.checkpointBytes = checkpointBytes;
+        this.checkpointIntervalNanos = checkpointIntervalSeconds * 1_000_000_000L;
+    }
+
+    // Returns the persistence configured through system properties, or null when it is disabled
+    public static BookPersistence fromSystemProperties() {
+        return fromSystemProperties("");
+    }
+
+    // Returns the persistence of one shard of a book, its files named as configured plus a suffix such as ".shard2"
+    public static BookPersistence fromSystemProperties(String suffix) {
+        String snapshotFile = System.getProperty("xyzbank.snapshot");
+        String journalFile = System.getProperty("xyzbank.journal");
+        if (snapshotFile == null && journalFile == null) {
+            return null;
+        }
+        return new BookPersistence(snapshotFile == null ? null : new SnapshotStore(Paths.get(snapshotFile + suffix)),
+                journalFile == null ? null : journalFile + suffix,
+                Long.getLong("xyzbank.journal.groupCommitMillis", 5),
+                Integer.getInteger("xyzbank.journal.groupCommitBytes", 1 << 16),
+                Long.getLong("xyzbank.checkpoint.journalBytes", 64L << 20),
+                Long.getLong("xyzbank.checkpoint.intervalSeconds", 300));
+    }
+
+    // Method to recover the book: the snapshot if there is one, otherwise the initial book, plus the journal
+    public CustomerRegistry open(CustomerRegistry initial) throws IOException {
+        CustomerRegistry registry = initial;
+        long coveredGeneration = 0;
+        if (snapshots != null && snapshots.exists()) {
+            long start = System.nanoTime();
+            registry = snapshots.load();
+            coveredGeneration = snapshots.getJournalGeneration();
+            System.out.printf("Loaded %d customers from %s in %d ms%n", registry.size(), snapshots.getPath(),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        if (journalPath != null) {
+            ReplayResult replayed = MutationJournal.replay(Paths.get(journalPath), coveredGeneration, registry);
+            if (replayed.getApplied() > 0) {
+                System.out.println("Replayed " + replayed.getApplied() + " journaled changes");
+            }
+            if (replayed.getTruncatedBytes() > 0) {
+                System.out.println("Cut off " + replayed.getTruncatedBytes() + " bytes of a torn journal record");
+            }
+            if (replayed.getMissing() > 0) {
+                System.out.println("Skipped " + replayed.getMissing() + " journaled changes to customers missing from "
+                        + "the book, such as " + String.join(", ", replayed.getMissingCustomers())
+                        + "; those customers were added without being journaled and no snapshot holds them");
+            }
+            journal = new MutationJournal(Paths.get(journalPath), groupCommitMillis, groupCommitBytes);
+        }
+        return registry;
+    }
+
+    // Whether snapshots are enabled, which is the only way customers that were not journaled are kept
+    public boolean hasSnapshots() {
+        return snapshots != null;
+    }
+
+    // The journal, or null when only snapshots are enabled
+    public MutationJournal getJournal() {
+        return journal;
+    }
+
+    // Method to wait until a journaled mutation is durable
+    public void commit(long position) throws IOException {
+        if (journal != null) {
+            journal.awaitDurable(position);
+        }
+    }
+
+    // Whether checkpointAsync would start a snapshot: snapshots are enabled, none is being written, and one was
+    // requested, the journal has reached checkpointBytes since the last one, or the interval has passed
+    public boolean isCheckpointDue() {
+        if (snapshots == null || snapshots.isWriting()) {
+            return false;
+        }
+        if (checkpointRequested) {
+            return true;
+        }
+        boolean intervalPassed = System.nanoTime() - lastSnapshot >= checkpointIntervalNanos;
+        if (journal == null) {
+            return intervalPassed;
+        }
+        long journaled = journal.getSegmentBytes();
+        return journaled >= checkpointBytes || (intervalPassed && journaled > 0);
+    }
+
+    // Method to make the next checkpoint snapshot regardless of the journal, for changes the journal does not hold
+    public void requestCheckpoint() {
+        checkpointRequested = true;
+    }
+
+    // Method to snapshot a view in the background, closing it once written
+    // Rotates the journal, so it must be called while no mutation is in flight, in the pause the view was opened in
+    public void checkpointAsync(BookView view) throws IOException {
+        if (!isCheckpointDue()) {
+            view.close();
+            return;
+        }
+        long generation = journal == null ? 0 : journal.rotate();
+        checkpointRequested = false;
+        lastSnapshot = System.nanoTime();
+        snapshots.writeAsync(view, generation, () -> deleteJournalThrough(generation));
+    }
+
+    // Method to write a final snapshot and close the journal
+    public void close(CustomerRegistry registry) throws IOException {
+        if (snapshots != null) {
+            snapshots.awaitPending();
+            long generation = journal == null ? 0 : journal.rotate();
+            snapshots.write(registry, generation);
+            deleteJournalThrough(generation);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void deleteJournalThrough(long generation) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.deleteThrough(generation);
+        } catch (IOException e) {
+            System.out.println("Could not delete old journal segments: " + e.getMessage());
+        }
+    }
+}
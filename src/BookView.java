@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Point-in-time read view of a BankService's book, opened with BankService.openView() and closed when done
+//
+// Opening a view copies nothing. Instead, while it is open, the first change to a customer keeps a copy of that
+// customer as they were, taken by the writer under the customer's lock just before changing them; later
+// changes to the same customer cost nothing more. Reading the view returns that copy for customers changed
+// since it opened and the live customer, under their lock, for the others, so a long report, bulk run or snapshot
+// sees the whole book as of one moment while writers go on. Customers registered after the view opened are
+// not part of it. A writer pays for one copy of each customer it changes while views are open, never for the book.
+// The copies are kept in pages of customer codes, allocated on the first change in their range.
+class BookView implements AutoCloseable {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int BATCH = 4096;
+
+    private final BankService service;
+    private final int size;
+    private final AtomicReferenceArray<AtomicReferenceArray<Customer>> pages =
+            new AtomicReferenceArray<>((CustomerIds.CAPACITY + PAGE_SIZE - 1) >>> PAGE_BITS);
+    private volatile boolean closed;
+
+    BookView(BankService service, int size) {
+        this.service = service;
+        this.size = size;
+    }
+
+    // Customers in the view, the registry's size when it was opened
+    public int size() {
+        return size;
+    }
+
+    // Method to visit up to limit customers of the view in registration order from a position, until the visitor
+    // returns false; returns the position after the last customer visited
+    // The visitor must not keep the Customer it is given: it may be the live customer, lent under their lock
+    public int visit(int from, int limit, Predicate<? super Customer> visitor) {
+        return service.visitCustomers(this, from, limit, visitor);
+    }
+
+    // Method to visit every customer of the view in registration order
+    public void forEach(Consumer<? super Customer> action) {
+        int position = 0;
+        while (position < size) {
+            position = visit(position, BATCH, customer -> {
+                action.accept(customer);
+                return true;
+            });
+        }
+    }
+
+    // Called by writers with the customer's lock held, before changing them
+    void preserve(Customer customer) {
+        if (closed) {
+            return;
+        }
+        int code = customer.getCustomerCode();
+        AtomicReferenceArray<Customer> page = pages.get(code >>> PAGE_BITS);
+        if (page == null) {
+            pages.compareAndSet(code >>> PAGE_BITS, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(code >>> PAGE_BITS);
+        }
+        int slot = code & (PAGE_SIZE - 1);
+        if (page.get(slot) == null) {
+            page.set(slot, customer.copy());
+        }
+    }
+
+    // The customer as they were when the view opened, or null if they have not changed since; called with the
+    // customer's lock held
+    Customer preserved(int code) {
+        AtomicReferenceArray<Customer> page = pages.get(code >>> PAGE_BITS);
+        return page == null ? null : page.get(code & (PAGE_SIZE - 1));
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Method to stop keeping copies for the view and release the ones kept
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            service.closeView(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Random;
+
+// Benchmark of the bulk eligibility engine from one worker thread up to every available core
+// Run with: java -Xmx4g BulkEligibilityBenchmark [customers] [loansPerCustomer]
+class BulkEligibilityBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int loansPerCustomer = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        CustomerRegistry registry = buildBook(size, loansPerCustomer);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Customers: " + size + ", loans per customer: " + loansPerCustomer + ", cores: " + cores);
+        System.out.println("Threads | Best (ms) | Speedup");
+
+        // Powers of two, always ending with every core
+        double baseline = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            double best = timeRun(registry, threads);
+            if (threads == 1) {
+                baseline = best;
+            }
+            System.out.printf("%7d | %9.1f | %6.2fx%n", threads, best, baseline / best);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    // Best of several runs over a view of the book, after a warm-up run
+    private static double timeRun(CustomerRegistry registry, int threads) {
+        BulkEligibilityEngine engine = new BulkEligibilityEngine(threads);
+        BankService service = new BankService(registry, null, BankMetrics.disabled(), false);
+        double best = Double.MAX_VALUE;
+        try (BookView view = service.openView()) {
+            engine.run(view);
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                engine.run(view);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            }
+        }
+        engine.shutdown();
+        return best;
+    }
+
+    private static CustomerRegistry buildBook(int size, int loansPerCustomer) {
+        Random random = new Random(42);
+        CustomerRegistry registry = new CustomerRegistry(size);
+        int recordID = 1;
+        for (int i = 0; i < size; i++) {
+            Customer customer = new Customer(CustomerIds.decode(i), 20000 + random.nextInt(100000));
+            for (int j = 0; j < loansPerCustomer; j++) {
+                double amount = 1000 + random.nextInt(200000);
+                switch (random.nextInt(5)) {
+                    case 0:
+                        customer.addCreditRecord(new AutoLoan(recordID++, 5.5, 3, amount));
+                        break;
+                    case 1:
+                        customer.addCreditRecord(new BuilderLoan(recordID++, 6.25, 5, 5, amount));
+                        break;
+                    case 2:
+                        customer.addCreditRecord(new MortgageLoan(recordID++, 4.0, 20, 10, amount));
+                        break;
+                    case 3:
+                        customer.addCreditRecord(new PersonalLoan(recordID++, 8.0, 2, amount));
+                        break;
+                    default:
+                        customer.addCreditRecord(new OtherLoan(recordID++, 7.5, 1, amount));
+                }
+            }
+            registry.add(customer);
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Re-evaluates the eligibility rule for the whole book in parallel
+// The customers of a point-in-time view are split recursively over a ForkJoinPool; each leaf collects statistics,
+// and optionally the ELIGIBILITY commands that would store the results that differ from the stored statuses.
+// Nothing is written here: the caller applies those commands through the service, which locks and journals them.
+class BulkEligibilityEngine {
+    // Customers handled by one leaf task
+    private static final int LEAF_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+
+    // Engine running on the common pool
+    public BulkEligibilityEngine() {
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    // Engine running on a dedicated pool with the given number of worker threads
+    public BulkEligibilityEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // Method to check every customer of a point-in-time view and aggregate it, while the book keeps changing
+    public PortfolioStats run(BookView view) {
+        return pool.invoke(new EligibilityTask(view, 0, view.size(), false)).stats;
+    }
+
+    // Same, also adding to changes, in view order, an ELIGIBILITY command for each customer whose stored status
+    // differs from the rule
+    public PortfolioStats run(BookView view, List<BankCommand> changes) {
+        Evaluation evaluation = pool.invoke(new EligibilityTask(view, 0, view.size(), true));
+        changes.addAll(evaluation.changes);
+        return evaluation.stats;
+    }
+
+    // Method to release the worker threads of a dedicated pool
+    public void shutdown() {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    // Statistics of a range of customers, and the changes found in it, null when they are not collected
+    private static class Evaluation {
+        private final PortfolioStats stats;
+        private final List<BankCommand> changes;
+
+        Evaluation(PortfolioStats stats, List<BankCommand> changes) {
+            this.stats = stats;
+            this.changes = changes;
+        }
+
+        Evaluation merge(Evaluation other) {
+            stats.merge(other.stats);
+            if (changes != null) {
+                changes.addAll(other.changes);
+            }
+            return this;
+        }
+    }
+
+    private static class EligibilityTask extends RecursiveTask<Evaluation> {
+        private static final long serialVersionUID = 1L;
+
+        private final BookView view;
+        private final int from;
+        private final int to;
+        private final boolean collect; // whether to collect the changes
+
+        EligibilityTask(BookView view, int from, int to, boolean collect) {
+            this.view = view;
+            this.from = from;
+            this.to = to;
+            this.collect = collect;
+        }
+
+        @Override
+        protected Evaluation compute() {
+            if (to - from <= LEAF_SIZE) {
+                PortfolioStats stats = new PortfolioStats();
+                List<BankCommand> changes = collect ? new ArrayList<>() : null;
+                view.visit(from, to - from, customer -> {
+                    boolean eligible = customer.checkEligibility(customer);
+                    stats.add(customer, eligible);
+                    if (changes != null && eligible != customer.isEligibilityStatus()) {
+                        changes.add(BankCommand.updateEligibility(customer.getCustomerID(), eligible));
+                    }
+                    return true;
+                });
+                return new Evaluation(stats, changes);
+            }
+            int middle = (from + to) >>> 1;
+            EligibilityTask left = new EligibilityTask(view, from, middle, collect);
+            left.fork();
+            Evaluation right = new EligibilityTask(view, middle, to, collect).compute();
+            return left.join().merge(right);
+        }
+    }
+}
+
+// Aggregate statistics over a set of customers, mergeable across tasks
+class PortfolioStats {
+    // Upper bounds of the debt-to-income histogram buckets, the last bucket is open-ended
+    private static final double[] RATIO_BOUNDS = {0.5, 1, 2, 3, 4, 5, 6, 8};
+    // Sized for every type that can be registered, so partial results stay mergeable if one is added mid-scan
+    private static final int LOAN_TYPES = LoanTypes.MAX_TYPES;
+
+    private long customers;
+    private long ineligible;
+    private final double[] exposureByType = new double[LOAN_TYPES];
+    private final long[] loansByType = new long[LOAN_TYPES];
+    private final long[] ratioHistogram = new long[RATIO_BOUNDS.length + 1];
+
+    // Method to account for one customer
+    public void add(Customer customer, boolean eligible) {
+        customers++;
+        if (!eligible) {
+            ineligible++;
+        }
+        for (Loan loan : customer.getCreditRecords()) {
+            int type = loan.getType().getOrdinal();
+            exposureByType[type] += loan.getAmountLeftToPay();
+            loansByType[type]++;
+        }
+        ratioHistogram[bucket(customer.getTotalExposure(), customer.getCustomerIncome())]++;
+    }
+
+    // Method to fold another partial result into this one
+    public PortfolioStats merge(PortfolioStats other) {
+        customers += other.customers;
+        ineligible += other.ineligible;
+        for (int i = 0; i < LOAN_TYPES; i++) {
+            exposureByType[i] += other.exposureByType[i];
+            loansByType[i] += other.loansByType[i];
+        }
+        for (int i = 0; i < ratioHistogram.length; i++) {
+            ratioHistogram[i] += other.ratioHistogram[i];
+        }
+        return this;
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    public long getIneligible() {
+        return ineligible;
+    }
+
+    public double getExposure(int loanType) {
+        return exposureByType[loanType];
+    }
+
+    public long getLoans(int loanType) {
+        return loansByType[loanType];
+    }
+
+    public double getTotalExposure() {
+        double total = 0;
+        for (double exposure : exposureByType) {
+            total += exposure;
+        }
+        return total;
+    }
+
+    // Number of customers whose debt-to-income ratio falls into a histogram bucket
+    public long getRatioCount(int bucket) {
+        return ratioHistogram[bucket];
+    }
+
+    public int getRatioBuckets() {
+        return ratioHistogram.length;
+    }
+
+    // Method to print the statistics
+    public void print() {
+        System.out.println("Customers: " + customers + ", not eligible: " + ineligible);
+        System.out.println("LoanType | Loans | Exposure");
+        for (LoanType type : LoanTypes.all()) {
+            int i = type.getOrdinal();
+            System.out.printf("%-8s | %d | %.0f%n", type.getName(), loansByType[i], exposureByType[i]);
+        }
+        System.out.println("Debt/Income | Customers");
+        for (int i = 0; i < ratioHistogram.length; i++) {
+            String label = i < RATIO_BOUNDS.length
+                    ? "<= " + RATIO_BOUNDS[i]
+                    : "> " + RATIO_BOUNDS[RATIO_BOUNDS.length - 1];
+            System.out.printf("%-11s | %d%n", label, ratioHistogram[i]);
+        }
+    }
+
+    // Customers without income but with debt land in the open-ended bucket
+    private static int bucket(double exposure, int income) {
+        if (exposure <= 0) {
+            return 0;
+        }
+        if (income <= 0) {
+            return RATIO_BOUNDS.length;
+        }
+        double ratio = exposure / income;
+        for (int i = 0; i < RATIO_BOUNDS.length; i++) {
+            if (ratio <= RATIO_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return RATIO_BOUNDS.length;
+    }
+}
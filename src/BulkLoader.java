@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streaming bulk import of customers and credit records from comma-separated files
+// Customers file lines:  CustomerID,Income
+// Loans file lines:      CustomerID,RecordID,LoanType,InterestRate,LoanTermLeft,AmountLeftToPay[,Overpayment]
+// The overpayment field is required for Builder and Mortgage loans only. Blank lines and lines starting with # are skipped.
+// Rows of customers the registry does not own, when it holds only some shards of a book, are skipped and counted.
+class BulkLoader {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Rejected rows kept with their reason, the rest are only counted
+    private static final int MAX_REPORTED = 100;
+    private static final long INVALID = Long.MIN_VALUE;
+    // Returned by the row parsers for rows of customers the registry does not own, compared by identity
+    private static final String SKIPPED = "customer belongs to another shard";
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final CustomerRegistry registry;
+    // Field bounds of the line being parsed
+    private byte[] bytes;
+    private int position;
+    private int lineEnd;
+    private int fieldStart;
+    private int fieldEnd;
+
+    public BulkLoader(CustomerRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Method to import a customers file, rows with a taken or malformed ID are rejected
+    public LoadResult loadCustomers(Path path) throws IOException {
+        return load(path, this::parseCustomer);
+    }
+
+    // Method to import a loans file, applying the same checks as registering a loan from the menu
+    public LoadResult loadLoans(Path path) throws IOException {
+        return load(path, this::parseLoan);
+    }
+
+    // Parses one customer row, returns the reject reason or null when the customer was added
+    private String parseCustomer() {
+        if (!nextField()) {
+            return "missing customer ID";
+        }
+        int code = CustomerIds.encode(bytes, fieldStart, fieldEnd - fieldStart);
+        if (!registry.owns(code)) {
+            return SKIPPED;
+        }
+        if (code == CustomerIds.NONE) {
+            return "invalid customer ID format";
+        }
+        long income = nextField() ? parseInt() : INVALID;
+        if (income == INVALID) {
+            return "invalid annual income";
+        }
+        if (nextField()) {
+            return "unexpected extra field";
+        }
+        Customer customer = new Customer();
+        customer.setCustomerCode(code);
+        customer.setCustomerIncome((int) income);
+        return registry.add(customer) ? null : "customer ID already exists";
+    }
+
+    // Parses one loan row, returns the reject reason or null when the loan was added
+    private String parseLoan() {
+        if (!nextField()) {
+            return "missing customer ID";
+        }
+        int code = CustomerIds.encode(bytes, fieldStart, fieldEnd - fieldStart);
+        if (!registry.owns(code)) {
+            return SKIPPED;
+        }
+        Customer customer = registry.find(code);
+        if (customer == null) {
+            return "customer not found";
+        }
+        if (!customer.isEligibilityStatus()) {
+            return "customer is not eligible for a new loan";
+        }
+        long recordID = nextField() ? parseInt() : INVALID;
+        if (recordID == INVALID) {
+            return "invalid record ID";
+        }
+        for (Loan loan : customer.getCreditRecords()) {
+            if (loan.getRecordID() == recordID) {
+                return "record ID already exists for this customer";
+            }
+        }
+        LoanType type = nextField() ? LoanTypes.parse(bytes, fieldStart, fieldEnd - fieldStart) : null;
+        if (type == null) {
+            return "invalid loan type";
+        }
+        double interestRate = nextField() ? parseDouble() : Double.NaN;
+        double loanTermLeft = nextField() ? parseDouble() : Double.NaN;
+        double amountLeftToPay = nextField() ? parseDouble() : Double.NaN;
+        if (Double.isNaN(interestRate) || Double.isNaN(loanTermLeft) || Double.isNaN(amountLeftToPay)) {
+            return "invalid number";
+        }
+        double overpayment = 0;
+        if (type.hasOverpayment()) {
+            overpayment = nextField() ? parseDouble() : Double.NaN;
+            if (Double.isNaN(overpayment)) {
+                return "missing or invalid overpayment option";
+            }
+        }
+        if (nextField()) {
+            return "unexpected extra field";
+        }
+        customer.addCreditRecord(type.create((int) recordID, interestRate, loanTermLeft, overpayment,
+                amountLeftToPay));
+        return null;
+    }
+
+    // Streams the file through one buffer, handing each complete line to the row parser
+    private LoadResult load(Path path, RowParser parser) throws IOException {
+        LoadResult result = new LoadResult(path);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        bytes = buffer.array();
+        long lineNumber = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) < 0;
+                int limit = buffer.position();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (bytes[i] == '\n') {
+                        parseLine(parser, result, ++lineNumber, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (endOfFile && lineStart < limit) {
+                    parseLine(parser, result, ++lineNumber, lineStart, limit);
+                    lineStart = limit;
+                }
+                if (lineStart == 0 && limit == bytes.length) {
+                    throw new IOException(path + ": line " + (lineNumber + 1) + " is longer than " + BUFFER_SIZE + " bytes");
+                }
+                // Carry the incomplete last line over to the start of the buffer
+                System.arraycopy(bytes, lineStart, bytes, 0, limit - lineStart);
+                buffer.position(limit - lineStart);
+            }
+        }
+        return result;
+    }
+
+    private void parseLine(RowParser parser, LoadResult result, long lineNumber, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (start == end || bytes[start] == '#') {
+            return;
+        }
+        position = start;
+        lineEnd = end;
+        String reason = parser.parse();
+        if (reason == null) {
+            result.accepted++;
+        } else if (reason == SKIPPED) {
+            result.skipped++;
+        } else {
+            result.reject(lineNumber, reason, new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    // Advances to the next comma-separated field, trimming spaces, returns false at the end of the line
+    private boolean nextField() {
+        if (position > lineEnd) {
+            return false;
+        }
+        int start = position;
+        int end = start;
+        while (end < lineEnd && bytes[end] != ',') {
+            end++;
+        }
+        position = end + 1;
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] == ' ') {
+            end--;
+        }
+        fieldStart = start;
+        fieldEnd = end;
+        return true;
+    }
+
+    // Parses the current field as an int, returns INVALID if it is not one
+    private long parseInt() {
+        int i = fieldStart;
+        boolean negative = i < fieldEnd && bytes[i] == '-';
+        if (negative || (i < fieldEnd && bytes[i] == '+')) {
+            i++;
+        }
+        if (i == fieldEnd || fieldEnd - i > 10) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; i < fieldEnd; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? INVALID : value;
+    }
+
+    // Parses the current field as a decimal number, returns NaN if it is not one
+    // Up to 15 significant digits the result is exact: an integer mantissa divided by a power of ten
+    private double parseDouble() {
+        int i = fieldStart;
+        boolean negative = i < fieldEnd && bytes[i] == '-';
+        if (negative || (i < fieldEnd && bytes[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < fieldEnd; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i == fieldEnd && digits > 0 && digits <= 15) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return parseDoubleSlow();
+    }
+
+    // Long mantissas and exponents go through Double.parseDouble
+    private double parseDoubleSlow() {
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            byte b = bytes[i];
+            if ((b < '0' || b > '9') && b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E') {
+                return Double.NaN;
+            }
+        }
+        try {
+            return Double.parseDouble(new String(bytes, fieldStart, fieldEnd - fieldStart, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private interface RowParser {
+        String parse();
+    }
+
+    // Outcome of importing one file
+    static class LoadResult {
+        private final Path path;
+        private long accepted;
+        private long rejected;
+        private long skipped;
+        private final List<String> rejections = new ArrayList<>();
+
+        LoadResult(Path path) {
+            this.path = path;
+        }
+
+        private void reject(long lineNumber, String reason, String line) {
+            rejected++;
+            if (rejections.size() < MAX_REPORTED) {
+                rejections.add("line " + lineNumber + ": " + reason + " [" + line + "]");
+            }
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        // Rows of customers in shards held elsewhere
+        public long getSkipped() {
+            return skipped;
+        }
+
+        // Method to add up the results of loading the same file into different shards; the rows each shard
+        // skipped were another shard's, so only the rows no shard took count as skipped
+        public LoadResult merge(LoadResult other) {
+            LoadResult merged = new LoadResult(path);
+            merged.accepted = accepted + other.accepted;
+            merged.rejected = rejected + other.rejected;
+            long rows = accepted + rejected + skipped;
+            merged.skipped = rows - merged.accepted - merged.rejected;
+            merged.rejections.addAll(rejections);
+            for (String rejection : other.rejections) {
+                if (merged.rejections.size() < MAX_REPORTED) {
+                    merged.rejections.add(rejection);
+                }
+            }
+            return merged;
+        }
+
+        // The first rejected rows with their line number and reason
+        public List<String> getRejections() {
+            return rejections;
+        }
+
+        // Method to print the summary and the reported rejections
+        public void print() {
+            System.out.println(path + ": " + accepted + " rows imported, " + rejected + " rejected"
+                    + (skipped > 0 ? ", " + skipped + " for other shards" : ""));
+            for (String rejection : rejections) {
+                System.out.println("  " + rejection);
+            }
+            if (rejected > rejections.size()) {
+                System.out.println("  ... " + (rejected - rejections.size()) + " more rejected rows");
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+// Benchmark of the streaming bulk loader against a naive Scanner-based import of the same files
+// Run with: java -Xmx4g BulkLoaderBenchmark [customers] [loansPerCustomer]
+class BulkLoaderBenchmark {
+    private static final String[] LOAN_TYPES = {"Auto", "Builder", "Mortgage", "Personal", "Other"};
+
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int loansPerCustomer = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Path customersFile = Files.createTempFile("customers", ".csv");
+        Path loansFile = Files.createTempFile("loans", ".csv");
+        try {
+            writeFiles(customersFile, loansFile, size, loansPerCustomer);
+            long records = (long) size * (1 + loansPerCustomer);
+            System.out.println("Customers: " + size + ", loans: " + (long) size * loansPerCustomer);
+            System.out.println("Importer    | Time (ms) | Records/s");
+
+            // One untimed round each so both importers are compiled before timing
+            bulkImport(customersFile, loansFile, size);
+            scannerImport(customersFile, loansFile, size);
+
+            long start = System.nanoTime();
+            bulkImport(customersFile, loansFile, size);
+            report("BulkLoader", records, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            scannerImport(customersFile, loansFile, size);
+            report("Scanner", records, System.nanoTime() - start);
+        } finally {
+            Files.deleteIfExists(customersFile);
+            Files.deleteIfExists(loansFile);
+        }
+    }
+
+    private static void report(String name, long records, long nanos) {
+        System.out.printf("%-11s | %9.0f | %9.0f%n", name, nanos / 1e6, records / (nanos / 1e9));
+    }
+
+    private static CustomerRegistry bulkImport(Path customersFile, Path loansFile, int size) throws IOException {
+        CustomerRegistry registry = new CustomerRegistry(size);
+        BulkLoader loader = new BulkLoader(registry);
+        check(loader.loadCustomers(customersFile).getRejected() == 0);
+        check(loader.loadLoans(loansFile).getRejected() == 0);
+        return registry;
+    }
+
+    // The obvious import: Scanner lines, String.split, regex validation and a switch on the loan type
+    private static CustomerRegistry scannerImport(Path customersFile, Path loansFile, int size) throws IOException {
+        CustomerRegistry registry = new CustomerRegistry(size);
+        try (Scanner scanner = new Scanner(customersFile.toFile())) {
+            while (scanner.hasNextLine()) {
+                String[] fields = scanner.nextLine().split(",");
+                check(fields[0].matches("[A-Z]{3}[0-9]{3}"));
+                check(registry.add(new Customer(fields[0], Integer.parseInt(fields[1]))));
+            }
+        }
+        try (Scanner scanner = new Scanner(loansFile.toFile())) {
+            while (scanner.hasNextLine()) {
+                String[] fields = scanner.nextLine().split(",");
+                Customer customer = registry.find(fields[0]);
+                int recordID = Integer.parseInt(fields[1]);
+                double interestRate = Double.parseDouble(fields[3]);
+                double loanTermLeft = Double.parseDouble(fields[4]);
+                double amountLeftToPay = Double.parseDouble(fields[5]);
+                switch (fields[2]) {
+                    case "Auto":
+                        customer.addCreditRecord(new AutoLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+                        break;
+                    case "Builder":
+                        customer.addCreditRecord(new BuilderLoan(recordID, interestRate, loanTermLeft,
+                                Double.parseDouble(fields[6]), amountLeftToPay));
+                        break;
+                    case "Mortgage":
+                        customer.addCreditRecord(new MortgageLoan(recordID, interestRate, loanTermLeft,
+                                Double.parseDouble(fields[6]), amountLeftToPay));
+                        break;
+                    case "Personal":
+                        customer.addCreditRecord(new PersonalLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+                        break;
+                    default:
+                        customer.addCreditRecord(new OtherLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+                }
+            }
+        }
+        return registry;
+    }
+
+    private static void writeFiles(Path customersFile, Path loansFile, int size, int loansPerCustomer) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter customers = Files.newBufferedWriter(customersFile);
+             BufferedWriter loans = Files.newBufferedWriter(loansFile)) {
+            int recordID = 1;
+            for (int i = 0; i < size; i++) {
+                String customerID = CustomerIds.decode(i);
+                customers.write(customerID + "," + (20000 + random.nextInt(100000)) + "\n");
+                for (int j = 0; j < loansPerCustomer; j++) {
+                    String type = LOAN_TYPES[random.nextInt(LOAN_TYPES.length)];
+                    StringBuilder line = new StringBuilder();
+                    line.append(customerID).append(',').append(recordID++).append(',').append(type).append(',')
+                            .append(random.nextInt(1500) / 100.0).append(',').append(1 + random.nextInt(30)).append(',')
+                            .append(random.nextInt(50000000) / 100.0);
+                    if (type.equals("Builder") || type.equals("Mortgage")) {
+                        line.append(',').append(random.nextInt(20));
+                    }
+                    loans.write(line.append('\n').toString());
+                }
+            }
+        }
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("Import produced a different book");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Packed encoding of AAA999-style customer IDs
+// An ID maps onto an int code in 0..17,575,999: the three letters as a base-26 number, times 1000, plus the digits
+final class CustomerIds {
+    // Code used for customers without an ID and for rejected input
+    public static final int NONE = -1;
+    // Number of distinct IDs in the AAA000..ZZZ999 space
+    public static final int CAPACITY = 26 * 26 * 26 * 1000;
+
+    private CustomerIds() {
+    }
+
+    // Method to check the Customer ID format without regex or allocation
+    public static boolean isValid(CharSequence customerID) {
+        return encode(customerID) != NONE;
+    }
+
+    // Method to pack a Customer ID into its int code, returns NONE if the format is wrong
+    public static int encode(CharSequence customerID) {
+        if (customerID == null || customerID.length() != 6) {
+            return NONE;
+        }
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = customerID.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return NONE;
+            }
+            code = code * 26 + (c - 'A');
+        }
+        for (int i = 3; i < 6; i++) {
+            char c = customerID.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    // Method to pack a Customer ID held as ASCII bytes, returns NONE if the format is wrong
+    public static int encode(byte[] bytes, int offset, int length) {
+        if (length != 6) {
+            return NONE;
+        }
+        int code = 0;
+        for (int i = offset; i < offset + 3; i++) {
+            int c = bytes[i];
+            if (c < 'A' || c > 'Z') {
+                return NONE;
+            }
+            code = code * 26 + (c - 'A');
+        }
+        for (int i = offset + 3; i < offset + 6; i++) {
+            int c = bytes[i];
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    // Method to unpack an int code back into the Customer ID string
+    public static String decode(int code) {
+        if (code == NONE) {
+            return "";
+        }
+        if (code < 0 || code >= CAPACITY) {
+            throw new IllegalArgumentException("Invalid customer code: " + code);
+        }
+        int letters = code / 1000;
+        int digits = code % 1000;
+        char[] id = new char[6];
+        id[0] = (char) ('A' + letters / 676);
+        id[1] = (char) ('A' + (letters / 26) % 26);
+        id[2] = (char) ('A' + letters % 26);
+        id[3] = (char) ('0' + digits / 100);
+        id[4] = (char) ('0' + (digits / 10) % 10);
+        id[5] = (char) ('0' + digits % 10);
+        return new String(id);
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Registry holding every customer of the bank, indexed by packed customer code
+// Lookups probe an open-addressing int table, so they neither hash nor allocate Strings
+class CustomerRegistry implements Iterable<Customer> {
+    // Maps each customer code to its position in entries
+    private final IntIntMap slots;
+    // Customers in registration order, so the print-all paths keep that order
+    private Customer[] entries;
+    private int size;
+
+    public CustomerRegistry() {
+        this(16);
+    }
+
+    public CustomerRegistry(int expectedSize) {
+        slots = new IntIntMap(expectedSize);
+        entries = new Customer[Math.max(16, expectedSize)];
+    }
+
+    // Method to add a customer, returns false if the customer ID is already taken
+    public boolean add(Customer customer) {
+        int code = customer.getCustomerCode();
+        if (code == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Customer has no ID");
+        }
+        if (slots.putIfAbsent(code, size) != IntIntMap.MISSING) {
+            return false;
+        }
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = customer;
+        return true;
+    }
+
+    // Method to find a customer by their ID, returns null when not found
+    public Customer find(String customerID) {
+        return find(CustomerIds.encode(customerID));
+    }
+
+    // Method to find a customer by their packed code, returns null when not found
+    public Customer find(int code) {
+        if (code == CustomerIds.NONE) {
+            return null;
+        }
+        int slot = slots.get(code);
+        return slot == IntIntMap.MISSING ? null : entries[slot];
+    }
+
+    // Method to check whether a customer ID is already registered
+    public boolean contains(String customerID) {
+        return find(customerID) != null;
+    }
+
+    // Method to get the customer at a registration position, 0 <= index < size()
+    public Customer get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return entries[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Whether the customer belongs in this registry; a sharded one held across processes owns only its shards
+    public boolean owns(int code) {
+        return true;
+    }
+
+    // Whether removed loans left free storage worth compacting; the heap registry leaves that to the GC
+    public boolean isFragmented() {
+        return false;
+    }
+
+    // Method to release the storage left free by removed loans, while no other thread uses the registry
+    public void compact() {
+    }
+
+    // Method to write back changes held only in memory, for registries backed by a file
+    public void flush() throws IOException {
+    }
+
+    // Storage statistics for the metrics summary, empty when the registry keeps everything on the heap
+    public String formatStats() {
+        return "";
+    }
+
+    // Customers are iterated in the order they were registered
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<Customer>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Customer next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return entries[next++];
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+// Micro-benchmark comparing the linear customer scan with the hash-indexed registry
+// Run with: java -Xmx6g CustomerRegistryBenchmark [size ...]  (default sizes 10k, 1M, 10M)
+class CustomerRegistryBenchmark {
+    private static final int LOOKUPS = 1_000_000;
+    // Upper bound on the number of customers visited by the linear scan per size
+    private static final long SCAN_BUDGET = 200_000_000L;
+
+    public static void main(String[] args) {
+        int[] sizes = {10_000, 1_000_000, 10_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("Customers | Scan (ns/lookup) | Registry (ns/lookup) | Speedup");
+        for (int size : sizes) {
+            runSize(size);
+        }
+    }
+
+    private static void runSize(int size) {
+        // The scan baseline keeps a String ID per customer, as Customer did before IDs were packed
+        ArrayList<Customer> list = new ArrayList<>(size);
+        String[] ids = new String[size];
+        CustomerRegistry registry = new CustomerRegistry();
+        for (int i = 0; i < size; i++) {
+            Customer customer = new Customer(CustomerIds.decode(i), 50000);
+            list.add(customer);
+            ids[i] = customer.getCustomerID();
+            registry.add(customer);
+        }
+
+        // Query a fixed random set of existing IDs, the same for both structures
+        Random random = new Random(42);
+        int scanLookups = (int) Math.max(10, Math.min(LOOKUPS, SCAN_BUDGET / size));
+        String[] queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            queries[i] = CustomerIds.decode(random.nextInt(size));
+        }
+
+        // Warm up both paths before timing
+        long sink = 0;
+        for (int i = 0; i < Math.min(scanLookups, 1000); i++) {
+            sink += scan(list, ids, queries[i]).getCustomerIncome();
+        }
+        for (int i = 0; i < LOOKUPS; i++) {
+            sink += registry.find(queries[i]).getCustomerIncome();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < scanLookups; i++) {
+            sink += scan(list, ids, queries[i]).getCustomerIncome();
+        }
+        double scanNanos = (double) (System.nanoTime() - start) / scanLookups;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            sink += registry.find(queries[i]).getCustomerIncome();
+        }
+        double registryNanos = (double) (System.nanoTime() - start) / LOOKUPS;
+
+        System.out.printf("%9d | %16.1f | %20.1f | %7.0fx%n", size, scanNanos, registryNanos, scanNanos / registryNanos);
+        if (sink == 42) {
+            System.out.println(); // keeps the JIT from discarding the lookups
+        }
+    }
+
+    // The lookup the bank used before the registry existed
+    private static Customer scan(ArrayList<Customer> customers, String[] ids, String customerID) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equals(customerID)) {
+                return customers.get(i);
+            }
+        }
+        return null;
+    }
+}
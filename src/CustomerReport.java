@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Streams customer reports out of a BankService one page at a time
+//
+// Pages hold copies of the customers, so writing a page never holds a lock and a report never needs more memory
+// than one page, however large the book is. Every page is read from a BookView, so its customers and ranking are
+// as of one moment however long the scan takes, and a report printed in one call is one moment throughout.
+// In registration order a page is cut as soon as it is full, so the first page comes back without walking the
+// book, and its cursor is simply the position to resume from. In exposure order every page takes one pass over
+// the book, keeping the page's customers in a heap of the page size instead of sorting the book; its cursor is
+// the exposure and position of the page's last customer, and the next page ranks only customers after it.
+// The registry read lock is taken for SCAN_BATCH customers at a time, so registrations go on during long scans.
+class CustomerReport {
+    private static final int SCAN_BATCH = 4096;
+    // Page size used to stream reports that have none
+    private static final int STREAM_PAGE = 1000;
+
+    private final BankService service;
+
+    public CustomerReport(BankService service) {
+        this.service = service;
+    }
+
+    // Method to fetch the page of a query that starts at its cursor
+    public ReportPage fetch(ReportQuery query) {
+        try (BookView view = service.openView()) {
+            return fetch(query, view);
+        }
+    }
+
+    // Method to fetch the page of a query from a view the caller holds open
+    ReportPage fetch(ReportQuery query, BookView view) {
+        if (!query.isByExposure()) {
+            return fetchInOrder(query, view);
+        }
+        return fetchByExposure(query, query.pageLimit(query.getPageSize() > 0 ? query.getPageSize() : STREAM_PAGE),
+                view);
+    }
+
+    // Method to write the query's page, or every match when it has no page size; returns the next page's cursor,
+    // or null if there are no more customers
+    public String print(ReportQuery query, ReportWriter out) {
+        try (BookView view = service.openView()) {
+            ReportQuery page = query;
+            while (true) {
+                ReportPage result = fetch(page, view);
+                for (Customer customer : result.getCustomers()) {
+                    out.printCustomer(customer, customer.isEligibleForNewLoans());
+                    out.println(); //an empty line between customers
+                }
+                if (query.getPageSize() > 0 || result.getNextCursor() == null) {
+                    return result.getNextCursor();
+                }
+                page = query.withCursor(result.getNextCursor());
+            }
+        }
+    }
+
+    private ReportPage fetchInOrder(ReportQuery query, BookView view) {
+        int pageSize = query.getPageSize() > 0 ? query.getPageSize() : STREAM_PAGE;
+        int position = query.getAfter() == null ? 0 : parsePosition(query.getAfter());
+        List<Customer> customers = new ArrayList<>(Math.min(pageSize, SCAN_BATCH));
+        int[][] positions = {new int[Math.min(pageSize, SCAN_BATCH)]};
+        while (customers.size() < pageSize) {
+            int[] at = {position};
+            int next = view.visit(position, SCAN_BATCH, customer -> {
+                int visited = at[0]++;
+                if (query.matches(customer)) {
+                    if (customers.size() == positions[0].length) {
+                        positions[0] = Arrays.copyOf(positions[0], customers.size() * 2);
+                    }
+                    positions[0][customers.size()] = visited;
+                    customers.add(customer.copy());
+                }
+                return customers.size() < pageSize;
+            });
+            if (next == position) {
+                break; // end of the book
+            }
+            position = next;
+        }
+        String cursor = position < view.size() ? Integer.toString(position) : null;
+        return new ReportPage(customers, Arrays.copyOf(positions[0], customers.size()), false, cursor);
+    }
+
+    private ReportPage fetchByExposure(ReportQuery query, int pageSize, BookView view) {
+        TopExposures top = new TopExposures(pageSize);
+        double afterExposure = Double.POSITIVE_INFINITY;
+        int afterPosition = -1;
+        if (query.getAfter() != null) {
+            String cursor = query.getAfter();
+            int colon = cursor.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Invalid report cursor: " + cursor);
+            }
+            try {
+                afterExposure = Double.parseDouble(cursor.substring(0, colon));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid report cursor: " + cursor);
+            }
+            afterPosition = parsePosition(cursor.substring(colon + 1));
+        }
+        double lastExposure = afterExposure;
+        int lastPosition = afterPosition;
+        int[] position = new int[1];
+        while (true) {
+            int from = position[0];
+            int next = view.visit(from, SCAN_BATCH, customer -> {
+                int at = position[0]++;
+                double exposure = customer.getTotalExposure();
+                if (TopExposures.ranksAfter(exposure, at, lastExposure, lastPosition) && query.matches(customer)) {
+                    top.offer(exposure, at);
+                }
+                return true;
+            });
+            if (next == from) {
+                break;
+            }
+            position[0] = next;
+        }
+
+        List<Customer> customers = new ArrayList<>(top.size());
+        int[] positions = top.positionsInRankOrder();
+        for (int at : positions) {
+            view.visit(at, 1, customer -> customers.add(customer.copy()));
+        }
+        String cursor = null;
+        if (top.hasMore()) {
+            int last = positions.length - 1;
+            cursor = top.exposureAt(last) + ":" + positions[last];
+        }
+        return new ReportPage(customers, positions, true, query.nextCursor(customers.size(), cursor));
+    }
+
+    private static int parsePosition(String cursor) {
+        try {
+            int position = Integer.parseInt(cursor);
+            if (position >= 0) {
+                return position;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid report cursor: " + cursor);
+    }
+
+    // Bounded heap of the highest exposures seen, as parallel primitive arrays
+    // The root is the entry that ranks last: lowest exposure, then latest position
+    private static class TopExposures {
+        private final double[] exposures;
+        private final int[] positions;
+        private int size;
+        private boolean more;
+
+        TopExposures(int capacity) {
+            this.exposures = new double[capacity];
+            this.positions = new int[capacity];
+        }
+
+        // Whether (exposure, position) comes after (otherExposure, otherPosition) in the ranking
+        static boolean ranksAfter(double exposure, int position, double otherExposure, int otherPosition) {
+            return exposure < otherExposure || (exposure == otherExposure && position > otherPosition);
+        }
+
+        void offer(double exposure, int position) {
+            if (size < exposures.length) {
+                exposures[size] = exposure;
+                positions[size] = position;
+                siftUp(size++);
+                return;
+            }
+            more = true;
+            if (ranksAfter(exposure, position, exposures[0], positions[0])) {
+                return; // ranks after everything kept
+            }
+            exposures[0] = exposure;
+            positions[0] = position;
+            siftDown(0);
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean hasMore() {
+            return more;
+        }
+
+        // Empties the heap into rank order, highest exposure first; exposureAt then follows the same order
+        int[] positionsInRankOrder() {
+            int count = size;
+            for (int i = count - 1; i > 0; i--) {
+                swap(0, i);
+                size = i;
+                siftDown(0);
+            }
+            size = count;
+            // Popping the last-ranked entry to the back each time leaves the arrays in rank order
+            return Arrays.copyOf(positions, count);
+        }
+
+        double exposureAt(int index) {
+            return exposures[index];
+        }
+
+        // Whether entry a ranks after entry b, making it closer to the root
+        private boolean ranksAfter(int a, int b) {
+            return ranksAfter(exposures[a], positions[a], exposures[b], positions[b]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!ranksAfter(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && ranksAfter(child + 1, child)) {
+                    child++;
+                }
+                if (!ranksAfter(child, i)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double exposure = exposures[a];
+            exposures[a] = exposures[b];
+            exposures[b] = exposure;
+            int position = positions[a];
+            positions[a] = positions[b];
+            positions[b] = position;
+        }
+    }
+}
+
+// One page of a customer report: copies of the customers, and the cursor of the next page or null at the end
+// The book position of each customer is kept too, so a page can also be resumed part way through
+class ReportPage {
+    private final List<Customer> customers;
+    private final int[] positions;
+    private final boolean byExposure;
+    private final String nextCursor;
+
+    ReportPage(List<Customer> customers, int[] positions, boolean byExposure, String nextCursor) {
+        this.customers = customers;
+        this.positions = positions;
+        this.byExposure = byExposure;
+        this.nextCursor = nextCursor;
+    }
+
+    // The cursor that resumes the report after the customer at an index of this page
+    public String cursorAfter(int index) {
+        if (index == customers.size() - 1 && nextCursor == null) {
+            return null;
+        }
+        return byExposure
+                ? customers.get(index).getTotalExposure() + ":" + positions[index]
+                : Integer.toString(positions[index] + 1);
+    }
+
+    public List<Customer> getCustomers() {
+        return customers;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// Customers and their credit records in a keyed file, read and written one whole customer at a time
+//
+// The file is a log of customer records. Writing a customer appends a new version of their record and points the
+// customer's position at it, which turns the previous version into garbage; compact() rewrites the live versions
+// into a new file once the garbage outweighs them. Only the code-to-position table and each position's offset and
+// record length stay on the heap, about 20 bytes a customer. Opening an existing file scans it once, later
+// versions replacing earlier ones, and cuts off a record left torn at the end by a crash.
+// Writes are not forced to disk until force() or close(): durability is the journal's and the snapshots' job,
+// the book file holds what does not fit in memory.
+//
+// Every method is synchronized, the file position of a record can change under a concurrent write.
+//
+// Records, big-endian:
+//   length int (of the rest), code int, income int, eligible byte, loan count int, then for each loan
+//   record ID int, type ordinal byte, rate, term left, amount left, overpayment double
+class DiskBook implements Closeable {
+    static final int NONE = -1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 1 + 4;
+    private static final int LOAN_SIZE = 4 + 1 + 4 * 8;
+    // Garbage is left alone below this, a rewrite of a small file gains nothing
+    private static final long MIN_GARBAGE = 16L << 20;
+
+    private final Path path;
+    private FileChannel channel;
+    private final IntIntMap positions;
+    private long[] offsets;
+    private int[] lengths;
+    private int size;
+    private long end;
+    private long garbage;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    // Opens the book in a file, keeping what it holds unless truncate is set
+    public DiskBook(Path path, int expectedSize, boolean truncate) throws IOException {
+        this.path = path;
+        this.positions = new IntIntMap(expectedSize);
+        this.offsets = new long[Math.max(16, expectedSize)];
+        this.lengths = new int[offsets.length];
+        this.channel = truncate
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        scan();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Method to append a new customer, returns their position, or NONE if the code is already in the book
+    public synchronized int add(Customer customer) throws IOException {
+        int code = customer.getCustomerCode();
+        if (positions.putIfAbsent(code, size) != IntIntMap.MISSING) {
+            return NONE;
+        }
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        int position = size++;
+        append(position, customer);
+        return position;
+    }
+
+    // Method to replace the stored version of the customer at a position
+    public synchronized void write(int position, Customer customer) throws IOException {
+        garbage += lengths[position];
+        append(position, customer);
+    }
+
+    // Method to read the customer at a position into a new, empty Customer, returns it
+    public synchronized <C extends Customer> C read(int position, C into) throws IOException {
+        ByteBuffer record = readFully(offsets[position], lengths[position]);
+        int code = record.getInt(4);
+        int income = record.getInt(8);
+        boolean eligible = record.get(12) != 0;
+        int count = record.getInt(13);
+        ArrayList<Loan> loans = new ArrayList<>(count);
+        record.position(HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            int recordID = record.getInt();
+            LoanType type = LoanTypes.byOrdinal(record.get());
+            double rate = record.getDouble();
+            double term = record.getDouble();
+            double amount = record.getDouble();
+            double overpayment = record.getDouble();
+            loans.add(type.create(recordID, rate, term, overpayment, amount));
+        }
+        into.restore(code, income, eligible, loans);
+        return into;
+    }
+
+    // Method to find the position of a customer code, returns NONE when it is not in the book
+    public synchronized int position(int code) {
+        int position = positions.get(code);
+        return position == IntIntMap.MISSING ? NONE : position;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long fileBytes() {
+        return end;
+    }
+
+    // Bytes held by replaced versions of records
+    public synchronized long garbageBytes() {
+        return garbage;
+    }
+
+    // Whether replaced versions take more space than the live records, and enough of it to rewrite the file
+    public synchronized boolean isFragmented() {
+        return garbage > MIN_GARBAGE && garbage > end - garbage;
+    }
+
+    // Method to rewrite the live version of every customer into a new file, which then replaces the old one
+    public synchronized void compact() throws IOException {
+        Path temporary = Paths.get(path + ".compact");
+        long written = 0;
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] moved = new long[offsets.length];
+            for (int position = 0; position < size; position++) {
+                ByteBuffer record = readFully(offsets[position], lengths[position]);
+                moved[position] = written;
+                while (record.hasRemaining()) {
+                    written += out.write(record, written);
+                }
+            }
+            out.force(true);
+            offsets = moved;
+        }
+        channel.close();
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = written;
+        garbage = 0;
+    }
+
+    // Method to force written records to the storage device
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(true);
+        channel.close();
+    }
+
+    // Writes the customer at the end of the file and points its position there
+    private void append(int position, Customer customer) throws IOException {
+        List<Loan> loans = customer.getCreditRecords();
+        int length = HEADER_SIZE + loans.size() * LOAN_SIZE;
+        ByteBuffer record = buffer(length);
+        record.putInt(length - 4);
+        record.putInt(customer.getCustomerCode());
+        record.putInt(customer.getCustomerIncome());
+        record.put((byte) (customer.isEligibilityStatus() ? 1 : 0));
+        record.putInt(loans.size());
+        for (Loan loan : loans) {
+            record.putInt(loan.getRecordID());
+            record.put((byte) loan.getType().getOrdinal());
+            record.putDouble(loan.getInterestRate());
+            record.putDouble(loan.getLoanTermLeft());
+            record.putDouble(loan.getAmountLeftToPay());
+            record.putDouble(loan.getOverpayment());
+        }
+        record.flip();
+        long offset = end;
+        while (record.hasRemaining()) {
+            end += channel.write(record, end);
+        }
+        offsets[position] = offset;
+        lengths[position] = length;
+    }
+
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer record = buffer(length);
+        record.limit(length);
+        long at = offset;
+        while (record.hasRemaining()) {
+            int read = channel.read(record, at);
+            if (read < 0) {
+                throw new IOException(path + ": record at " + offset + " ends past the end of the file");
+            }
+            at += read;
+        }
+        record.flip();
+        return record;
+    }
+
+    // The shared buffer, cleared and grown to hold at least length bytes
+    private ByteBuffer buffer(int length) {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // Builds the position table from the records in the file, later versions of a customer replacing earlier ones
+    private void scan() throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+        chunk.limit(0);
+        while (end < fileSize) {
+            if (chunk.remaining() < 4) {
+                chunk = refill(chunk, 4);
+            }
+            if (chunk.remaining() < 4) {
+                break;
+            }
+            int rest = chunk.getInt(chunk.position());
+            if (rest < HEADER_SIZE - 4 || (rest - (HEADER_SIZE - 4)) % LOAN_SIZE != 0) {
+                break;
+            }
+            if (chunk.remaining() < 4 + rest) {
+                chunk = refill(chunk, 4 + rest);
+            }
+            if (chunk.remaining() < 4 + rest) {
+                break;
+            }
+            int code = chunk.getInt(chunk.position() + 4);
+            int position = positions.putIfAbsent(code, size);
+            if (position == IntIntMap.MISSING) {
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    lengths = Arrays.copyOf(lengths, size * 2);
+                }
+                position = size++;
+            } else {
+                garbage += lengths[position];
+            }
+            offsets[position] = end;
+            lengths[position] = 4 + rest;
+            end += 4 + rest;
+            chunk.position(chunk.position() + 4 + rest);
+        }
+        if (end < fileSize) {
+            System.out.println(path + ": dropped " + (fileSize - end) + " bytes of a torn record at the end");
+            channel.truncate(end);
+        }
+    }
+
+    // Reads the file from the end of the records scanned so far, into a chunk of at least needed bytes
+    private ByteBuffer refill(ByteBuffer chunk, int needed) throws IOException {
+        ByteBuffer into = chunk.capacity() >= needed ? chunk : ByteBuffer.allocate(Integer.highestOneBit(needed) << 1);
+        into.clear();
+        while (into.hasRemaining()) {
+            if (channel.read(into, end + into.position()) < 0) {
+                break;
+            }
+        }
+        into.flip();
+        return into;
+    }
+}
+
+// Customer paged in from a DiskBook by a DiskRegistry
+// Every change marks the customer dirty, to be written back when they are evicted or flushed. A customer changed
+// while out of the cache is put back into it, so the change is written back too. Changes and write-backs
+// synchronize on the customer, which is all an eviction by another thread has to wait for.
+class DiskCustomer extends Customer {
+    private final DiskRegistry registry;
+    private final int position;
+    private boolean dirty; // guarded by this
+
+    // Cache state, guarded by the registry
+    DiskCustomer newer;
+    DiskCustomer older;
+    boolean resident;
+
+    DiskCustomer(DiskRegistry registry, int position) {
+        this.registry = registry;
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setCustomerIncome(int customerIncome) {
+        synchronized (this) {
+            super.setCustomerIncome(customerIncome);
+            dirty = true;
+        }
+        registry.changed(this);
+    }
+
+    @Override
+    public void setEligibilityStatus(boolean eligibilityStatus) {
+        synchronized (this) {
+            super.setEligibilityStatus(eligibilityStatus);
+            dirty = true;
+        }
+        registry.changed(this);
+    }
+
+    @Override
+    public void setCreditRecords(ArrayList<Loan> creditRecords) {
+        synchronized (this) {
+            super.setCreditRecords(creditRecords);
+            dirty = true;
+        }
+        registry.changed(this);
+    }
+
+    @Override
+    public void addCreditRecord(Loan loan) {
+        synchronized (this) {
+            super.addCreditRecord(loan);
+            dirty = true;
+        }
+        registry.changed(this);
+    }
+
+    @Override
+    public boolean removeCreditRecords(Collection<Loan> loans) {
+        boolean removed;
+        synchronized (this) {
+            removed = super.removeCreditRecords(loans);
+            dirty |= removed;
+        }
+        if (removed) {
+            registry.changed(this);
+        }
+        return removed;
+    }
+
+    // Method to write the customer to the book if they changed since they were read or last written,
+    // returns whether they were written
+    synchronized boolean writeBack(DiskBook book) throws IOException {
+        if (!dirty) {
+            return false;
+        }
+        book.write(position, this);
+        dirty = false;
+        return true;
+    }
+}
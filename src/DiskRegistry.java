@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Customer registry kept in a DiskBook file, enabled with -Dxyzbank.diskBook=<file>
+// Customers are paged in when find() hits them and held in a bounded LRU cache of DiskCustomer objects; a dirty
+// customer is written back when evicted, on flush() and on close(). Scans through get() and the iterator, which
+// reports, snapshots and index builds use, read customers that are not cached straight from the file without
+// putting them in the cache, so a print of the whole book does not evict the customers in use.
+//
+// There is never more than one DiskCustomer per customer: every one read is also held weakly, and handed out
+// again for as long as anything still references it, cached or not. A customer found just before their eviction
+// is therefore still the one the next find() returns, and a change made to them after it puts them back in the
+// cache instead of being lost next to a fresh copy read from the file.
+// The cache and the file are guarded by this registry's monitor; disk reads and writes happen under it.
+class DiskRegistry extends CustomerRegistry {
+    private final DiskBook book;
+    private final int capacity;
+
+    // The DiskCustomer read for each position, while anything references it
+    private CustomerRef[] loaded;
+    private final ReferenceQueue<DiskCustomer> collected = new ReferenceQueue<>();
+
+    // Cached customers, most recently used first
+    private DiskCustomer newest;
+    private DiskCustomer oldest;
+    private int cached;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+    private long streamed;
+
+    // Entry of the loaded table, cleared by the GC once its customer is unreachable
+    private static final class CustomerRef extends WeakReference<DiskCustomer> {
+        final int position;
+
+        CustomerRef(DiskCustomer customer, ReferenceQueue<DiskCustomer> queue) {
+            super(customer, queue);
+            this.position = customer.getPosition();
+        }
+    }
+
+    // Opens the book in a file, keeping the customers it holds unless truncate is set
+    // capacity: how many customers the cache holds
+    public DiskRegistry(Path path, int capacity, boolean truncate) throws IOException {
+        super(0);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.book = new DiskBook(path, capacity, truncate);
+        this.capacity = capacity;
+        this.loaded = new CustomerRef[Math.max(16, book.size())];
+    }
+
+    // Returns a registry in a new or emptied file holding a copy of every customer of another registry
+    public static DiskRegistry copyOf(CustomerRegistry registry, Path path, int capacity) throws IOException {
+        DiskRegistry copy = new DiskRegistry(path, capacity, true);
+        for (Customer customer : registry) {
+            copy.add(customer);
+        }
+        return copy;
+    }
+
+    public DiskBook getBook() {
+        return book;
+    }
+
+    // Method to write a customer and their loans to the book, returns false if the customer ID is already taken
+    // The Customer object is not kept; later changes go through find() or get()
+    @Override
+    public synchronized boolean add(Customer customer) {
+        if (customer.getCustomerCode() == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Customer has no ID");
+        }
+        try {
+            return book.add(customer) != DiskBook.NONE;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Looks the customer up in the cache, then in the file; a customer read from the file is cached
+    @Override
+    public synchronized Customer find(int code) {
+        if (code == CustomerIds.NONE) {
+            return null;
+        }
+        int position = book.position(code);
+        return position == DiskBook.NONE ? null : customerAt(position, true);
+    }
+
+    // Customers not in the cache are read without caching them, as a scan would
+    @Override
+    public synchronized Customer get(int index) {
+        if (index < 0 || index >= book.size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + book.size());
+        }
+        return customerAt(index, false);
+    }
+
+    @Override
+    public int size() {
+        return book.size();
+    }
+
+    @Override
+    public boolean isFragmented() {
+        return book.isFragmented();
+    }
+
+    @Override
+    public synchronized void compact() {
+        try {
+            book.compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Method to write back every changed customer in the cache and force the file to disk
+    @Override
+    public synchronized void flush() throws IOException {
+        for (DiskCustomer customer = newest; customer != null; customer = customer.older) {
+            if (customer.writeBack(book)) {
+                writeBacks++;
+            }
+        }
+        book.force();
+    }
+
+    // Method to flush and close the file; the registry cannot be used afterwards
+    public synchronized void close() throws IOException {
+        flush();
+        book.close();
+    }
+
+    @Override
+    public synchronized String formatStats() {
+        long lookups = hits + misses;
+        return String.format("Disk book %s: %d customers, %d of %d cached, %d hits (%.1f%%), %d misses, "
+                        + "%d evictions, %d write-backs, %d read by scans, file %d MB (%d MB garbage)%n",
+                book.getPath(), book.size(), cached, capacity, hits, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                misses, evictions, writeBacks, streamed, book.fileBytes() >> 20, book.garbageBytes() >> 20);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    // Customers are iterated in the order they were registered, as get() returns them
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<Customer>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < book.size();
+            }
+
+            @Override
+            public Customer next() {
+                if (next >= book.size()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    // Called by a DiskCustomer after each change; one changed outside the cache goes back in to be written back
+    synchronized void changed(DiskCustomer customer) {
+        if (!customer.resident) {
+            cache(customer);
+        }
+    }
+
+    // The one DiskCustomer for a position, read from the file if nothing references it any more
+    private DiskCustomer customerAt(int position, boolean lookup) {
+        dropCollected();
+        if (position >= loaded.length) {
+            loaded = Arrays.copyOf(loaded, Math.max(position + 1, loaded.length * 2));
+        }
+        CustomerRef ref = loaded[position];
+        DiskCustomer customer = ref == null ? null : ref.get();
+        if (customer != null) {
+            if (lookup) {
+                hits++;
+                cache(customer);
+            }
+            return customer;
+        }
+        try {
+            customer = book.read(position, new DiskCustomer(this, position));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        loaded[position] = new CustomerRef(customer, collected);
+        if (lookup) {
+            misses++;
+            cache(customer);
+        } else {
+            streamed++;
+        }
+        return customer;
+    }
+
+    // Makes a customer the most recently used, evicting the least recently used ones beyond the capacity
+    private void cache(DiskCustomer customer) {
+        if (customer.resident) {
+            if (customer == newest) {
+                return;
+            }
+            unlink(customer);
+        }
+        customer.older = newest;
+        customer.newer = null;
+        if (newest != null) {
+            newest.newer = customer;
+        }
+        newest = customer;
+        if (oldest == null) {
+            oldest = customer;
+        }
+        customer.resident = true;
+        cached++;
+        while (cached > capacity) {
+            evict(oldest);
+        }
+    }
+
+    private void evict(DiskCustomer customer) {
+        unlink(customer);
+        evictions++;
+        try {
+            if (customer.writeBack(book)) {
+                writeBacks++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void unlink(DiskCustomer customer) {
+        if (customer.newer != null) {
+            customer.newer.older = customer.older;
+        } else {
+            newest = customer.older;
+        }
+        if (customer.older != null) {
+            customer.older.newer = customer.newer;
+        } else {
+            oldest = customer.newer;
+        }
+        customer.newer = null;
+        customer.older = null;
+        customer.resident = false;
+        cached--;
+    }
+
+    // Clears the loaded entries of customers the GC has collected
+    private void dropCollected() {
+        CustomerRef ref;
+        while ((ref = (CustomerRef) collected.poll()) != null) {
+            if (loaded[ref.position] == ref) {
+                loaded[ref.position] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+// Open-addressing hash map from non-negative int keys to int values
+// Used to index packed customer codes without boxing
+class IntIntMap {
+    public static final int MISSING = -1;
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    // Returns the value stored for the key, or MISSING
+    public int get(int key) {
+        if (key < 0) {
+            return MISSING;
+        }
+        int index = probe(key);
+        return keys[index] == key ? values[index] : MISSING;
+    }
+
+    // Stores the value only if the key is absent, returns the value already present or MISSING
+    public int putIfAbsent(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        int index = probe(key);
+        if (keys[index] == key) {
+            return values[index];
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    // Overwrites the value for a key that is already present
+    public void replace(int key, int value) {
+        int index = probe(key);
+        if (keys[index] != key) {
+            throw new IllegalArgumentException("Missing key: " + key);
+        }
+        values[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the table index holding the key, or the empty index where it would go
+    private int probe(int key) {
+        int index = mix(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = probe(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    // Spreads sequential keys over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+// Benchmark of durable journal mutations per second with group commit on and off
+// Every writer waits until its own mutation is on disk, as the menu does
+// Run with: java JournalBenchmark [writers] [mutationsPerWriter] [groupCommitMillis]
+class JournalBenchmark {
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int mutations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        long groupCommitMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+
+        System.out.println("Writers: " + writers + ", mutations per writer: " + mutations);
+        System.out.println("Mode                   | Time (ms) | Mutations/s");
+        run("fsync per mutation", writers, mutations, 0);
+        run("group commit " + groupCommitMillis + " ms", writers, mutations, groupCommitMillis);
+    }
+
+    private static void run(String name, int writers, int mutations, long groupCommitMillis) throws Exception {
+        Path directory = Files.createTempDirectory("journal-bench");
+        try (MutationJournal journal = new MutationJournal(directory.resolve("book.journal"), groupCommitMillis, 1 << 16)) {
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[writers];
+            Exception[] failure = new Exception[1];
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                threads[w] = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < mutations; i++) {
+                            journal.awaitDurable(journal.logUpdateIncome(writer, 20000 + i));
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                });
+                threads[w].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long nanos = System.nanoTime() - begin;
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            long total = (long) writers * mutations;
+            System.out.printf("%-22s | %9.0f | %11.0f%n", name, nanos / 1e6, total / (nanos / 1e9));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
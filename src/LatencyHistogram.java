@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Concurrent latency histogram in the style of HdrHistogram: log-linear buckets with a bounded relative error
+//
+// Every power-of-two range of values is split into SUB_BUCKETS / 2 linear sub-buckets, so a recorded value is
+// off by less than 1 / 32 (about 3%) wherever it falls, from nanoseconds to hours, in under 2000 counters.
+// Recording is allocation-free: the calling thread picks a stripe by its thread ID and increments one counter
+// of it, so threads rarely write to the same stripe. Snapshots add the stripes up.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    // Buckets up to the largest long, then the stripe's sum and maximum; the count is the sum of the buckets
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    // Row length rounded up so neighbouring stripes' hot slots do not share a cache line
+    private static final int ROW = (MAX + 1 + 7) & ~7;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public LatencyHistogram(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripeMask = size - 1;
+        this.counts = new AtomicLongArray(size * ROW);
+    }
+
+    // Method to record one value, in nanoseconds; negative values count as 0
+    public void record(long value) {
+        long v = Math.max(0, value);
+        int row = stripe() * ROW;
+        counts.getAndIncrement(row + bucketOf(v));
+        counts.getAndAdd(row + SUM, v);
+        long max = counts.get(row + MAX);
+        while (v > max && !counts.compareAndSet(row + MAX, max, v)) {
+            max = counts.get(row + MAX);
+        }
+    }
+
+    // Method to add up the stripes into a point-in-time copy
+    // Counters are read one by one while recording goes on, so a snapshot may miss values recorded meanwhile
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int row = 0; row < counts.length(); row += ROW) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long bucketCount = counts.get(row + i);
+                buckets[i] += bucketCount;
+                count += bucketCount;
+            }
+            sum += counts.get(row + SUM);
+            max = Math.max(max, counts.get(row + MAX));
+        }
+        return new Snapshot(buckets, count, sum, max);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above, the top SUB_BUCKET_BITS bits of the value pick the bucket
+    static int bucketOf(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Largest value that falls in a bucket
+    static long highestValueOf(int bucket) {
+        int shift = Math.max(0, bucket / HALF_SUB_BUCKETS - 1);
+        long lowest = (long) (bucket - shift * HALF_SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Merged counts of a LatencyHistogram at one point in time
+    static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Value at or below which the given percentage of the recorded values fall, 0 when nothing was recorded
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+// Reads lines of at most a maximum length, for requests from network clients
+// Unlike BufferedReader.readLine, it never holds more than the maximum: the rest of a longer line is read and
+// dropped up to its line break, and the line is reported as too long, so a client that never sends a line break
+// costs a fixed buffer however much it sends. Lines end with "\n" or "\r\n".
+// Not thread-safe; each connection has its own.
+final class LineReader {
+    private final Reader in;
+    private final int maxLength;
+    private final char[] buffer = new char[4096];
+    private final StringBuilder line;
+    private int position;
+    private int limit;
+    private boolean tooLong;
+    private boolean ended;
+
+    LineReader(InputStream in, Charset charset, int maxLength) {
+        this.in = new InputStreamReader(in, charset);
+        this.maxLength = maxLength;
+        this.line = new StringBuilder(Math.min(maxLength + 1, 256));
+    }
+
+    // Method to read the next line without its line break, returns null at the end of the stream
+    // When the line was longer than the maximum, tooLong() is true and the text returned is only its beginning
+    public String readLine() throws IOException {
+        line.setLength(0);
+        tooLong = false;
+        while (true) {
+            if (position == limit) {
+                int read = ended ? -1 : in.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    ended = true;
+                    return line.length() == 0 && !tooLong ? null : finish();
+                }
+                position = 0;
+                limit = read;
+            }
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            // One character over the maximum is kept, for a "\r" before the line break
+            int room = maxLength + 1 - line.length();
+            if (position - start > room) {
+                line.append(buffer, start, room);
+                tooLong = true;
+            } else {
+                line.append(buffer, start, position - start);
+            }
+            if (position < limit) {
+                position++; // past the line break
+                return finish();
+            }
+        }
+    }
+
+    // Whether the line last read was longer than the maximum
+    public boolean tooLong() {
+        return tooLong;
+    }
+
+    private String finish() {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            length--;
+        }
+        if (length > maxLength) {
+            tooLong = true;
+            length = maxLength;
+        }
+        return line.substring(0, length);
+    }
+}
@@ -0,0 +1,535 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Secondary indexes over every loan of the book, kept current by BankService on each insert and remove
+//   byKey     (customer code, record ID) -> loans, replacing the linear scans for a record ID
+//   byType    one bucket per loan type
+//   byRate, byAmount, byTerm   loans sorted by interest rate, amount left to pay and term left
+//   byDebtToIncome             customers sorted by total exposure / income
+//
+// A LoanQuery is answered from one index and filtered by the rest of its conditions. The planner steps every usable
+// index in lockstep and keeps the first one that runs out: that is exactly the smallest candidate set, found at a cost
+// of at most (number of usable indexes) x (its size), with no statistics to keep up to date.
+//
+// Apart from byKey, the indexes are split into partitions by customer code, hashed as BankService picks its stripes,
+// each partition with a lock of its own. A change locks only its customer's partition, so changes to different
+// customers rarely wait for each other, and each works on trees a partition's size. Queries read every partition at
+// once, under all their read locks, and see each index as the whole book. Changes to one customer must not run
+// concurrently, which BankService's stripe locks ensure.
+class LoanIndex {
+    private static final int PARTITIONS = 64;
+    // Written out rather than composed with Comparator.comparingDouble, whose shared key-extractor call site
+    // cannot be inlined once several indexes use it, and which dominated the cost of every change
+    private static final Comparator<IndexedLoan> BY_RATE = (a, b) -> {
+        int order = Double.compare(a.getInterestRate(), b.getInterestRate());
+        return order != 0 ? order : Long.compare(a.getSequence(), b.getSequence());
+    };
+    private static final Comparator<IndexedLoan> BY_AMOUNT = (a, b) -> {
+        int order = Double.compare(a.getAmountLeftToPay(), b.getAmountLeftToPay());
+        return order != 0 ? order : Long.compare(a.getSequence(), b.getSequence());
+    };
+    private static final Comparator<IndexedLoan> BY_TERM = (a, b) -> {
+        int order = Double.compare(a.getLoanTermLeft(), b.getLoanTermLeft());
+        return order != 0 ? order : Long.compare(a.getSequence(), b.getSequence());
+    };
+    private static final Comparator<DebtToIncome> BY_RATIO = (a, b) -> {
+        int order = Double.compare(a.getRatio(), b.getRatio());
+        return order != 0 ? order : Integer.compare(a.getCustomerCode(), b.getCustomerCode());
+    };
+
+    // Point lookups read this map without a lock; every chain in it is immutable
+    private final Map<Long, IndexedLoan> byKey = new ConcurrentHashMap<>();
+    private final Partition[] partitions = new Partition[PARTITIONS];
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public LoanIndex() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    // Whether to index the book: only with -Dxyzbank.loanIndex=true
+    // The index is built by reading the whole book, which took 39 s for 5M loans, holds about 240 bytes of heap per
+    // loan (measured on a generated book, two loans per customer, customer entries included), and keeping it current
+    // halved BankServiceBenchmark's write throughput at 8 threads. Only loan queries need it; without it record IDs
+    // are looked up in the customer's own loans, and queries scan the book.
+    public static boolean isWanted() {
+        return Boolean.getBoolean("xyzbank.loanIndex");
+    }
+
+    // Method to index every customer and loan of a registry
+    // Each partition's entries are sorted once as arrays and added to its trees in order
+    public static LoanIndex build(CustomerRegistry registry) {
+        LoanIndex index = new LoanIndex();
+        List<List<IndexedLoan>> entries = new ArrayList<>(PARTITIONS);
+        List<List<DebtToIncome>> ratios = new ArrayList<>(PARTITIONS);
+        for (int i = 0; i < PARTITIONS; i++) {
+            entries.add(new ArrayList<>());
+            ratios.add(new ArrayList<>());
+        }
+        for (Customer customer : registry) {
+            int code = customer.getCustomerCode();
+            int partition = partitionOf(code);
+            for (Loan loan : customer.getCreditRecords()) {
+                long key = key(code, loan.getRecordID());
+                IndexedLoan entry = new IndexedLoan(code, loan, index.nextSequence.getAndIncrement(),
+                        index.byKey.get(key));
+                index.byKey.put(key, entry);
+                index.partitions[partition].typeBucket(entry.getType()).add(entry);
+                entries.get(partition).add(entry);
+            }
+            DebtToIncome ratio = debtToIncome(customer);
+            index.partitions[partition].debtToIncomeByCustomer.put(code, ratio);
+            ratios.get(partition).add(ratio);
+        }
+        for (int i = 0; i < PARTITIONS; i++) {
+            Partition partition = index.partitions[i];
+            IndexedLoan[] sorted = entries.get(i).toArray(new IndexedLoan[0]);
+            addSorted(partition.byRate, sorted, BY_RATE);
+            addSorted(partition.byAmount, sorted, BY_AMOUNT);
+            addSorted(partition.byTerm, sorted, BY_TERM);
+            addSorted(partition.byDebtToIncome, ratios.get(i).toArray(new DebtToIncome[0]), BY_RATIO);
+        }
+        return index;
+    }
+
+    // Ascending insertions only ever walk the tree's right edge, which stays in cache
+    private static <T> void addSorted(NavigableSet<T> target, T[] values, Comparator<T> comparator) {
+        Arrays.sort(values, comparator);
+        for (T value : values) {
+            target.add(value);
+        }
+    }
+
+    // Method to index a loan that was just added to the customer
+    public void add(Customer customer, Loan loan) {
+        int code = customer.getCustomerCode();
+        long key = key(code, loan.getRecordID());
+        IndexedLoan entry = new IndexedLoan(code, loan, nextSequence.getAndIncrement(), byKey.get(key));
+        Partition partition = partitions[partitionOf(code)];
+        partition.lock.writeLock().lock();
+        try {
+            byKey.put(key, entry);
+            partition.typeBucket(entry.getType()).add(entry);
+            partition.byRate.add(entry);
+            partition.byAmount.add(entry);
+            partition.byTerm.add(entry);
+            partition.updateDebtToIncome(customer);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+    }
+
+    // Method to drop every loan of the customer with this record ID, after they were removed from the customer
+    public void remove(Customer customer, int recordID) {
+        Partition partition = partitions[partitionOf(customer.getCustomerCode())];
+        partition.lock.writeLock().lock();
+        try {
+            for (IndexedLoan entry = byKey.remove(key(customer.getCustomerCode(), recordID)); entry != null;
+                 entry = entry.getNextWithSameKey()) {
+                partition.byType.get(entry.getType()).remove(entry);
+                partition.byRate.remove(entry);
+                partition.byAmount.remove(entry);
+                partition.byTerm.remove(entry);
+            }
+            partition.updateDebtToIncome(customer);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+    }
+
+    // Method to refresh a customer's debt-to-income entry after a change of income or loans
+    public void customerChanged(Customer customer) {
+        Partition partition = partitions[partitionOf(customer.getCustomerCode())];
+        partition.lock.writeLock().lock();
+        try {
+            partition.updateDebtToIncome(customer);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+    }
+
+    // Method to find the loans of a customer with a record ID, null if there are none
+    // The result is the head of a chain, the others follow through getNextWithSameKey
+    public IndexedLoan lookup(int customerCode, int recordID) {
+        return byKey.get(key(customerCode, recordID));
+    }
+
+    public int size() {
+        lockAll();
+        try {
+            int size = 0;
+            for (Partition partition : partitions) {
+                size += partition.byRate.size();
+            }
+            return size;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // Method to run a query against the most selective index
+    public List<IndexedLoan> query(LoanQuery query) {
+        lockAll();
+        try {
+            List<IndexedLoan> result = new ArrayList<>();
+            for (IndexedLoan entry : plan(query, null)) {
+                if (entry.matches(query)) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // Method to name the index the query would be answered from, and how many candidates it holds
+    public String explain(LoanQuery query) {
+        lockAll();
+        try {
+            String[] chosen = new String[1];
+            int candidates = plan(query, chosen).size();
+            return chosen[0] + " (" + candidates + " candidates)";
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // Method to list the customers whose total exposure is more than ratio x their income, highest last
+    public List<Integer> customersAboveDebtToIncome(double ratio) {
+        List<DebtToIncome> above = new ArrayList<>();
+        lockAll();
+        try {
+            DebtToIncome bound = new DebtToIncome(Integer.MAX_VALUE, ratio);
+            for (Partition partition : partitions) {
+                above.addAll(partition.byDebtToIncome.tailSet(bound, false));
+            }
+        } finally {
+            unlockAll();
+        }
+        above.sort(BY_RATIO);
+        List<Integer> codes = new ArrayList<>(above.size());
+        for (DebtToIncome entry : above) {
+            codes.add(entry.getCustomerCode());
+        }
+        return codes;
+    }
+
+    // Read locks of every partition, always taken in the same order
+    private void lockAll() {
+        for (Partition partition : partitions) {
+            partition.lock.readLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = PARTITIONS - 1; i >= 0; i--) {
+            partitions[i].lock.readLock().unlock();
+        }
+    }
+
+    // Chooses the smallest candidate set for the query; the caller holds every partition's read lock
+    private Collection<IndexedLoan> plan(LoanQuery query, String[] chosen) {
+        List<String> names = new ArrayList<>();
+        List<Collection<IndexedLoan>> sources = new ArrayList<>();
+        if (query.getType() >= 0) {
+            names.add("loanType");
+            sources.add(acrossPartitions(partition -> query.getType() < partition.byType.size()
+                    ? partition.byType.get(query.getType()) : Collections.emptySet()));
+        }
+        if (query.hasRateRange()) {
+            names.add("interestRate");
+            sources.add(acrossPartitions(partition -> range(partition.byRate, query.getMinRate(), query.getMaxRate(),
+                    IndexedLoan::rateProbe)));
+        }
+        if (query.hasAmountRange()) {
+            names.add("amountLeftToPay");
+            sources.add(acrossPartitions(partition -> range(partition.byAmount, query.getMinAmount(),
+                    query.getMaxAmount(), IndexedLoan::amountProbe)));
+        }
+        if (query.hasTermRange()) {
+            names.add("loanTermLeft");
+            sources.add(acrossPartitions(partition -> range(partition.byTerm, query.getMinTerm(), query.getMaxTerm(),
+                    IndexedLoan::termProbe)));
+        }
+        if (sources.isEmpty()) {
+            setChosen(chosen, "full scan");
+            return acrossPartitions(partition -> partition.byRate);
+        }
+        if (sources.size() == 1) {
+            setChosen(chosen, names.get(0));
+            return sources.get(0);
+        }
+
+        // Step every index once per round; the first to run out holds the fewest candidates
+        List<Iterator<IndexedLoan>> iterators = new ArrayList<>();
+        for (Collection<IndexedLoan> source : sources) {
+            iterators.add(source.iterator());
+        }
+        while (true) {
+            for (int i = 0; i < iterators.size(); i++) {
+                Iterator<IndexedLoan> iterator = iterators.get(i);
+                if (!iterator.hasNext()) {
+                    setChosen(chosen, names.get(i));
+                    return sources.get(i);
+                }
+                iterator.next();
+            }
+        }
+    }
+
+    // One index of the whole book: the same index of every partition, one after the other
+    private Collection<IndexedLoan> acrossPartitions(PartIndex part) {
+        List<Collection<IndexedLoan>> parts = new ArrayList<>(PARTITIONS);
+        for (Partition partition : partitions) {
+            parts.add(part.of(partition));
+        }
+        return new Concatenation(parts);
+    }
+
+    private static Collection<IndexedLoan> range(NavigableSet<IndexedLoan> index, double min, double max, Probe probe) {
+        if (!(min <= max)) {
+            return Collections.emptySet();
+        }
+        return index.subSet(probe.at(min, Long.MIN_VALUE), true, probe.at(max, Long.MAX_VALUE), true);
+    }
+
+    private static void setChosen(String[] chosen, String name) {
+        if (chosen != null) {
+            chosen[0] = name;
+        }
+    }
+
+    private static DebtToIncome debtToIncome(Customer customer) {
+        return new DebtToIncome(customer.getCustomerCode(), debtToIncomeRatio(customer));
+    }
+
+    // A customer's total exposure / income, infinite for exposure without income
+    static double debtToIncomeRatio(Customer customer) {
+        double exposure = customer.getTotalExposure();
+        int income = customer.getCustomerIncome();
+        return income > 0 ? exposure / income : exposure > 0 ? Double.POSITIVE_INFINITY : 0;
+    }
+
+    private static long key(int customerCode, int recordID) {
+        return ((long) customerCode << 32) | (recordID & 0xFFFFFFFFL);
+    }
+
+    private static int partitionOf(int customerCode) {
+        int h = customerCode * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (PARTITIONS - 1);
+    }
+
+    // Builds a search bound for one of the sorted indexes
+    private interface Probe {
+        IndexedLoan at(double value, long sequence);
+    }
+
+    // Picks one index out of a partition
+    private interface PartIndex {
+        Collection<IndexedLoan> of(Partition partition);
+    }
+
+    // The indexes of the customers whose codes hash to one partition, guarded by its lock
+    private static class Partition {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<Set<IndexedLoan>> byType = new ArrayList<>();
+        private final NavigableSet<IndexedLoan> byRate = new TreeSet<>(BY_RATE);
+        private final NavigableSet<IndexedLoan> byAmount = new TreeSet<>(BY_AMOUNT);
+        private final NavigableSet<IndexedLoan> byTerm = new TreeSet<>(BY_TERM);
+        private final NavigableSet<DebtToIncome> byDebtToIncome = new TreeSet<>(BY_RATIO);
+        private final Map<Integer, DebtToIncome> debtToIncomeByCustomer = new HashMap<>();
+
+        // The bucket of a loan type, adding buckets up to it on first use; the caller holds the write lock
+        Set<IndexedLoan> typeBucket(int type) {
+            while (byType.size() <= type) {
+                byType.add(new LinkedHashSet<>());
+            }
+            return byType.get(type);
+        }
+
+        // The caller holds the write lock
+        void updateDebtToIncome(Customer customer) {
+            DebtToIncome previous = debtToIncomeByCustomer.get(customer.getCustomerCode());
+            if (previous != null) {
+                byDebtToIncome.remove(previous);
+            }
+            DebtToIncome entry = debtToIncome(customer);
+            debtToIncomeByCustomer.put(customer.getCustomerCode(), entry);
+            byDebtToIncome.add(entry);
+        }
+    }
+
+    // Read-only collection of several collections in turn
+    private static class Concatenation extends AbstractCollection<IndexedLoan> {
+        private final List<Collection<IndexedLoan>> parts;
+
+        Concatenation(List<Collection<IndexedLoan>> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public Iterator<IndexedLoan> iterator() {
+            return new Iterator<IndexedLoan>() {
+                private int part;
+                private Iterator<IndexedLoan> current = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext()) {
+                        if (part == parts.size()) {
+                            return false;
+                        }
+                        current = parts.get(part++).iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public IndexedLoan next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Collection<IndexedLoan> part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+    }
+
+    // Customer code with the ratio it was indexed under
+    private static class DebtToIncome {
+        private final int customerCode;
+        private final double ratio;
+
+        DebtToIncome(int customerCode, double ratio) {
+            this.customerCode = customerCode;
+            this.ratio = ratio;
+        }
+
+        int getCustomerCode() {
+            return customerCode;
+        }
+
+        double getRatio() {
+            return ratio;
+        }
+    }
+}
+
+// One loan in the indexes: its customer and record ID, and the indexed values copied out of it
+// No Loan is referenced, so the index does not pin loans that a DiskRegistry has paged out
+class IndexedLoan {
+    private final int customerCode;
+    private final int recordID;
+    private final long sequence; // tie-breaker inside the sorted indexes
+    private final IndexedLoan nextWithSameKey;
+    private final int type;
+    private final double interestRate;
+    private final double amountLeftToPay;
+    private final double loanTermLeft;
+
+    IndexedLoan(int customerCode, Loan loan, long sequence, IndexedLoan nextWithSameKey) {
+        this.customerCode = customerCode;
+        this.recordID = loan.getRecordID();
+        this.sequence = sequence;
+        this.nextWithSameKey = nextWithSameKey;
+        this.type = loan.getType().getOrdinal();
+        this.interestRate = loan.getInterestRate();
+        this.amountLeftToPay = loan.getAmountLeftToPay();
+        this.loanTermLeft = loan.getLoanTermLeft();
+    }
+
+    private IndexedLoan(long sequence, double interestRate, double amountLeftToPay, double loanTermLeft) {
+        this.customerCode = CustomerIds.NONE;
+        this.recordID = 0;
+        this.sequence = sequence;
+        this.nextWithSameKey = null;
+        this.type = -1;
+        this.interestRate = interestRate;
+        this.amountLeftToPay = amountLeftToPay;
+        this.loanTermLeft = loanTermLeft;
+    }
+
+    static IndexedLoan rateProbe(double value, long sequence) {
+        return new IndexedLoan(sequence, value, 0, 0);
+    }
+
+    static IndexedLoan amountProbe(double value, long sequence) {
+        return new IndexedLoan(sequence, 0, value, 0);
+    }
+
+    static IndexedLoan termProbe(double value, long sequence) {
+        return new IndexedLoan(sequence, 0, 0, value);
+    }
+
+    public int getCustomerCode() {
+        return customerCode;
+    }
+
+    public String getCustomerID() {
+        return CustomerIds.decode(customerCode);
+    }
+
+    public int getRecordID() {
+        return recordID;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Another loan of the same customer with the same record ID, or null
+    public IndexedLoan getNextWithSameKey() {
+        return nextWithSameKey;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public double getInterestRate() {
+        return interestRate;
+    }
+
+    public double getAmountLeftToPay() {
+        return amountLeftToPay;
+    }
+
+    public double getLoanTermLeft() {
+        return loanTermLeft;
+    }
+
+    // Same test as LoanQuery.matches, on the copied values
+    public boolean matches(LoanQuery query) {
+        return (query.getType() < 0 || type == query.getType())
+                && interestRate >= query.getMinRate() && interestRate <= query.getMaxRate()
+                && amountLeftToPay >= query.getMinAmount() && amountLeftToPay <= query.getMaxAmount()
+                && loanTermLeft >= query.getMinTerm() && loanTermLeft <= query.getMaxTerm();
+    }
+}
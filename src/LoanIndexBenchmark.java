@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Benchmark of indexed loan queries against full scans of every customer's credit records
+// Each query is checked to return the same number of loans both ways
+// Run with: java LoanIndexBenchmark [customers] [loansPerCustomer]
+class LoanIndexBenchmark {
+    private static final LoanType[] LOAN_TYPES = {
+            LoanTypes.AUTO, LoanTypes.BUILDER, LoanTypes.MORTGAGE, LoanTypes.PERSONAL, LoanTypes.OTHER};
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int loansPerCustomer = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        CustomerRegistry registry = generate(customers, loansPerCustomer);
+        long start = System.nanoTime();
+        BankService service = new BankService(registry, null, BankMetrics.disabled(), true);
+        System.out.printf("Indexed %d loans of %d customers in %d ms%n", service.getLoanIndex().size(), customers,
+                (System.nanoTime() - start) / 1_000_000);
+
+        System.out.println("Query                                   | Matches | Index                              | Scan (ms) | Index (ms)");
+        run(service, registry, "Mortgage, rate >= 6%, term >= 10 years",
+                new LoanQuery().loanType("Mortgage").interestRate(6, Double.MAX_VALUE).loanTermLeft(10, Double.MAX_VALUE));
+        run(service, registry, "amount 100000-101000",
+                new LoanQuery().amountLeftToPay(100_000, 101_000));
+        run(service, registry, "rate 9.9-10%, term <= 2 years",
+                new LoanQuery().interestRate(9.9, 10).loanTermLeft(0, 2));
+        run(service, registry, "Builder",
+                new LoanQuery().loanType("Builder"));
+        run(service, registry, "rate >= 2% (unselective)",
+                new LoanQuery().interestRate(2, Double.MAX_VALUE));
+
+        // Customers with exposure over 3 x income
+        long scanNanos = Long.MAX_VALUE;
+        long indexNanos = Long.MAX_VALUE;
+        int scanned = 0;
+        int indexed = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            scanned = 0;
+            for (Customer customer : registry) {
+                if (customer.recomputeExposure() > 3.0 * customer.getCustomerIncome()) {
+                    scanned++;
+                }
+            }
+            scanNanos = Math.min(scanNanos, System.nanoTime() - begin);
+            begin = System.nanoTime();
+            indexed = service.customersAboveDebtToIncome(3.0).size();
+            indexNanos = Math.min(indexNanos, System.nanoTime() - begin);
+        }
+        check(scanned, indexed);
+        System.out.printf("%-39s | %7d | %-34s | %9.2f | %10.2f%n", "customers with exposure > 3 x income", indexed,
+                "debtToIncome", scanNanos / 1e6, indexNanos / 1e6);
+    }
+
+    private static void run(BankService service, CustomerRegistry registry, String name, LoanQuery query) {
+        long scanNanos = Long.MAX_VALUE;
+        long indexNanos = Long.MAX_VALUE;
+        int scanned = 0;
+        int indexed = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            List<Loan> matches = new ArrayList<>();
+            for (Customer customer : registry) {
+                for (Loan loan : customer.getCreditRecords()) {
+                    if (query.matches(loan)) {
+                        matches.add(loan);
+                    }
+                }
+            }
+            scanned = matches.size();
+            scanNanos = Math.min(scanNanos, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            indexed = service.queryLoans(query).size();
+            indexNanos = Math.min(indexNanos, System.nanoTime() - begin);
+        }
+        check(scanned, indexed);
+        System.out.printf("%-39s | %7d | %-34s | %9.2f | %10.2f%n", name, indexed, service.explainQuery(query),
+                scanNanos / 1e6, indexNanos / 1e6);
+    }
+
+    private static void check(int scanned, int indexed) {
+        if (scanned != indexed) {
+            throw new IllegalStateException("Scan found " + scanned + " matches, index found " + indexed);
+        }
+    }
+
+    // Random book with rates 2-10%, terms 1-30 years and amounts up to 500000
+    private static CustomerRegistry generate(int customers, int loansPerCustomer) {
+        SplittableRandom random = new SplittableRandom(42);
+        CustomerRegistry registry = new CustomerRegistry(customers);
+        for (int code = 0; code < customers; code++) {
+            Customer customer = new Customer();
+            customer.setCustomerCode(code);
+            customer.setCustomerIncome(20_000 + random.nextInt(180_000));
+            for (int i = 0; i < loansPerCustomer; i++) {
+                LoanType type = LOAN_TYPES[random.nextInt(LOAN_TYPES.length)];
+                double rate = Math.round((2 + random.nextDouble() * 8) * 100) / 100.0;
+                double term = 1 + random.nextInt(30);
+                double amount = Math.round(random.nextDouble() * 500_000);
+                customer.addCreditRecord(type.create(i + 1, rate, term, 5, amount));
+            }
+            registry.add(customer);
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,94 @@
+// Filter over loans: an optional loan type and inclusive ranges on interest rate, amount left to pay and term left
+// Built fluently and answered by LoanIndex, which picks the most selective index on its own, for example
+//   new LoanQuery().loanType("Mortgage").interestRate(6, Double.MAX_VALUE).loanTermLeft(10, Double.MAX_VALUE)
+class LoanQuery {
+    private int type = -1;
+    private double minRate = Double.NEGATIVE_INFINITY;
+    private double maxRate = Double.POSITIVE_INFINITY;
+    private double minAmount = Double.NEGATIVE_INFINITY;
+    private double maxAmount = Double.POSITIVE_INFINITY;
+    private double minTerm = Double.NEGATIVE_INFINITY;
+    private double maxTerm = Double.POSITIVE_INFINITY;
+
+    // Method to keep only one loan type, matched case-insensitively
+    public LoanQuery loanType(String loanType) {
+        LoanType parsed = LoanTypes.parse(loanType);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unknown loan type: " + loanType);
+        }
+        this.type = parsed.getOrdinal();
+        return this;
+    }
+
+    public LoanQuery interestRate(double min, double max) {
+        this.minRate = min;
+        this.maxRate = max;
+        return this;
+    }
+
+    public LoanQuery amountLeftToPay(double min, double max) {
+        this.minAmount = min;
+        this.maxAmount = max;
+        return this;
+    }
+
+    public LoanQuery loanTermLeft(double min, double max) {
+        this.minTerm = min;
+        this.maxTerm = max;
+        return this;
+    }
+
+    // Type ordinal, -1 when any type matches
+    public int getType() {
+        return type;
+    }
+
+    public double getMinRate() {
+        return minRate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    public double getMinAmount() {
+        return minAmount;
+    }
+
+    public double getMaxAmount() {
+        return maxAmount;
+    }
+
+    public double getMinTerm() {
+        return minTerm;
+    }
+
+    public double getMaxTerm() {
+        return maxTerm;
+    }
+
+    public boolean hasRateRange() {
+        return minRate != Double.NEGATIVE_INFINITY || maxRate != Double.POSITIVE_INFINITY;
+    }
+
+    public boolean hasAmountRange() {
+        return minAmount != Double.NEGATIVE_INFINITY || maxAmount != Double.POSITIVE_INFINITY;
+    }
+
+    public boolean hasTermRange() {
+        return minTerm != Double.NEGATIVE_INFINITY || maxTerm != Double.POSITIVE_INFINITY;
+    }
+
+    // Method to test a loan against every condition
+    public boolean matches(Loan loan) {
+        if (type >= 0 && loan.getType().getOrdinal() != type) {
+            return false;
+        }
+        double rate = loan.getInterestRate();
+        double amount = loan.getAmountLeftToPay();
+        double term = loan.getLoanTermLeft();
+        return rate >= minRate && rate <= maxRate
+                && amount >= minAmount && amount <= maxAmount
+                && term >= minTerm && term <= maxTerm;
+    }
+}
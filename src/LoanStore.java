@@ -0,0 +1,427 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Columnar (struct-of-arrays) storage for credit records
+// Each loan is a row across parallel primitive arrays; each customer owns a contiguous range of rows
+class LoanStore {
+    // Loan columns
+    private int[] recordIDs;
+    private byte[] types; // LoanTypes ordinals
+    private double[] interestRates;
+    private double[] loanTermsLeft;
+    private double[] amountsLeftToPay;
+    private double[] overpayments;
+    private int rows; // rows in use, including holes left by relocated ranges
+    private int loans; // live loans
+    private int epoch; // incremented whenever live rows move, so views kept across changes can find them again
+
+    // Per-customer ranges: rows [rangeStart, rangeStart + rangeCount) are live, rangeCapacity are reserved
+    private final IntIntMap customerSlots = new IntIntMap();
+    private int[] customerCodes = new int[16];
+    private int[] rangeStart = new int[16];
+    private int[] rangeCount = new int[16];
+    private int[] rangeCapacity = new int[16];
+    private int customers;
+
+    public LoanStore() {
+        this(64);
+    }
+
+    public LoanStore(int expectedLoans) {
+        int capacity = Math.max(16, expectedLoans);
+        recordIDs = new int[capacity];
+        types = new byte[capacity];
+        interestRates = new double[capacity];
+        loanTermsLeft = new double[capacity];
+        amountsLeftToPay = new double[capacity];
+        overpayments = new double[capacity];
+    }
+
+    // Builds a store holding the credit records of every registered customer, one tight range each
+    public static LoanStore fromRegistry(CustomerRegistry registry) {
+        int total = 0;
+        for (Customer customer : registry) {
+            total += customer.getCreditRecords().size();
+        }
+        LoanStore store = new LoanStore(total);
+        for (Customer customer : registry) {
+            int slot = store.slotFor(customer.getCustomerCode(), customer.getCreditRecords().size());
+            for (Loan loan : customer.getCreditRecords()) {
+                store.appendRow(slot, loan.getRecordID(), loan.getType().getOrdinal(), loan.getInterestRate(),
+                        loan.getLoanTermLeft(), loan.getAmountLeftToPay(), loan.getOverpayment());
+            }
+        }
+        return store;
+    }
+
+    // Same, from a point-in-time view of the book
+    public static LoanStore fromView(BookView view) {
+        long[] total = new long[1];
+        view.forEach(customer -> total[0] += customer.getCreditRecords().size());
+        LoanStore store = new LoanStore((int) total[0]);
+        view.forEach(customer -> {
+            int slot = store.slotFor(customer.getCustomerCode(), customer.getCreditRecords().size());
+            for (Loan loan : customer.getCreditRecords()) {
+                store.appendRow(slot, loan.getRecordID(), loan.getType().getOrdinal(), loan.getInterestRate(),
+                        loan.getLoanTermLeft(), loan.getAmountLeftToPay(), loan.getOverpayment());
+            }
+        });
+        return store;
+    }
+
+    // Method to append a loan to a customer's range
+    public void append(int customerCode, Loan loan) {
+        append(customerCode, loan.getRecordID(), loan.getType().getOrdinal(), loan.getInterestRate(),
+                loan.getLoanTermLeft(), loan.getAmountLeftToPay(), loan.getOverpayment());
+    }
+
+    public void append(int customerCode, int recordID, int type, double interestRate, double loanTermLeft,
+                       double amountLeftToPay, double overpayment) {
+        LoanTypes.byOrdinal(type); // rejects unknown ordinals
+        appendRow(slotFor(customerCode, 4), recordID, type, interestRate, loanTermLeft, amountLeftToPay, overpayment);
+    }
+
+    // Method to remove a customer's loan by record ID, returns false if it was not found
+    public boolean remove(int customerCode, int recordID) {
+        int row = find(customerCode, recordID);
+        if (row < 0) {
+            return false;
+        }
+        int slot = customerSlots.get(customerCode);
+        int last = rangeStart[slot] + rangeCount[slot] - 1;
+        copyRow(last, row); // keep the live rows of the range contiguous
+        rangeCount[slot]--;
+        loans--;
+        epoch++;
+        return true;
+    }
+
+    // Method to find the row of a customer's loan by record ID, returns -1 if not found
+    public int find(int customerCode, int recordID) {
+        int slot = customerSlots.get(customerCode);
+        if (slot == IntIntMap.MISSING) {
+            return -1;
+        }
+        int end = rangeStart[slot] + rangeCount[slot];
+        for (int row = rangeStart[slot]; row < end; row++) {
+            if (recordIDs[row] == recordID) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // First row of a customer's range, the range is empty for unknown customers
+    public int firstRow(int customerCode) {
+        int slot = customerSlots.get(customerCode);
+        return slot == IntIntMap.MISSING ? 0 : rangeStart[slot];
+    }
+
+    // Number of live rows in a customer's range
+    public int rowCount(int customerCode) {
+        int slot = customerSlots.get(customerCode);
+        return slot == IntIntMap.MISSING ? 0 : rangeCount[slot];
+    }
+
+    // Method to sum the amount left to pay over a customer's loans
+    public double totalAmountLeftToPay(int customerCode) {
+        int start = firstRow(customerCode);
+        int end = start + rowCount(customerCode);
+        double total = 0;
+        for (int row = start; row < end; row++) {
+            total += amountsLeftToPay[row];
+        }
+        return total;
+    }
+
+    // Visits each loan of a customer through one reused flyweight, which must not escape the callback
+    public void forEachLoan(int customerCode, Consumer<? super Loan> action) {
+        int start = firstRow(customerCode);
+        int end = start + rowCount(customerCode);
+        LoanRowView view = new LoanRowView(this);
+        for (int row = start; row < end; row++) {
+            action.accept(view.moveTo(row));
+        }
+    }
+
+    // Returns a new flyweight positioned on a row
+    public LoanRowView view(int row) {
+        return new LoanRowView(this).moveTo(row);
+    }
+
+    // Method to repack every customer range tightly, in customer order, dropping the holes
+    public void compact() {
+        int[] newRecordIDs = new int[Math.max(16, loans)];
+        byte[] newTypes = new byte[newRecordIDs.length];
+        double[] newInterestRates = new double[newRecordIDs.length];
+        double[] newLoanTermsLeft = new double[newRecordIDs.length];
+        double[] newAmountsLeftToPay = new double[newRecordIDs.length];
+        double[] newOverpayments = new double[newRecordIDs.length];
+        int next = 0;
+        for (int slot = 0; slot < customers; slot++) {
+            int start = rangeStart[slot];
+            int count = rangeCount[slot];
+            System.arraycopy(recordIDs, start, newRecordIDs, next, count);
+            System.arraycopy(types, start, newTypes, next, count);
+            System.arraycopy(interestRates, start, newInterestRates, next, count);
+            System.arraycopy(loanTermsLeft, start, newLoanTermsLeft, next, count);
+            System.arraycopy(amountsLeftToPay, start, newAmountsLeftToPay, next, count);
+            System.arraycopy(overpayments, start, newOverpayments, next, count);
+            rangeStart[slot] = next;
+            rangeCapacity[slot] = count;
+            next += count;
+        }
+        recordIDs = newRecordIDs;
+        types = newTypes;
+        interestRates = newInterestRates;
+        loanTermsLeft = newLoanTermsLeft;
+        amountsLeftToPay = newAmountsLeftToPay;
+        overpayments = newOverpayments;
+        rows = next;
+        epoch++;
+    }
+
+    // Number of live loans
+    public int size() {
+        return loans;
+    }
+
+    // Changes whenever remove, a growing range or compact moves live rows; retire does not count
+    public int getEpoch() {
+        return epoch;
+    }
+
+    // Number of customers with a range in the store
+    public int customerCount() {
+        return customers;
+    }
+
+    // Customer code owning the range at a position, in order of first appearance
+    public int customerCodeAt(int index) {
+        return customerCodes[index];
+    }
+
+    // First row and live row count of the range at a position, the positions of customerCodeAt
+    public int firstRowAt(int index) {
+        return rangeStart[index];
+    }
+
+    public int rowCountAt(int index) {
+        return rangeCount[index];
+    }
+
+    // Method to drop a row from the range at a position, moving the range's last row into its place
+    // Ranges are independent, so different ranges can be changed from different threads; size() is not
+    // updated here and must be brought up to date with recount once those threads are done
+    void retire(int index, int row) {
+        int last = rangeStart[index] + rangeCount[index] - 1;
+        copyRow(last, row);
+        rangeCount[index]--;
+    }
+
+    // Method to recount the live loans after retire
+    void recount() {
+        int total = 0;
+        for (int slot = 0; slot < customers; slot++) {
+            total += rangeCount[slot];
+        }
+        loans = total;
+    }
+
+    // Whether rows [0, size()) are exactly the live loans, as after fromRegistry or compact
+    public boolean isCompact() {
+        return rows == loans;
+    }
+
+    // Raw columns for batch loops over a compact store; replaced by the next append that grows the store or compact
+    double[] interestRateColumn() {
+        return interestRates;
+    }
+
+    double[] loanTermLeftColumn() {
+        return loanTermsLeft;
+    }
+
+    double[] amountLeftToPayColumn() {
+        return amountsLeftToPay;
+    }
+
+    double[] overpaymentColumn() {
+        return overpayments;
+    }
+
+    // Column accessors for a row
+    public int recordID(int row) {
+        return recordIDs[row];
+    }
+
+    public int type(int row) {
+        return types[row];
+    }
+
+    public double interestRate(int row) {
+        return interestRates[row];
+    }
+
+    public double loanTermLeft(int row) {
+        return loanTermsLeft[row];
+    }
+
+    public double amountLeftToPay(int row) {
+        return amountsLeftToPay[row];
+    }
+
+    public double overpayment(int row) {
+        return overpayments[row];
+    }
+
+    // Returns the slot of a customer, creating an empty range with the given capacity if needed
+    private int slotFor(int customerCode, int initialCapacity) {
+        int slot = customerSlots.get(customerCode);
+        if (slot != IntIntMap.MISSING) {
+            return slot;
+        }
+        if (customers == customerCodes.length) {
+            int capacity = customers * 2;
+            customerCodes = Arrays.copyOf(customerCodes, capacity);
+            rangeStart = Arrays.copyOf(rangeStart, capacity);
+            rangeCount = Arrays.copyOf(rangeCount, capacity);
+            rangeCapacity = Arrays.copyOf(rangeCapacity, capacity);
+        }
+        slot = customers++;
+        customerSlots.putIfAbsent(customerCode, slot);
+        customerCodes[slot] = customerCode;
+        rangeStart[slot] = reserve(initialCapacity);
+        rangeCapacity[slot] = initialCapacity;
+        return slot;
+    }
+
+    private void appendRow(int slot, int recordID, int type, double interestRate, double loanTermLeft,
+                           double amountLeftToPay, double overpayment) {
+        if (rangeCount[slot] == rangeCapacity[slot]) {
+            relocate(slot, Math.max(4, rangeCapacity[slot] * 2));
+        }
+        int row = rangeStart[slot] + rangeCount[slot]++;
+        recordIDs[row] = recordID;
+        types[row] = (byte) type;
+        interestRates[row] = interestRate;
+        loanTermsLeft[row] = loanTermLeft;
+        amountsLeftToPay[row] = amountLeftToPay;
+        overpayments[row] = overpayment;
+        loans++;
+    }
+
+    // Moves a full range to the end of the columns, compacting first when holes dominate
+    private void relocate(int slot, int capacity) {
+        if (rows - loans > loans) {
+            compact();
+        }
+        int start = rangeStart[slot];
+        int count = rangeCount[slot];
+        if (start + rangeCapacity[slot] == rows) {
+            // The range is already last, just grow it in place
+            reserve(capacity - rangeCapacity[slot]);
+        } else {
+            int newStart = reserve(capacity);
+            for (int i = 0; i < count; i++) {
+                copyRow(start + i, newStart + i);
+            }
+            rangeStart[slot] = newStart;
+            epoch++;
+        }
+        rangeCapacity[slot] = capacity;
+    }
+
+    // Reserves rows at the end of the columns and returns the first one
+    private int reserve(int count) {
+        int start = rows;
+        if (rows + count > recordIDs.length) {
+            int capacity = Math.max(rows + count, recordIDs.length * 2);
+            recordIDs = Arrays.copyOf(recordIDs, capacity);
+            types = Arrays.copyOf(types, capacity);
+            interestRates = Arrays.copyOf(interestRates, capacity);
+            loanTermsLeft = Arrays.copyOf(loanTermsLeft, capacity);
+            amountsLeftToPay = Arrays.copyOf(amountsLeftToPay, capacity);
+            overpayments = Arrays.copyOf(overpayments, capacity);
+        }
+        rows += count;
+        return start;
+    }
+
+    private void copyRow(int from, int to) {
+        recordIDs[to] = recordIDs[from];
+        types[to] = types[from];
+        interestRates[to] = interestRates[from];
+        loanTermsLeft[to] = loanTermsLeft[from];
+        amountsLeftToPay[to] = amountsLeftToPay[from];
+        overpayments[to] = overpayments[from];
+    }
+}
+
+// Lightweight Loan view over one row of a LoanStore
+// The view reads the columns on every call, so it can be moved from row to row without allocating
+class LoanRowView extends Loan {
+    private final LoanStore store;
+    private int row;
+
+    public LoanRowView(LoanStore store) {
+        super(0, null, 0, 0);
+        this.store = store;
+    }
+
+    // Method to point the view at another row
+    public LoanRowView moveTo(int row) {
+        this.row = row;
+        return this;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public int getRecordID() {
+        return store.recordID(row);
+    }
+
+    @Override
+    public LoanType getType() {
+        return LoanTypes.byOrdinal(store.type(row));
+    }
+
+    @Override
+    public double getInterestRate() {
+        return store.interestRate(row);
+    }
+
+    @Override
+    public double getLoanTermLeft() {
+        return store.loanTermLeft(row);
+    }
+
+    @Override
+    public double getAmountLeftToPay() {
+        return store.amountLeftToPay(row);
+    }
+
+    @Override
+    public double getOverpayment() {
+        return store.overpayment(row);
+    }
+
+    // Method to print loan details, with the overpayment option for the types that have one
+    @Override
+    public void printLoanDetails() {
+        super.printLoanDetails();
+        if (getType().hasOverpayment()) {
+            System.out.println("Overpayment Option: " + getOverpayment() + "%");
+        }
+    }
+
+    // Method to copy the row out into a standalone loan of the matching subclass
+    @Override
+    public Loan toLoan() {
+        return getType().create(getRecordID(), getInterestRate(), getLoanTermLeft(), getOverpayment(),
+                getAmountLeftToPay());
+    }
+}
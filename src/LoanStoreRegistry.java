@@ -0,0 +1,214 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Customer registry whose credit records live in one columnar LoanStore, enabled with -Dxyzbank.loanStore=true
+// Customers stay heap objects for their ID, income and status, but their loans are rows of the store rather than
+// Loan objects, and are read through LoanRowViews; everything written against CustomerRegistry and Customer works
+// unchanged. The store is shared by every customer and not thread-safe, so each access synchronizes on it.
+class LoanStoreRegistry extends CustomerRegistry {
+    private final LoanStore store;
+
+    public LoanStoreRegistry() {
+        this(16, 64);
+    }
+
+    public LoanStoreRegistry(int expectedSize, int expectedLoans) {
+        super(expectedSize);
+        this.store = new LoanStore(expectedLoans);
+    }
+
+    // Returns a registry holding a copy of every customer of another registry and their loans, in the same order
+    public static LoanStoreRegistry copyOf(CustomerRegistry registry) {
+        int loans = 0;
+        for (Customer customer : registry) {
+            loans += customer.getCreditRecords().size();
+        }
+        LoanStoreRegistry copy = new LoanStoreRegistry(registry.size(), loans);
+        for (Customer customer : registry) {
+            copy.add(customer);
+        }
+        return copy;
+    }
+
+    public LoanStore getStore() {
+        return store;
+    }
+
+    // Method to copy a customer and their loans into the registry, returns false if the customer ID is already taken
+    // The Customer object is not kept; later changes go through find() or get()
+    @Override
+    public boolean add(Customer customer) {
+        if (customer.getCustomerCode() == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Customer has no ID");
+        }
+        StoreCustomer stored = new StoreCustomer(store, customer.getCustomerCode(), customer.getCustomerIncome(),
+                customer.isEligibilityStatus());
+        if (!super.add(stored)) {
+            return false;
+        }
+        for (Loan loan : customer.getCreditRecords()) {
+            stored.addCreditRecord(loan);
+        }
+        return true;
+    }
+
+    @Override
+    public String formatStats() {
+        synchronized (store) {
+            return String.format("Loan store: %d loans of %d customers%n", store.size(), store.customerCount());
+        }
+    }
+}
+
+// Customer whose credit records are rows of a LoanStore
+// Rows move when a range grows, a loan is removed or the store compacts; the views returned find their row again
+class StoreCustomer extends Customer {
+    private final LoanStore store;
+
+    StoreCustomer(LoanStore store, int customerCode, int customerIncome, boolean eligibilityStatus) {
+        this.store = store;
+        setCustomerCode(customerCode);
+        setCustomerIncome(customerIncome);
+        setEligibilityStatus(eligibilityStatus);
+    }
+
+    @Override
+    public double getTotalExposure() {
+        synchronized (store) {
+            return store.totalAmountLeftToPay(getCustomerCode());
+        }
+    }
+
+    // Read-only list of row views over the customer's range
+    @Override
+    public List<Loan> getCreditRecords() {
+        return new AbstractList<Loan>() {
+            @Override
+            public Loan get(int index) {
+                synchronized (store) {
+                    if (index < 0 || index >= size()) {
+                        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+                    }
+                    return new StoreLoanView(store, getCustomerCode(), store.firstRow(getCustomerCode()) + index);
+                }
+            }
+
+            @Override
+            public int size() {
+                synchronized (store) {
+                    return store.rowCount(getCustomerCode());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setCreditRecords(ArrayList<Loan> creditRecords) {
+        removeCreditRecords(new ArrayList<>(getCreditRecords()));
+        for (Loan loan : creditRecords) {
+            addCreditRecord(loan);
+        }
+    }
+
+    // Method to append a loan to the customer's range; the Loan object itself is not kept
+    @Override
+    public void addCreditRecord(Loan loan) {
+        synchronized (store) {
+            store.append(getCustomerCode(), loan);
+        }
+    }
+
+    // Method to remove one stored loan per given loan, matched by record ID
+    @Override
+    public boolean removeCreditRecords(Collection<Loan> loans) {
+        // The record IDs are read first, since the given loans may be views of rows that the removals move
+        int[] recordIDs = new int[loans.size()];
+        int count = 0;
+        for (Loan loan : loans) {
+            recordIDs[count++] = loan.getRecordID();
+        }
+        boolean removed = false;
+        synchronized (store) {
+            for (int i = 0; i < count; i++) {
+                removed |= store.remove(getCustomerCode(), recordIDs[i]);
+            }
+        }
+        return removed;
+    }
+}
+
+// Row view of a StoreCustomer's loan, valid while the customer holds the loan
+// The row is looked up again by record ID if rows have moved since the view was made
+class StoreLoanView extends LoanRowView {
+    private final LoanStore store;
+    private final int customerCode;
+    private int epoch;
+
+    StoreLoanView(LoanStore store, int customerCode, int row) {
+        super(store);
+        this.store = store;
+        this.customerCode = customerCode;
+        this.recordID = store.recordID(row);
+        this.epoch = store.getEpoch();
+        moveTo(row);
+    }
+
+    // Positions the view on the loan's current row; callers hold the store's lock
+    private void locate() {
+        if (epoch != store.getEpoch()) {
+            int row = store.find(customerCode, recordID);
+            if (row < 0) {
+                throw new IllegalStateException("Loan " + recordID + " is no longer held");
+            }
+            moveTo(row);
+            epoch = store.getEpoch();
+        }
+    }
+
+    @Override
+    public int getRecordID() {
+        return recordID;
+    }
+
+    @Override
+    public LoanType getType() {
+        synchronized (store) {
+            locate();
+            return super.getType();
+        }
+    }
+
+    @Override
+    public double getInterestRate() {
+        synchronized (store) {
+            locate();
+            return super.getInterestRate();
+        }
+    }
+
+    @Override
+    public double getLoanTermLeft() {
+        synchronized (store) {
+            locate();
+            return super.getLoanTermLeft();
+        }
+    }
+
+    @Override
+    public double getAmountLeftToPay() {
+        synchronized (store) {
+            locate();
+            return super.getAmountLeftToPay();
+        }
+    }
+
+    @Override
+    public double getOverpayment() {
+        synchronized (store) {
+            locate();
+            return super.getOverpayment();
+        }
+    }
+}
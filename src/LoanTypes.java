@@ -0,0 +1,333 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Registry of loan products, indexed by ordinal
+//
+// The five standard types are registered first, with ordinals 0-4; further products can be registered at startup
+// with their own factory, or with the generic ProductLoan. Ordinals are stored in LoanStore's byte column, the
+// journal and snapshots, so there can be at most MAX_TYPES and products must be registered in the same order on
+// every start. Lookups read an immutable table that registration replaces, so they take no lock.
+// Names are matched case-insensitively through a small hash table, without allocating.
+final class LoanTypes {
+    public static final int MAX_TYPES = 127;
+
+    private static volatile Table table = new Table(new LoanType[0]);
+
+    public static final LoanType AUTO = register("Auto", false,
+            (recordID, interestRate, loanTermLeft, overpayment, amountLeftToPay) ->
+                    new AutoLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+    public static final LoanType BUILDER = register("Builder", true, BuilderLoan::new);
+    public static final LoanType MORTGAGE = register("Mortgage", true, MortgageLoan::new);
+    public static final LoanType PERSONAL = register("Personal", false,
+            (recordID, interestRate, loanTermLeft, overpayment, amountLeftToPay) ->
+                    new PersonalLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+    public static final LoanType OTHER = register("Other", false,
+            (recordID, interestRate, loanTermLeft, overpayment, amountLeftToPay) ->
+                    new OtherLoan(recordID, interestRate, loanTermLeft, amountLeftToPay));
+
+    private LoanTypes() {
+    }
+
+    // Method to register a product whose loans are ProductLoans
+    public static LoanType register(String name, boolean hasOverpayment) {
+        return register(name, hasOverpayment, null);
+    }
+
+    // Method to register a product with its own factory; names are unique ignoring case
+    // Names must be plain words, since they appear in CSV files and protocol lines
+    public static synchronized LoanType register(String name, boolean hasOverpayment, LoanFactory factory) {
+        if (name == null || name.isEmpty() || !name.chars().allMatch(Character::isLetterOrDigit)) {
+            throw new IllegalArgumentException("Invalid loan type name: " + name);
+        }
+        if (parse(name) != null) {
+            throw new IllegalArgumentException("Loan type already registered: " + name);
+        }
+        LoanType[] types = table.types;
+        if (types.length == MAX_TYPES) {
+            throw new IllegalStateException("At most " + MAX_TYPES + " loan types can be registered");
+        }
+        LoanType type = new LoanType(types.length, name, hasOverpayment, factory);
+        LoanType[] grown = Arrays.copyOf(types, types.length + 1);
+        grown[type.getOrdinal()] = type;
+        table = new Table(grown);
+        return type;
+    }
+
+    // Method to find a type by name, case-insensitive, returns null if unknown
+    public static LoanType parse(CharSequence name) {
+        if (name == null) {
+            return null;
+        }
+        Table t = table;
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(name.charAt(i));
+        }
+        for (int slot = spread(hash) & t.mask; t.slots[slot] != 0; slot = (slot + 1) & t.mask) {
+            LoanType type = t.types[t.slots[slot] - 1];
+            if (type.nameEquals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    // Same as parse(CharSequence) for a name held as ASCII bytes
+    public static LoanType parse(byte[] bytes, int offset, int length) {
+        Table t = table;
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + Character.toLowerCase((char) (bytes[i] & 0xFF));
+        }
+        for (int slot = spread(hash) & t.mask; t.slots[slot] != 0; slot = (slot + 1) & t.mask) {
+            LoanType type = t.types[t.slots[slot] - 1];
+            if (type.nameEquals(bytes, offset, length)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    // Method to find a type by ordinal, for the stored forms of a loan
+    public static LoanType byOrdinal(int ordinal) {
+        LoanType[] types = table.types;
+        if (ordinal < 0 || ordinal >= types.length) {
+            throw new IllegalArgumentException("Unknown loan type ordinal: " + ordinal);
+        }
+        return types[ordinal];
+    }
+
+    public static int count() {
+        return table.types.length;
+    }
+
+    // Every registered type, in ordinal order
+    public static List<LoanType> all() {
+        return Collections.unmodifiableList(Arrays.asList(table.types));
+    }
+
+    // The registered names for prompts and messages, such as "Auto, Builder, Mortgage, Personal, Other"
+    public static String names(String separator) {
+        StringBuilder names = new StringBuilder();
+        for (LoanType type : table.types) {
+            if (names.length() > 0) {
+                names.append(separator);
+            }
+            names.append(type.getName());
+        }
+        return names.toString();
+    }
+
+    static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Types by ordinal plus an open-addressing table of ordinal + 1 by name hash, 0 marking empty slots
+    private static class Table {
+        private final LoanType[] types;
+        private final int[] slots;
+        private final int mask;
+
+        Table(LoanType[] types) {
+            this.types = types;
+            int size = Integer.highestOneBit(Math.max(4, types.length * 4 - 1)) << 1;
+            this.slots = new int[size];
+            this.mask = size - 1;
+            for (LoanType type : types) {
+                int slot = spread(type.getNameHash()) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = type.getOrdinal() + 1;
+            }
+        }
+    }
+}
+
+// One loan product: its name, whether its loans carry an overpayment option, and how to create them
+final class LoanType {
+    private final int ordinal;
+    private final String name;
+    private final int nameHash;
+    private final boolean overpayment;
+    private final LoanFactory factory;
+
+    LoanType(int ordinal, String name, boolean overpayment, LoanFactory factory) {
+        this.ordinal = ordinal;
+        this.name = name;
+        this.overpayment = overpayment;
+        this.factory = factory;
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(name.charAt(i));
+        }
+        this.nameHash = hash;
+    }
+
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    int getNameHash() {
+        return nameHash;
+    }
+
+    public boolean hasOverpayment() {
+        return overpayment;
+    }
+
+    // Method to create a loan of this type; the overpayment is ignored by types without one
+    public Loan create(int recordID, double interestRate, double loanTermLeft, double overpayment,
+                       double amountLeftToPay) {
+        double option = this.overpayment ? overpayment : 0;
+        if (factory == null) {
+            return new ProductLoan(this, recordID, interestRate, loanTermLeft, option, amountLeftToPay);
+        }
+        return factory.create(recordID, interestRate, loanTermLeft, option, amountLeftToPay);
+    }
+
+    boolean nameEquals(CharSequence other) {
+        if (other.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(other.charAt(i)) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean nameEquals(byte[] bytes, int offset, int length) {
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase((char) (bytes[offset + i] & 0xFF)) != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
+
+// Loans held and their amount left to pay, per loan type, in one book
+// A BankService keeps one for its book (see BankService.getLoanTotals); counting is a couple of atomic additions on
+// counters indexed by type ordinal, so types registered at any time are counted. Totals from several books, such
+// as the shards of a ShardedBook, add up.
+final class LoanTotals {
+    private final LongAdder[] loans = new LongAdder[LoanTypes.MAX_TYPES];
+    private final DoubleAdder[] exposure = new DoubleAdder[LoanTypes.MAX_TYPES];
+
+    LoanTotals() {
+        for (int i = 0; i < LoanTypes.MAX_TYPES; i++) {
+            loans[i] = new LongAdder();
+            exposure[i] = new DoubleAdder();
+        }
+    }
+
+    // Method to count a loan joining a customer
+    public void add(Loan loan) {
+        count(loan.getType().getOrdinal(), 1, loan.getAmountLeftToPay());
+    }
+
+    // Method to count a loan leaving a customer
+    public void remove(Loan loan) {
+        count(loan.getType().getOrdinal(), -1, loan.getAmountLeftToPay());
+    }
+
+    // Method to count every loan of a customer
+    public void addLoansOf(Customer customer) {
+        for (Loan loan : customer.getCreditRecords()) {
+            add(loan);
+        }
+    }
+
+    // Method to add other totals to these
+    public void add(LoanTotals other) {
+        merge(other, 1);
+    }
+
+    // Method to take other totals away from these
+    public void subtract(LoanTotals other) {
+        merge(other, -1);
+    }
+
+    // Loans of the type held by customers
+    public long getLoans(LoanType type) {
+        return loans[type.getOrdinal()].sum();
+    }
+
+    // Their total amount left to pay
+    public double getExposure(LoanType type) {
+        return exposure[type.getOrdinal()].sum();
+    }
+
+    // Method to format the loans held and their amount left to pay per registered type as a table
+    public String format() {
+        StringBuilder summary = new StringBuilder(String.format("%-12s | %10s | %18s%n", "LoanType", "Loans", "Exposure"));
+        for (LoanType type : LoanTypes.all()) {
+            summary.append(String.format("%-12s | %10d | %18.2f%n", type.getName(), getLoans(type), getExposure(type)));
+        }
+        return summary.toString();
+    }
+
+    private void count(int ordinal, int sign, double amountLeftToPay) {
+        loans[ordinal].add(sign);
+        exposure[ordinal].add(sign * amountLeftToPay);
+    }
+
+    private void merge(LoanTotals other, int sign) {
+        for (int i = 0; i < LoanTypes.MAX_TYPES; i++) {
+            loans[i].add(sign * other.loans[i].sum());
+            exposure[i].add(sign * other.exposure[i].sum());
+        }
+    }
+}
+
+// Creates the loans of one type
+interface LoanFactory {
+    Loan create(int recordID, double interestRate, double loanTermLeft, double overpayment, double amountLeftToPay);
+}
+
+// Loan of a product registered without its own class
+class ProductLoan extends Loan {
+    private final double overpayment;
+    private final double amountLeftToPay;
+
+    public ProductLoan(LoanType type, int recordID, double interestRate, double loanTermLeft, double overpayment,
+                       double amountLeftToPay) {
+        super(recordID, type, interestRate, loanTermLeft);
+        this.overpayment = overpayment;
+        this.amountLeftToPay = amountLeftToPay;
+    }
+
+    public double getAmountLeftToPay() {
+        return amountLeftToPay;
+    }
+
+    public double getOverpayment() {
+        return overpayment;
+    }
+
+    // Method to print loan details, with the overpayment option for the types that have one
+    public void printLoanDetails() {
+        super.printLoanDetails();
+        if (getType().hasOverpayment()) {
+            System.out.println("Overpayment Option: " + overpayment + "%");
+        }
+    }
+}
@@ -0,0 +1,472 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Append-only write-ahead journal of customer and loan mutations
+//
+// The journal is a series of segment files <base>.<generation>. A snapshot records the last generation it
+// covers, so on startup only newer segments are replayed on top of it.
+// Record layout: payload length, operation byte and payload, CRC32C of operation and payload.
+//
+// With group commit, appends only fill a buffer and a flusher thread writes and fsyncs them in batches.
+// A batch is committed as soon as a caller waits for durability, once the buffer reaches the commit size,
+// or when the commit interval ends; everything appended while an fsync is running joins the next batch.
+// Without group commit every append is written and fsynced on its own.
+class MutationJournal implements Closeable {
+    public static final byte REGISTER_CUSTOMER = 1;
+    public static final byte UPDATE_INCOME = 2;
+    public static final byte UPDATE_ELIGIBILITY = 3;
+    public static final byte ADD_LOAN = 4;
+    public static final byte REMOVE_LOAN = 5;
+    private static final int MAX_RECORD_SIZE = 4 + 1 + 4 + 4 + 1 + 8 + 8 + 8 + 8 + 4;
+
+    private final Path base;
+    private final long groupCommitNanos;
+    private final int groupCommitBytes;
+    private final Object lock = new Object();
+    private final CRC32C crc = new CRC32C();
+    private final Thread flusher;
+
+    // Guarded by lock
+    private FileChannel channel;
+    private long generation;
+    private ByteBuffer active;
+    private ByteBuffer flushing;
+    private long appended; // bytes appended since the journal was opened
+    private long rotatedAt; // appended when the current segment was opened
+    private long durable; // bytes known to be on disk
+    private boolean flushRequested;
+    private int waiters; // callers blocked in awaitDurable
+    private boolean closed;
+    private IOException failure;
+
+    // Opens a new segment after every existing one; groupCommitMillis 0 fsyncs each append on its own
+    public MutationJournal(Path base, long groupCommitMillis, int groupCommitBytes) throws IOException {
+        this.base = base.toAbsolutePath();
+        this.groupCommitNanos = groupCommitMillis * 1_000_000L;
+        this.groupCommitBytes = Math.max(MAX_RECORD_SIZE, groupCommitBytes);
+        this.active = ByteBuffer.allocate(this.groupCommitBytes * 2);
+        this.flushing = ByteBuffer.allocate(this.groupCommitBytes * 2);
+        List<Long> generations = generations(this.base);
+        this.generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        this.channel = openSegment(generation);
+        if (groupCommitNanos > 0) {
+            flusher = new Thread(this::flushLoop, "journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    // Methods to append one mutation, each returns the position to pass to awaitDurable
+    public long logRegisterCustomer(int customerCode, int income) throws IOException {
+        synchronized (lock) {
+            int start = begin(REGISTER_CUSTOMER);
+            active.putInt(customerCode).putInt(income);
+            return end(start);
+        }
+    }
+
+    public long logUpdateIncome(int customerCode, int income) throws IOException {
+        synchronized (lock) {
+            int start = begin(UPDATE_INCOME);
+            active.putInt(customerCode).putInt(income);
+            return end(start);
+        }
+    }
+
+    public long logUpdateEligibility(int customerCode, boolean eligible) throws IOException {
+        synchronized (lock) {
+            int start = begin(UPDATE_ELIGIBILITY);
+            active.putInt(customerCode).put((byte) (eligible ? 1 : 0));
+            return end(start);
+        }
+    }
+
+    public long logAddLoan(int customerCode, Loan loan) throws IOException {
+        synchronized (lock) {
+            int start = begin(ADD_LOAN);
+            active.putInt(customerCode).putInt(loan.getRecordID()).put((byte) loan.getType().getOrdinal())
+                    .putDouble(loan.getInterestRate()).putDouble(loan.getLoanTermLeft())
+                    .putDouble(loan.getAmountLeftToPay()).putDouble(loan.getOverpayment());
+            return end(start);
+        }
+    }
+
+    public long logRemoveLoan(int customerCode, int recordID) throws IOException {
+        synchronized (lock) {
+            int start = begin(REMOVE_LOAN);
+            active.putInt(customerCode).putInt(recordID);
+            return end(start);
+        }
+    }
+
+    // Method to block until everything up to the position is on disk
+    public void awaitDurable(long position) throws IOException {
+        synchronized (lock) {
+            if (durable >= position) {
+                return;
+            }
+            waiters++;
+            lock.notifyAll();
+            try {
+                while (durable < position && failure == null) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the journal", e);
+            } finally {
+                waiters--;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Method to start a new segment, returns the generation of the segment that was closed
+    // Call it while no mutation is in flight, at the point a snapshot captures the book
+    public long rotate() throws IOException {
+        synchronized (lock) {
+            flushAll();
+            channel.close();
+            long closedGeneration = generation++;
+            channel = openSegment(generation);
+            rotatedAt = appended;
+            return closedGeneration;
+        }
+    }
+
+    // Bytes appended to the current segment, that is since the last rotate
+    public long getSegmentBytes() {
+        synchronized (lock) {
+            return appended - rotatedAt;
+        }
+    }
+
+    // Method to delete the segments a snapshot made redundant
+    public void deleteThrough(long lastGeneration) throws IOException {
+        for (long segment : generations(base)) {
+            if (segment <= lastGeneration) {
+                Files.deleteIfExists(segmentPath(base, segment));
+            }
+        }
+    }
+
+    public long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            flushAll();
+            closed = true;
+            lock.notifyAll();
+            channel.close();
+        }
+    }
+
+    // Method to apply every segment newer than afterGeneration to the registry
+    // A torn record at the end of a segment (a crash mid-write) is cut off and replay continues with the next segment.
+    // Changes to customers the registry does not hold cannot be applied; they are counted in the result.
+    public static ReplayResult replay(Path base, long afterGeneration, CustomerRegistry registry) throws IOException {
+        ReplayResult result = new ReplayResult();
+        for (long segment : generations(base.toAbsolutePath())) {
+            if (segment > afterGeneration) {
+                replaySegment(segmentPath(base.toAbsolutePath(), segment), registry, result);
+            }
+        }
+        return result;
+    }
+
+    private static void replaySegment(Path path, CustomerRegistry registry, ReplayResult result) throws IOException {
+        long validBytes = 0;
+        CRC32C crc = new CRC32C();
+        byte[] record = new byte[MAX_RECORD_SIZE];
+        try (InputStream stream = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE - 8) {
+                        break;
+                    }
+                    in.readFully(record, 0, length);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (apply(ByteBuffer.wrap(record, 0, length), registry, result)) {
+                    result.applied++;
+                }
+                validBytes += 4 + length + 4;
+            }
+        }
+        long size = Files.size(path);
+        if (validBytes < size) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+            result.truncatedBytes += size - validBytes;
+        }
+    }
+
+    // Applies one record, returns false, counting it, when its customer is not in the registry
+    private static boolean apply(ByteBuffer record, CustomerRegistry registry, ReplayResult result) {
+        byte operation = record.get();
+        int customerCode = record.getInt();
+        if (operation == REGISTER_CUSTOMER) {
+            Customer customer = new Customer();
+            customer.setCustomerCode(customerCode);
+            customer.setCustomerIncome(record.getInt());
+            registry.add(customer);
+            return true;
+        }
+        Customer customer = registry.find(customerCode);
+        if (customer == null) {
+            result.missing(customerCode);
+            return false;
+        }
+        switch (operation) {
+            case UPDATE_INCOME:
+                customer.setCustomerIncome(record.getInt());
+                break;
+            case UPDATE_ELIGIBILITY:
+                customer.setEligibilityStatus(record.get() != 0);
+                break;
+            case ADD_LOAN:
+                int recordID = record.getInt();
+                int type = record.get();
+                double interestRate = record.getDouble();
+                double loanTermLeft = record.getDouble();
+                double amountLeftToPay = record.getDouble();
+                double overpayment = record.getDouble();
+                customer.addCreditRecord(LoanTypes.byOrdinal(type).create(recordID, interestRate, loanTermLeft, overpayment,
+                        amountLeftToPay));
+                break;
+            case REMOVE_LOAN:
+                int removedID = record.getInt();
+                List<Loan> removed = new ArrayList<>();
+                for (Loan loan : customer.getCreditRecords()) {
+                    if (loan.getRecordID() == removedID) {
+                        removed.add(loan);
+                    }
+                }
+                customer.removeCreditRecords(removed);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal operation " + operation);
+        }
+        return true;
+    }
+
+    // Starts a record in the active buffer, waiting for the flusher if the buffer is full
+    private int begin(byte operation) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        while (active.remaining() < MAX_RECORD_SIZE) {
+            flushRequested = true;
+            lock.notifyAll();
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the journal", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        int start = active.position();
+        active.putInt(0).put(operation);
+        return start;
+    }
+
+    // Completes the record with its length and checksum, and writes it through when group commit is off
+    private long end(int start) throws IOException {
+        int length = active.position() - start - 4;
+        active.putInt(start, length);
+        crc.reset();
+        crc.update(active.array(), start + 4, length);
+        active.putInt((int) crc.getValue());
+        appended += active.position() - start;
+        if (flusher == null) {
+            writeActive();
+        } else if (active.position() == length + 8) {
+            lock.notifyAll(); // first record of a batch starts the commit interval
+        }
+        return appended;
+    }
+
+    // Waits until the flusher wrote everything, or writes it directly without group commit
+    private void flushAll() throws IOException {
+        if (flusher == null) {
+            return;
+        }
+        while (durable < appended && failure == null) {
+            flushRequested = true;
+            lock.notifyAll();
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the journal", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeActive() throws IOException {
+        active.flip();
+        while (active.hasRemaining()) {
+            channel.write(active);
+        }
+        channel.force(false);
+        active.clear();
+        durable = appended;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            FileChannel target;
+            long batchEnd;
+            synchronized (lock) {
+                try {
+                    while (!closed && active.position() == 0) {
+                        lock.wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    long deadline = System.nanoTime() + groupCommitNanos;
+                    long remaining;
+                    while (!flushRequested && waiters == 0 && active.position() < groupCommitBytes
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        lock.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flushRequested = false;
+                ByteBuffer batch = active;
+                active = flushing;
+                flushing = batch;
+                batchEnd = appended;
+                target = channel;
+                lock.notifyAll(); // appenders waiting for room can continue
+            }
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    target.write(flushing);
+                }
+                target.force(false);
+                flushing.clear();
+                synchronized (lock) {
+                    durable = batchEnd;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(segmentPath(base, segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static Path segmentPath(Path base, long segment) {
+        return base.resolveSibling(base.getFileName() + "." + segment);
+    }
+
+    // Generations of the existing segments, in ascending order
+    private static List<Long> generations(Path base) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        Path directory = base.getParent();
+        String prefix = base.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, base.getFileName() + ".*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    generations.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
+
+// What a journal replay did: the changes applied, the changes to customers the book does not hold, which could
+// not be applied, and the bytes of torn records cut off the ends of segments
+class ReplayResult {
+    private static final int MAX_REPORTED = 5;
+
+    long applied;
+    long truncatedBytes;
+    private long missing;
+    private final List<String> missingCustomers = new ArrayList<>();
+
+    void missing(int customerCode) {
+        missing++;
+        String customerID = CustomerIds.decode(customerCode);
+        if (missingCustomers.size() < MAX_REPORTED && !missingCustomers.contains(customerID)) {
+            missingCustomers.add(customerID);
+        }
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    // Changes skipped because their customer is not in the book
+    public long getMissing() {
+        return missing;
+    }
+
+    // A few of the customers missing, for the message
+    public List<String> getMissingCustomers() {
+        return missingCustomers;
+    }
+
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+}
@@ -0,0 +1,529 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Customers and credit records as fixed-width records in direct ByteBuffers, outside the Java heap
+//
+// A large book held as Customer objects with an ArrayList of Loan objects each is tens of millions of heap
+// objects, which every full collection has to trace; here the whole book is a few hundred buffers of bytes.
+// Customers are appended in registration order and found by code through an IntIntMap. Each customer's loans
+// form a linked chain of loan slots, in the order they were added. A removed loan's slot goes onto a free
+// list that the next added loan takes, so removals never grow the storage; compact() repacks the chains
+// contiguously in customer order and releases the chunks left empty, once removals have scattered them.
+//
+// Thread safety follows BankService: customers are added under the registry write lock, and a customer's
+// record and loans are read and changed under that customer's lock. Only slot allocation is shared between
+// customers, and it is synchronized here. compact() moves every loan, so nothing else may run during it.
+//
+// Records, in native byte order:
+//   customer  code int, income int, eligible byte, loan count int, first and last loan slot int, exposure double
+//   loan      record ID int, type ordinal byte, next loan slot int, rate, term left, amount left, overpayment double
+class OffHeapBook {
+    static final int NONE = -1;
+
+    private static final int CHUNK_BITS = 15;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+    private static final int CUSTOMER_SIZE = 32;
+    private static final int C_CODE = 0;
+    private static final int C_INCOME = 4;
+    private static final int C_ELIGIBLE = 8;
+    private static final int C_LOANS = 12;
+    private static final int C_FIRST = 16;
+    private static final int C_LAST = 20;
+    private static final int C_EXPOSURE = 24;
+
+    private static final int LOAN_SIZE = 48;
+    private static final int L_RECORD_ID = 0;
+    private static final int L_TYPE = 4;
+    private static final int L_NEXT = 8;
+    private static final int L_RATE = 16;
+    private static final int L_TERM = 24;
+    private static final int L_AMOUNT = 32;
+    private static final int L_OVERPAYMENT = 40;
+
+    private final IntIntMap positions;
+    private volatile ByteBuffer[] customerChunks = new ByteBuffer[0];
+    private volatile int customers;
+
+    private volatile ByteBuffer[] loanChunks = new ByteBuffer[0];
+    private int loanSlots; // slots handed out so far, live or free
+    private int freeHead = NONE; // free slots, linked through their next field
+    private int freeSlots;
+    private volatile int epoch; // incremented by compact(), which moves loans to new slots
+
+    public OffHeapBook() {
+        this(16);
+    }
+
+    public OffHeapBook(int expectedCustomers) {
+        positions = new IntIntMap(expectedCustomers);
+    }
+
+    // Method to append a customer, returns its position, or NONE if the code is already taken
+    public synchronized int addCustomer(int code, int income, boolean eligible) {
+        if (positions.putIfAbsent(code, customers) != IntIntMap.MISSING) {
+            return NONE;
+        }
+        int position = customers;
+        if ((position >>> CHUNK_BITS) == customerChunks.length) {
+            customerChunks = grow(customerChunks, CUSTOMER_SIZE);
+        }
+        ByteBuffer chunk = customerChunk(position);
+        int at = customerOffset(position);
+        chunk.putInt(at + C_CODE, code).putInt(at + C_INCOME, income).put(at + C_ELIGIBLE, (byte) (eligible ? 1 : 0))
+                .putInt(at + C_LOANS, 0).putInt(at + C_FIRST, NONE).putInt(at + C_LAST, NONE)
+                .putDouble(at + C_EXPOSURE, 0);
+        customers = position + 1; // publishes the record
+        return position;
+    }
+
+    // Position of a customer by code, NONE if not found
+    public int position(int code) {
+        int position = positions.get(code);
+        return position == IntIntMap.MISSING ? NONE : position;
+    }
+
+    public int size() {
+        return customers;
+    }
+
+    // Customer fields by position
+    public int code(int position) {
+        return customerChunk(position).getInt(customerOffset(position) + C_CODE);
+    }
+
+    public int income(int position) {
+        return customerChunk(position).getInt(customerOffset(position) + C_INCOME);
+    }
+
+    public void setIncome(int position, int income) {
+        customerChunk(position).putInt(customerOffset(position) + C_INCOME, income);
+    }
+
+    public boolean isEligible(int position) {
+        return customerChunk(position).get(customerOffset(position) + C_ELIGIBLE) != 0;
+    }
+
+    public void setEligible(int position, boolean eligible) {
+        customerChunk(position).put(customerOffset(position) + C_ELIGIBLE, (byte) (eligible ? 1 : 0));
+    }
+
+    public int loanCount(int position) {
+        return customerChunk(position).getInt(customerOffset(position) + C_LOANS);
+    }
+
+    // Sum of the amount left to pay over the customer's loans
+    public double exposure(int position) {
+        return customerChunk(position).getDouble(customerOffset(position) + C_EXPOSURE);
+    }
+
+    // First loan slot of a customer, NONE if they have no loans; nextLoan walks the rest
+    public int firstLoan(int position) {
+        return customerChunk(position).getInt(customerOffset(position) + C_FIRST);
+    }
+
+    public int nextLoan(int slot) {
+        return loanChunk(slot).getInt(loanOffset(slot) + L_NEXT);
+    }
+
+    // Method to append a loan to a customer's chain, returns its slot
+    public int addLoan(int position, int recordID, int type, double interestRate, double loanTermLeft,
+                       double amountLeftToPay, double overpayment) {
+        LoanTypes.byOrdinal(type); // rejects unknown ordinals
+        int slot = allocate();
+        int offset = loanOffset(slot);
+        loanChunk(slot).putInt(offset + L_RECORD_ID, recordID).put(offset + L_TYPE, (byte) type)
+                .putInt(offset + L_NEXT, NONE).putDouble(offset + L_RATE, interestRate)
+                .putDouble(offset + L_TERM, loanTermLeft).putDouble(offset + L_AMOUNT, amountLeftToPay)
+                .putDouble(offset + L_OVERPAYMENT, overpayment);
+        ByteBuffer chunk = customerChunk(position);
+        int at = customerOffset(position);
+        int last = chunk.getInt(at + C_LAST);
+        if (last == NONE) {
+            chunk.putInt(at + C_FIRST, slot);
+        } else {
+            setNext(last, slot);
+        }
+        chunk.putInt(at + C_LAST, slot).putInt(at + C_LOANS, chunk.getInt(at + C_LOANS) + 1)
+                .putDouble(at + C_EXPOSURE, chunk.getDouble(at + C_EXPOSURE) + amountLeftToPay);
+        return slot;
+    }
+
+    // Method to find the slot of a customer's loan by record ID, NONE if not found
+    public int findLoan(int position, int recordID) {
+        for (int slot = firstLoan(position); slot != NONE; slot = nextLoan(slot)) {
+            if (recordID(slot) == recordID) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    // Method to unlink a loan from its customer's chain and free its slot, returns false if the customer
+    // does not hold it
+    public boolean removeLoan(int position, int slot) {
+        ByteBuffer chunk = customerChunk(position);
+        int at = customerOffset(position);
+        int previous = NONE;
+        int current = chunk.getInt(at + C_FIRST);
+        while (current != NONE && current != slot) {
+            previous = current;
+            current = nextLoan(current);
+        }
+        if (current == NONE) {
+            return false;
+        }
+        int next = nextLoan(slot);
+        if (previous == NONE) {
+            chunk.putInt(at + C_FIRST, next);
+        } else {
+            setNext(previous, next);
+        }
+        if (chunk.getInt(at + C_LAST) == slot) {
+            chunk.putInt(at + C_LAST, previous);
+        }
+        int remaining = chunk.getInt(at + C_LOANS) - 1;
+        // An empty chain drops any rounding residue, like Customer.removeCreditRecords
+        double exposure = remaining == 0 ? 0 : chunk.getDouble(at + C_EXPOSURE) - amountLeftToPay(slot);
+        chunk.putInt(at + C_LOANS, remaining).putDouble(at + C_EXPOSURE, exposure);
+        free(slot);
+        return true;
+    }
+
+    // Loan fields by slot
+    public int recordID(int slot) {
+        return loanChunk(slot).getInt(loanOffset(slot) + L_RECORD_ID);
+    }
+
+    public int type(int slot) {
+        return loanChunk(slot).get(loanOffset(slot) + L_TYPE);
+    }
+
+    public double interestRate(int slot) {
+        return loanChunk(slot).getDouble(loanOffset(slot) + L_RATE);
+    }
+
+    public double loanTermLeft(int slot) {
+        return loanChunk(slot).getDouble(loanOffset(slot) + L_TERM);
+    }
+
+    public double amountLeftToPay(int slot) {
+        return loanChunk(slot).getDouble(loanOffset(slot) + L_AMOUNT);
+    }
+
+    public double overpayment(int slot) {
+        return loanChunk(slot).getDouble(loanOffset(slot) + L_OVERPAYMENT);
+    }
+
+    // Number of live loans
+    public synchronized long loans() {
+        return loanSlots - freeSlots;
+    }
+
+    // Slots freed by removals and not reused yet
+    public synchronized int freeSlots() {
+        return freeSlots;
+    }
+
+    // Bytes of direct memory held by the record buffers
+    public long offHeapBytes() {
+        return (long) customerChunks.length * CHUNK_RECORDS * CUSTOMER_SIZE
+                + (long) loanChunks.length * CHUNK_RECORDS * LOAN_SIZE;
+    }
+
+    // Changes whenever compact() moves loans; views compare it to know whether their slot is still current
+    public int getEpoch() {
+        return epoch;
+    }
+
+    // Whether free slots outnumber live loans by enough that compacting would release whole chunks
+    public synchronized boolean isFragmented() {
+        return freeSlots > CHUNK_RECORDS && freeSlots > loanSlots - freeSlots;
+    }
+
+    // Method to repack every customer's loans contiguously in customer order into fresh chunks and release the
+    // old ones, emptying the free list; the caller must make sure no other thread uses the book meanwhile
+    public synchronized void compact() {
+        int live = loanSlots - freeSlots;
+        ByteBuffer[] packed = new ByteBuffer[(live + CHUNK_MASK) >>> CHUNK_BITS];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = newChunk(LOAN_SIZE);
+        }
+        byte[] record = new byte[LOAN_SIZE];
+        int next = 0;
+        for (int position = 0; position < customers; position++) {
+            ByteBuffer chunk = customerChunk(position);
+            int at = customerOffset(position);
+            int first = next;
+            for (int slot = chunk.getInt(at + C_FIRST); slot != NONE; slot = nextLoan(slot)) {
+                loanChunk(slot).get(loanOffset(slot), record);
+                ByteBuffer target = packed[next >>> CHUNK_BITS];
+                int offset = loanOffset(next);
+                target.put(offset, record);
+                target.putInt(offset + L_NEXT, next + 1);
+                next++;
+            }
+            if (next == first) {
+                chunk.putInt(at + C_FIRST, NONE).putInt(at + C_LAST, NONE);
+            } else {
+                packed[(next - 1) >>> CHUNK_BITS].putInt(loanOffset(next - 1) + L_NEXT, NONE);
+                chunk.putInt(at + C_FIRST, first).putInt(at + C_LAST, next - 1);
+            }
+        }
+        loanChunks = packed;
+        loanSlots = next;
+        freeHead = NONE;
+        freeSlots = 0;
+        epoch++;
+    }
+
+    // Method to take a free slot, or a new one past the last
+    private synchronized int allocate() {
+        if (freeHead != NONE) {
+            int slot = freeHead;
+            freeHead = nextLoan(slot);
+            freeSlots--;
+            return slot;
+        }
+        if ((loanSlots >>> CHUNK_BITS) == loanChunks.length) {
+            loanChunks = grow(loanChunks, LOAN_SIZE);
+        }
+        return loanSlots++;
+    }
+
+    private synchronized void free(int slot) {
+        setNext(slot, freeHead);
+        freeHead = slot;
+        freeSlots++;
+    }
+
+    private void setNext(int slot, int next) {
+        loanChunk(slot).putInt(loanOffset(slot) + L_NEXT, next);
+    }
+
+    private ByteBuffer customerChunk(int position) {
+        return customerChunks[position >>> CHUNK_BITS];
+    }
+
+    private static int customerOffset(int position) {
+        return (position & CHUNK_MASK) * CUSTOMER_SIZE;
+    }
+
+    private ByteBuffer loanChunk(int slot) {
+        return loanChunks[slot >>> CHUNK_BITS];
+    }
+
+    private static int loanOffset(int slot) {
+        return (slot & CHUNK_MASK) * LOAN_SIZE;
+    }
+
+    // Returns the chunks plus one, the existing chunks are shared rather than copied
+    private static ByteBuffer[] grow(ByteBuffer[] chunks, int recordSize) {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = newChunk(recordSize);
+        return grown;
+    }
+
+    private static ByteBuffer newChunk(int recordSize) {
+        return ByteBuffer.allocateDirect(CHUNK_RECORDS * recordSize).order(ByteOrder.nativeOrder());
+    }
+}
+
+// Customer view over one customer record of an OffHeapBook
+// Reads and changes go straight to the record and its loan chain, nothing is copied onto the heap;
+// copy() is the way to keep a customer beyond the customer's lock
+class OffHeapCustomer extends Customer {
+    private final OffHeapBook book;
+    private final int position;
+
+    public OffHeapCustomer(OffHeapBook book, int position) {
+        this.book = book;
+        this.position = position;
+        setCustomerCode(book.code(position));
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public int getCustomerIncome() {
+        return book.income(position);
+    }
+
+    @Override
+    public void setCustomerIncome(int customerIncome) {
+        book.setIncome(position, customerIncome);
+    }
+
+    @Override
+    public double getExposureLimit() {
+        return EXPOSURE_LIMIT_MULTIPLE * getCustomerIncome();
+    }
+
+    @Override
+    public boolean isEligibilityStatus() {
+        return book.isEligible(position);
+    }
+
+    @Override
+    public void setEligibilityStatus(boolean eligibilityStatus) {
+        book.setEligible(position, eligibilityStatus);
+    }
+
+    @Override
+    public double getTotalExposure() {
+        return book.exposure(position);
+    }
+
+    // Read-only list of loan views over the customer's chain
+    @Override
+    public List<Loan> getCreditRecords() {
+        return new LoanChain();
+    }
+
+    @Override
+    public void setCreditRecords(ArrayList<Loan> creditRecords) {
+        removeCreditRecords(new ArrayList<>(getCreditRecords()));
+        for (Loan loan : creditRecords) {
+            addCreditRecord(loan);
+        }
+    }
+
+    // Method to store a loan in the customer's chain; the Loan object itself is not kept
+    @Override
+    public void addCreditRecord(Loan loan) {
+        book.addLoan(position, loan.getRecordID(), loan.getType().getOrdinal(), loan.getInterestRate(),
+                loan.getLoanTermLeft(), loan.getAmountLeftToPay(), loan.getOverpayment());
+    }
+
+    // Method to remove one stored loan per given loan, matched by record ID
+    @Override
+    public boolean removeCreditRecords(Collection<Loan> loans) {
+        boolean removed = false;
+        for (Loan loan : loans) {
+            int slot = book.findLoan(position, loan.getRecordID());
+            if (slot == OffHeapBook.NONE) {
+                continue;
+            }
+            removed |= book.removeLoan(position, slot);
+        }
+        return removed;
+    }
+
+    private class LoanChain extends AbstractList<Loan> {
+        @Override
+        public Loan get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+            }
+            int slot = book.firstLoan(position);
+            for (int i = 0; i < index; i++) {
+                slot = book.nextLoan(slot);
+            }
+            return new OffHeapLoan(book, position, slot);
+        }
+
+        @Override
+        public int size() {
+            return book.loanCount(position);
+        }
+
+        // Walks the chain once instead of from the start for every element
+        @Override
+        public Iterator<Loan> iterator() {
+            return new Iterator<Loan>() {
+                private int slot = book.firstLoan(position);
+
+                @Override
+                public boolean hasNext() {
+                    return slot != OffHeapBook.NONE;
+                }
+
+                @Override
+                public Loan next() {
+                    if (slot == OffHeapBook.NONE) {
+                        throw new NoSuchElementException();
+                    }
+                    Loan loan = new OffHeapLoan(book, position, slot);
+                    slot = book.nextLoan(slot);
+                    return loan;
+                }
+            };
+        }
+    }
+}
+
+// Loan view over one loan record of an OffHeapBook, valid while the customer holds the loan
+// The slot is looked up again by record ID if compaction has moved the loan since the view was made
+class OffHeapLoan extends Loan {
+    private final OffHeapBook book;
+    private final int position;
+    private int slot;
+    private int epoch;
+
+    public OffHeapLoan(OffHeapBook book, int position, int slot) {
+        super(book.recordID(slot), null, 0, 0);
+        this.book = book;
+        this.position = position;
+        this.slot = slot;
+        this.epoch = book.getEpoch();
+    }
+
+    private int slot() {
+        if (epoch != book.getEpoch()) {
+            slot = book.findLoan(position, recordID);
+            epoch = book.getEpoch();
+        }
+        return slot;
+    }
+
+    @Override
+    public LoanType getType() {
+        return LoanTypes.byOrdinal(book.type(slot()));
+    }
+
+    @Override
+    public double getInterestRate() {
+        return book.interestRate(slot());
+    }
+
+    @Override
+    public double getLoanTermLeft() {
+        return book.loanTermLeft(slot());
+    }
+
+    @Override
+    public double getAmountLeftToPay() {
+        return book.amountLeftToPay(slot());
+    }
+
+    @Override
+    public double getOverpayment() {
+        return book.overpayment(slot());
+    }
+
+    // Method to print loan details, with the overpayment option for the types that have one
+    @Override
+    public void printLoanDetails() {
+        super.printLoanDetails();
+        if (getType().hasOverpayment()) {
+            System.out.println("Overpayment Option: " + getOverpayment() + "%");
+        }
+    }
+
+    // Method to copy the record out into a standalone loan of the matching subclass
+    @Override
+    public Loan toLoan() {
+        return getType().create(getRecordID(), getInterestRate(), getLoanTermLeft(), getOverpayment(),
+                getAmountLeftToPay());
+    }
+}
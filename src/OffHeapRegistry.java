@@ -0,0 +1,103 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Customer registry kept in an OffHeapBook instead of heap objects, enabled with -Dxyzbank.offHeap=true
+// Customers added are copied into the book; lookups return OffHeapCustomer views over the records,
+// so everything written against CustomerRegistry and Customer works unchanged on an off-heap book
+class OffHeapRegistry extends CustomerRegistry {
+    private final OffHeapBook book;
+
+    public OffHeapRegistry() {
+        this(16);
+    }
+
+    public OffHeapRegistry(int expectedSize) {
+        super(0);
+        this.book = new OffHeapBook(expectedSize);
+    }
+
+    // Returns an off-heap registry holding a copy of every customer of another registry, in the same order
+    public static OffHeapRegistry copyOf(CustomerRegistry registry) {
+        OffHeapRegistry copy = new OffHeapRegistry(registry.size());
+        for (Customer customer : registry) {
+            copy.add(customer);
+        }
+        return copy;
+    }
+
+    public OffHeapBook getBook() {
+        return book;
+    }
+
+    // Method to copy a customer and their loans into the book, returns false if the customer ID is already taken
+    // The Customer object is not kept; later changes go through find() or get()
+    @Override
+    public boolean add(Customer customer) {
+        int code = customer.getCustomerCode();
+        if (code == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Customer has no ID");
+        }
+        int position = book.addCustomer(code, customer.getCustomerIncome(), customer.isEligibilityStatus());
+        if (position == OffHeapBook.NONE) {
+            return false;
+        }
+        for (Loan loan : customer.getCreditRecords()) {
+            book.addLoan(position, loan.getRecordID(), loan.getType().getOrdinal(), loan.getInterestRate(),
+                    loan.getLoanTermLeft(), loan.getAmountLeftToPay(), loan.getOverpayment());
+        }
+        return true;
+    }
+
+    @Override
+    public Customer find(int code) {
+        if (code == CustomerIds.NONE) {
+            return null;
+        }
+        int position = book.position(code);
+        return position == OffHeapBook.NONE ? null : new OffHeapCustomer(book, position);
+    }
+
+    @Override
+    public Customer get(int index) {
+        if (index < 0 || index >= book.size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + book.size());
+        }
+        return new OffHeapCustomer(book, index);
+    }
+
+    @Override
+    public int size() {
+        return book.size();
+    }
+
+    @Override
+    public boolean isFragmented() {
+        return book.isFragmented();
+    }
+
+    @Override
+    public void compact() {
+        book.compact();
+    }
+
+    // Customers are iterated in the order they were registered, one view each
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<Customer>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < book.size();
+            }
+
+            @Override
+            public Customer next() {
+                if (next >= book.size()) {
+                    throw new NoSuchElementException();
+                }
+                return new OffHeapCustomer(book, next++);
+            }
+        };
+    }
+}
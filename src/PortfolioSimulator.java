@@ -0,0 +1,366 @@
+import java.time.YearMonth;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+// Advances a book month by month on a LoanStore copy of it
+//
+// Each step first applies the month's random events (new loans for eligible customers, income changes), drawn
+// from a seeded generator in a fixed order, then updates every loan in parallel: interest accrues at rate / 12, the
+// scheduled annuity payment plus any overpayment is paid, the term shrinks by a month, and paid-off loans are retired.
+// Customers are split over a ForkJoinPool in fixed blocks; each block updates its customers' rows in place without
+// allocating, and re-runs the eligibility rule only for customers whose exposure or income changed.
+// Block boundaries do not depend on the thread count, so a seed gives the same run on any number of threads.
+class PortfolioSimulator {
+    // Customers handled by one leaf task
+    private static final int LEAF_CUSTOMERS = 2048;
+    // Balances below half a cent count as paid off
+    private static final double PAID_OFF = 0.005;
+    private static final LoanType[] LOAN_TYPES = {
+            LoanTypes.AUTO, LoanTypes.BUILDER, LoanTypes.MORTGAGE, LoanTypes.PERSONAL, LoanTypes.OTHER};
+
+    private final LoanStore store;
+    private final int customers;
+    // Customer state by range position in the store
+    private final int[] incomes;
+    private final boolean[] eligible;
+    private final double[] exposure;
+    private final boolean[] incomeChanged;
+    private final ForkJoinPool pool;
+    private final SplittableRandom random;
+    private YearMonth month;
+    private int nextRecordID = 1_000_000_000;
+    private double newLoanRate = 0.002;
+    private double incomeChangeRate = 0.01;
+
+    // Simulator over a store whose range positions match the given incomes and eligibility
+    public PortfolioSimulator(LoanStore store, int[] incomes, boolean[] eligible, YearMonth start, long seed,
+                              int parallelism) {
+        this.store = store;
+        this.customers = store.customerCount();
+        this.incomes = incomes;
+        this.eligible = eligible;
+        this.exposure = new double[customers];
+        this.incomeChanged = new boolean[customers];
+        this.pool = new ForkJoinPool(parallelism);
+        this.random = new SplittableRandom(seed);
+        this.month = start;
+        for (int i = 0; i < customers; i++) {
+            exposure[i] = totalAmount(i);
+        }
+    }
+
+    // Simulator over a copy of the registry's book; the registry itself is not changed
+    public static PortfolioSimulator fromRegistry(CustomerRegistry registry, YearMonth start, long seed,
+                                                  int parallelism) {
+        // fromRegistry gives every customer a range, in registry order
+        LoanStore store = LoanStore.fromRegistry(registry);
+        int[] incomes = new int[registry.size()];
+        boolean[] eligible = new boolean[registry.size()];
+        for (int i = 0; i < registry.size(); i++) {
+            incomes[i] = registry.get(i).getCustomerIncome();
+            eligible[i] = registry.get(i).isEligibilityStatus();
+        }
+        return new PortfolioSimulator(store, incomes, eligible, start, seed, parallelism);
+    }
+
+    // Expected share of customers taking a new loan each month
+    public void setNewLoanRate(double newLoanRate) {
+        this.newLoanRate = newLoanRate;
+    }
+
+    // Expected share of customers whose income changes each month
+    public void setIncomeChangeRate(double incomeChangeRate) {
+        this.incomeChangeRate = incomeChangeRate;
+    }
+
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public LoanStore getStore() {
+        return store;
+    }
+
+    // Method to simulate several months, handing each step's metrics to the listener
+    public void run(int months, Consumer<StepMetrics> listener) {
+        for (int i = 0; i < months; i++) {
+            listener.accept(step());
+        }
+    }
+
+    // Method to advance the book by one month
+    public StepMetrics step() {
+        long start = System.nanoTime();
+        int newLoans = 0;
+        int incomeChanges = 0;
+        if (customers > 0) {
+            newLoans = addNewLoans();
+            incomeChanges = changeIncomes();
+        }
+        StepMetrics metrics = customers == 0 ? new StepMetrics() : pool.invoke(new StepTask(this, 0, customers));
+        store.recount();
+        month = month.plusMonths(1);
+        metrics.finish(month, store.size(), newLoans, incomeChanges, System.nanoTime() - start);
+        return metrics;
+    }
+
+    // Method to release the worker threads
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private int addNewLoans() {
+        int added = 0;
+        for (int i = events(newLoanRate); i > 0; i--) {
+            int customer = random.nextInt(customers);
+            LoanType type = LOAN_TYPES[random.nextInt(LOAN_TYPES.length)];
+            double rate = Math.round((2 + random.nextDouble() * 10) * 100) / 100.0;
+            double term = 1 + random.nextInt(30);
+            double amount = Math.round(incomes[customer] * (0.1 + random.nextDouble()));
+            double overpayment = type.hasOverpayment() ? random.nextInt(21) : 0;
+            if (!eligible[customer]) {
+                continue; // the menu refuses loans to ineligible customers too
+            }
+            store.append(store.customerCodeAt(customer), nextRecordID++, type.getOrdinal(), rate, term, amount, overpayment);
+            exposure[customer] += amount;
+            added++;
+        }
+        return added;
+    }
+
+    private int changeIncomes() {
+        int changes = events(incomeChangeRate);
+        for (int i = 0; i < changes; i++) {
+            int customer = random.nextInt(customers);
+            incomes[customer] = (int) Math.round(incomes[customer] * (0.9 + random.nextDouble() * 0.25));
+            incomeChanged[customer] = true;
+        }
+        return changes;
+    }
+
+    // Number of events this month for an expected share of customers
+    private int events(double rate) {
+        double expected = customers * rate;
+        int whole = (int) expected;
+        return whole + (random.nextDouble() < expected - whole ? 1 : 0);
+    }
+
+    private double totalAmount(int customer) {
+        double[] amounts = store.amountLeftToPayColumn();
+        int first = store.firstRowAt(customer);
+        double total = 0;
+        for (int row = first; row < first + store.rowCountAt(customer); row++) {
+            total += amounts[row];
+        }
+        return total;
+    }
+
+    private static class StepTask extends RecursiveTask<StepMetrics> {
+        private static final long serialVersionUID = 1L;
+
+        private final PortfolioSimulator simulator;
+        private final int from;
+        private final int to;
+
+        StepTask(PortfolioSimulator simulator, int from, int to) {
+            this.simulator = simulator;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected StepMetrics compute() {
+            if (to - from <= LEAF_CUSTOMERS) {
+                return advance();
+            }
+            int middle = from + (((to - from) / LEAF_CUSTOMERS + 1) / 2) * LEAF_CUSTOMERS;
+            StepTask left = new StepTask(simulator, from, middle);
+            left.fork();
+            StepMetrics right = new StepTask(simulator, middle, to).compute();
+            return left.join().merge(right);
+        }
+
+        // Advances the loans of customers [from, to) by one month
+        private StepMetrics advance() {
+            PortfolioSimulator s = simulator;
+            LoanStore store = s.store;
+            double[] rates = store.interestRateColumn();
+            double[] terms = store.loanTermLeftColumn();
+            double[] amounts = store.amountLeftToPayColumn();
+            double[] overpayments = store.overpaymentColumn();
+            double interestAccrued = 0;
+            double paymentsCollected = 0;
+            int retired = 0;
+            int reevaluated = 0;
+            int eligibilityChanges = 0;
+            int ineligible = 0;
+            double bookExposure = 0;
+
+            for (int customer = from; customer < to; customer++) {
+                int row = store.firstRowAt(customer);
+                int end = row + store.rowCountAt(customer);
+                double total = 0;
+                while (row < end) {
+                    double amount = amounts[row];
+                    double r = rates[row] / 1200.0;
+                    double months = Math.max(1.0, Math.ceil(terms[row] * 12.0 - 1e-9));
+                    double interest = amount * r;
+                    double payment;
+                    if (months <= 1) {
+                        payment = amount + interest; // last month of the term settles the balance
+                    } else {
+                        double scheduled = r > 0 ? amount * r / (1.0 - Math.exp(-months * Math.log(1.0 + r))) : amount / months;
+                        payment = Math.min(scheduled * (1.0 + overpayments[row] / 100.0), amount + interest);
+                    }
+                    amount = amount + interest - payment;
+                    interestAccrued += interest;
+                    paymentsCollected += payment;
+                    if (amount <= PAID_OFF) {
+                        store.retire(customer, row); // the range's last row moves here, look at it next
+                        end--;
+                        retired++;
+                        continue;
+                    }
+                    amounts[row] = amount;
+                    terms[row] = Math.max(0.0, terms[row] - 1.0 / 12.0);
+                    total += amount;
+                    row++;
+                }
+
+                if (total != s.exposure[customer] || s.incomeChanged[customer]) {
+                    boolean nowEligible = Customer.isWithinExposureLimit(total, s.incomes[customer]);
+                    if (nowEligible != s.eligible[customer]) {
+                        s.eligible[customer] = nowEligible;
+                        eligibilityChanges++;
+                    }
+                    s.exposure[customer] = total;
+                    s.incomeChanged[customer] = false;
+                    reevaluated++;
+                }
+                if (!s.eligible[customer]) {
+                    ineligible++;
+                }
+                bookExposure += total;
+            }
+            return new StepMetrics(interestAccrued, paymentsCollected, retired, reevaluated, eligibilityChanges,
+                    ineligible, bookExposure);
+        }
+    }
+}
+
+// Aggregate results of one simulated month, merged across the simulator's blocks
+class StepMetrics {
+    private YearMonth month;
+    private int loans;
+    private int newLoans;
+    private int incomeChanges;
+    private long nanos;
+    private double interestAccrued;
+    private double paymentsCollected;
+    private int retired;
+    private int reevaluated;
+    private int eligibilityChanges;
+    private int ineligible;
+    private double exposure;
+
+    StepMetrics() {
+    }
+
+    StepMetrics(double interestAccrued, double paymentsCollected, int retired, int reevaluated, int eligibilityChanges,
+                int ineligible, double exposure) {
+        this.interestAccrued = interestAccrued;
+        this.paymentsCollected = paymentsCollected;
+        this.retired = retired;
+        this.reevaluated = reevaluated;
+        this.eligibilityChanges = eligibilityChanges;
+        this.ineligible = ineligible;
+        this.exposure = exposure;
+    }
+
+    // Method to fold another block's results into this one
+    StepMetrics merge(StepMetrics other) {
+        interestAccrued += other.interestAccrued;
+        paymentsCollected += other.paymentsCollected;
+        retired += other.retired;
+        reevaluated += other.reevaluated;
+        eligibilityChanges += other.eligibilityChanges;
+        ineligible += other.ineligible;
+        exposure += other.exposure;
+        return this;
+    }
+
+    void finish(YearMonth month, int loans, int newLoans, int incomeChanges, long nanos) {
+        this.month = month;
+        this.loans = loans;
+        this.newLoans = newLoans;
+        this.incomeChanges = incomeChanges;
+        this.nanos = nanos;
+    }
+
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public int getLoans() {
+        return loans;
+    }
+
+    public int getNewLoans() {
+        return newLoans;
+    }
+
+    public int getIncomeChanges() {
+        return incomeChanges;
+    }
+
+    public double getInterestAccrued() {
+        return interestAccrued;
+    }
+
+    public double getPaymentsCollected() {
+        return paymentsCollected;
+    }
+
+    public double getPrincipalRepaid() {
+        return paymentsCollected - interestAccrued;
+    }
+
+    public int getRetired() {
+        return retired;
+    }
+
+    public int getReevaluated() {
+        return reevaluated;
+    }
+
+    public int getEligibilityChanges() {
+        return eligibilityChanges;
+    }
+
+    public int getIneligible() {
+        return ineligible;
+    }
+
+    public double getExposure() {
+        return exposure;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    // Method to print the column headings for printRow
+    public static void printHeader() {
+        System.out.println("Month   | Loans    | New    | Retired | Interest        | Principal       | Exposure          "
+                + "| Re-evaluated | Flips  | Ineligible | Step (ms)");
+    }
+
+    // Method to print the metrics as one table row
+    public void printRow() {
+        System.out.printf("%s | %8d | %6d | %7d | %15.2f | %15.2f | %17.2f | %12d | %6d | %10d | %9.1f%n",
+                month, loans, newLoans, retired, interestAccrued, getPrincipalRepaid(), exposure, reevaluated,
+                eligibilityChanges, ineligible, nanos / 1e6);
+    }
+}
@@ -0,0 +1,75 @@
+import java.time.YearMonth;
+import java.util.SplittableRandom;
+
+// Benchmark of PortfolioSimulator on 1, 2, 4 ... threads up to the number of cores
+// Every thread count runs the same seeded simulation and must end in exactly the same state
+// Run with: java -Xmx2g PortfolioSimulatorBenchmark [loans] [months] [seed]
+class PortfolioSimulatorBenchmark {
+    private static final LoanType[] LOAN_TYPES = {
+            LoanTypes.AUTO, LoanTypes.BUILDER, LoanTypes.MORTGAGE, LoanTypes.PERSONAL, LoanTypes.OTHER};
+    private static final int LOANS_PER_CUSTOMER = 4;
+
+    public static void main(String[] args) {
+        int loans = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        int months = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Loans: " + loans + ", months: " + months + ", seed: " + seed);
+        StepMetrics reference = null;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            PortfolioSimulator simulator = generate(loans, seed, threads);
+            StepMetrics[] last = new StepMetrics[1];
+            long loanMonths = 0;
+            long start = System.nanoTime();
+            for (int month = 0; month < months; month++) {
+                loanMonths += simulator.getStore().size();
+                last[0] = simulator.step();
+                if (threads == cores) {
+                    if (month == 0) {
+                        StepMetrics.printHeader();
+                    }
+                    last[0].printRow();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            simulator.shutdown();
+            System.out.printf("Threads %d: %.0f ms, %.0f loan-months/s%n", threads, nanos / 1e6, loanMonths / (nanos / 1e9));
+
+            if (reference == null) {
+                reference = last[0];
+            } else if (!sameState(reference, last[0])) {
+                throw new IllegalStateException("Run on " + threads + " threads diverged from the single-threaded run");
+            }
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    private static boolean sameState(StepMetrics a, StepMetrics b) {
+        return a.getLoans() == b.getLoans() && a.getExposure() == b.getExposure()
+                && a.getIneligible() == b.getIneligible() && a.getInterestAccrued() == b.getInterestAccrued();
+    }
+
+    // Random book: incomes 20000-200000, rates 0-12%, terms up to 30 years, amounts up to 1.5 x income
+    private static PortfolioSimulator generate(int loans, long seed, int threads) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int customers = (loans + LOANS_PER_CUSTOMER - 1) / LOANS_PER_CUSTOMER;
+        int[] incomes = new int[customers];
+        boolean[] eligible = new boolean[customers];
+        LoanStore store = new LoanStore(loans);
+        for (int i = 0; i < loans; i++) {
+            int customer = i / LOANS_PER_CUSTOMER;
+            if (i % LOANS_PER_CUSTOMER == 0) {
+                incomes[customer] = 20_000 + random.nextInt(180_000);
+                eligible[customer] = true;
+            }
+            LoanType type = LOAN_TYPES[random.nextInt(LOAN_TYPES.length)];
+            double overpayment = type.hasOverpayment() ? random.nextInt(21) : 0;
+            store.append(customer, i % LOANS_PER_CUSTOMER + 1, type.getOrdinal(), Math.round(random.nextDouble() * 1200) / 100.0,
+                    1 + random.nextInt(360) / 12.0, Math.round(incomes[customer] * random.nextDouble() * 1.5), overpayment);
+        }
+        return new PortfolioSimulator(store, incomes, eligible, YearMonth.of(2026, 1), seed, threads);
+    }
+}
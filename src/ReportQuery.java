@@ -0,0 +1,224 @@
+// Filters, ordering and page of a customer report
+// Built fluently or parsed from options such as "type=Mortgage eligible=true prefix=AB top=10 page=5".
+// All filters must match; the ID prefix is checked as a range of customer codes, without decoding IDs.
+class ReportQuery {
+    private LoanType loanType;
+    private Boolean eligible;
+    private String idPrefix;
+    private int lowestCode = 0;
+    private int highestCode = CustomerIds.CAPACITY - 1;
+    private boolean byExposure;
+    private int top;
+    private int pageSize;
+    private String after;
+
+    // Method to parse space-separated key=value options: type, eligible, prefix, top, page and after
+    public static ReportQuery parse(String options) {
+        ReportQuery query = new ReportQuery();
+        for (String option : options.trim().split("\\s+")) {
+            if (option.isEmpty()) {
+                continue;
+            }
+            int equals = option.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + option);
+            }
+            String value = option.substring(equals + 1);
+            switch (option.substring(0, equals).toLowerCase()) {
+                case "type":
+                    query.loanType(value);
+                    break;
+                case "eligible":
+                    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                        throw new IllegalArgumentException("eligible must be true or false: " + value);
+                    }
+                    query.eligible(Boolean.parseBoolean(value));
+                    break;
+                case "prefix":
+                    query.idPrefix(value);
+                    break;
+                case "top":
+                    query.topByExposure(Integer.parseInt(value));
+                    break;
+                case "page":
+                    query.pageSize(Integer.parseInt(value));
+                    break;
+                case "after":
+                    query.after(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown report option: " + option);
+            }
+        }
+        return query;
+    }
+
+    // Customers holding at least one loan of this type, case-insensitive
+    public ReportQuery loanType(String loanType) {
+        LoanType parsed = LoanTypes.parse(loanType);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unknown loan type: " + loanType);
+        }
+        return loanType(parsed);
+    }
+
+    public ReportQuery loanType(LoanType loanType) {
+        this.loanType = loanType;
+        return this;
+    }
+
+    // Customers that may, or may not, arrange new loans
+    public ReportQuery eligible(boolean eligible) {
+        this.eligible = eligible;
+        return this;
+    }
+
+    // Customers whose ID starts with a prefix of up to 6 characters, such as "AB" or "ABC12"
+    public ReportQuery idPrefix(String idPrefix) {
+        if (idPrefix.length() > 6) {
+            throw new IllegalArgumentException("Invalid customer ID prefix: " + idPrefix);
+        }
+        int lowest = CustomerIds.encode(idPrefix + "AAA000".substring(idPrefix.length()));
+        int highest = CustomerIds.encode(idPrefix + "ZZZ999".substring(idPrefix.length()));
+        if (lowest == CustomerIds.NONE || highest == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Invalid customer ID prefix: " + idPrefix);
+        }
+        this.idPrefix = idPrefix;
+        this.lowestCode = lowest;
+        this.highestCode = highest;
+        return this;
+    }
+
+    // The k customers with the highest exposure, largest first; with a page size they come a page at a time,
+    // and the cursor of a page counts the customers reported before it, as "<count>@<cursor>"
+    public ReportQuery topByExposure(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("top must be positive: " + k);
+        }
+        this.byExposure = true;
+        this.top = k;
+        return this;
+    }
+
+    // Customers per page; 0 reports every match, or all of the top k
+    public ReportQuery pageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    // Start after the page that returned this cursor
+    public ReportQuery after(String cursor) {
+        this.after = cursor;
+        return this;
+    }
+
+    public LoanType getLoanType() {
+        return loanType;
+    }
+
+    public Boolean getEligible() {
+        return eligible;
+    }
+
+    public String getIdPrefix() {
+        return idPrefix;
+    }
+
+    public boolean isByExposure() {
+        return byExposure;
+    }
+
+    // The k of topByExposure, 0 for a query without one
+    public int getTop() {
+        return top;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // The cursor to resume from, without the count of a top k query
+    public String getAfter() {
+        if (top == 0 || after == null) {
+            return after;
+        }
+        return after.substring(after.indexOf('@') + 1);
+    }
+
+    // Customers of the top k reported before the cursor
+    public int getRanked() {
+        if (top == 0 || after == null) {
+            return 0;
+        }
+        int at = after.indexOf('@');
+        try {
+            int ranked = Integer.parseInt(after.substring(0, Math.max(at, 0)));
+            if (ranked > 0 && ranked < top) {
+                return ranked;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid report cursor: " + after);
+    }
+
+    // Customers the next page may hold with pages of a given size: fewer once the end of the top k is near
+    int pageLimit(int pageSize) {
+        return top == 0 ? pageSize : Math.min(pageSize, top - getRanked());
+    }
+
+    // The cursor of the next page after reporting some customers and reaching an inner cursor; null at the end,
+    // which a top k query also reaches once k customers are reported
+    String nextCursor(int reported, String next) {
+        if (top == 0 || next == null) {
+            return next;
+        }
+        int ranked = getRanked() + reported;
+        return ranked < top ? ranked + "@" + next : null;
+    }
+
+    // Method to copy the query with another cursor
+    ReportQuery withCursor(String cursor) {
+        ReportQuery copy = page(pageSize, cursor);
+        copy.top = top;
+        return copy;
+    }
+
+    // Method to copy the filters and order of the query for one page of a given size from an inner cursor,
+    // without its top k
+    ReportQuery page(int pageSize, String cursor) {
+        ReportQuery copy = new ReportQuery();
+        copy.loanType = loanType;
+        copy.eligible = eligible;
+        copy.idPrefix = idPrefix;
+        copy.lowestCode = lowestCode;
+        copy.highestCode = highestCode;
+        copy.byExposure = byExposure;
+        copy.pageSize = pageSize;
+        copy.after = cursor;
+        return copy;
+    }
+
+    // Method to check a customer against the filters
+    public boolean matches(Customer customer) {
+        int code = customer.getCustomerCode();
+        if (code < lowestCode || code > highestCode) {
+            return false;
+        }
+        if (eligible != null && customer.isEligibleForNewLoans() != eligible) {
+            return false;
+        }
+        if (loanType != null) {
+            for (Loan loan : customer.getCreditRecords()) {
+                if (loan.getType() == loanType) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+}
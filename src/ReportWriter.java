@@ -0,0 +1,218 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.Formatter;
+import java.util.Locale;
+
+// Buffered writer for the customer and loan reports
+// Lines are built in one reusable StringBuilder and collected in a large byte buffer that reaches the channel once per batch
+class ReportWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final long[] POWERS_OF_TEN = {1, 10, 100};
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final ByteBuffer buffer;
+    private final StringBuilder line = new StringBuilder(128);
+    private final CharsetEncoder encoder;
+    // Same locale as printf uses, for the decimal separator and the slow formatting path
+    private final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    private final Formatter formatter = new Formatter(line, locale);
+    private final char decimalSeparator;
+    private final boolean asciiDigits;
+
+    public ReportWriter(WritableByteChannel channel, Charset charset, boolean closeChannel) {
+        this(channel, charset, closeChannel, BUFFER_SIZE);
+    }
+
+    // Same with a smaller batch buffer, for writers that are many and short-lived such as one per network connection
+    public ReportWriter(WritableByteChannel channel, Charset charset, boolean closeChannel, int bufferSize) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.asciiDigits = symbols.getZeroDigit() == '0';
+    }
+
+    // Writer sharing System.out, so its output stays in order with the rest of the console
+    public static ReportWriter toStdout() {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding) : Charset.defaultCharset();
+        return new ReportWriter(Channels.newChannel(System.out), charset, false);
+    }
+
+    // Writer replacing the contents of a report file
+    public static ReportWriter toFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new ReportWriter(channel, Charset.defaultCharset(), true);
+    }
+
+    // Method to print a customer with their loans in the report layout
+    public void printCustomer(Customer customer, boolean eligible) {
+        line.append("Customer ID: ").append(customer.getCustomerID());
+        endLine();
+        println(eligible ? "Eligible to arrange new loans - YES" : "Eligible to arrange new loans - NO");
+        println("RecordID | LoanType | IntRate | AmountLeft | TimeLeft");
+        println("------- | -------- | -------- | ---------- | --------");
+        for (Loan loan : customer.getCreditRecords()) {
+            printLoanRow(loan);
+        }
+    }
+
+    // Method to print one loan row, same bytes as printf("%07d | %-8s | %.2f | %.0f | %.0f%n")
+    public void printLoanRow(Loan loan) {
+        appendZeroPadded(loan.getRecordID(), 7);
+        line.append(" | ");
+        String loanType = String.valueOf(loan.getLoanType());
+        line.append(loanType);
+        for (int i = loanType.length(); i < 8; i++) {
+            line.append(' ');
+        }
+        line.append(" | ");
+        appendFixed(loan.getInterestRate(), 2);
+        line.append(" | ");
+        appendFixed(loan.getAmountLeftToPay(), 0);
+        line.append(" | ");
+        appendFixed(loan.getLoanTermLeft(), 0);
+        endLine();
+    }
+
+    public void println(CharSequence text) {
+        line.append(text);
+        endLine();
+    }
+
+    public void println() {
+        endLine();
+    }
+
+    // Method to push the buffered batch to the channel
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeChannel) {
+            channel.close();
+        }
+    }
+
+    // Terminates the line in the StringBuilder and moves it into the byte buffer
+    private void endLine() {
+        line.append(LINE_SEPARATOR);
+        int length = line.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = line.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+            if (length > buffer.capacity()) {
+                writeEncoded();
+            } else {
+                for (int i = 0; i < length; i++) {
+                    buffer.put((byte) line.charAt(i));
+                }
+            }
+        } else {
+            writeEncoded();
+        }
+        line.setLength(0);
+    }
+
+    // Slow path for long lines and non-ASCII text
+    private void writeEncoded() {
+        try {
+            ByteBuffer bytes = encoder.encode(CharBuffer.wrap(line));
+            if (bytes.remaining() > buffer.remaining()) {
+                flush();
+            }
+            if (bytes.remaining() > buffer.capacity()) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } else {
+                buffer.put(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same output as %0<width>d
+    private void appendZeroPadded(int value, int width) {
+        long magnitude = value;
+        if (magnitude < 0) {
+            line.append('-');
+            magnitude = -magnitude;
+            width--;
+        }
+        int digits = 1;
+        for (long rest = magnitude / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            line.append('0');
+        }
+        line.append(magnitude);
+    }
+
+    // Same output as %.<precision>f, precision 0 to 2
+    // printf rounds the shortest decimal form of the value HALF_UP; away from a rounding tie that equals
+    // rounding the scaled binary value, so only near-ties, huge and non-finite values go through Formatter
+    private void appendFixed(double value, int precision) {
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * POWERS_OF_TEN[precision];
+        if (asciiDigits && scaled < 1e15) {
+            double floor = Math.floor(scaled);
+            double distanceFromTie = Math.abs(scaled - floor - 0.5);
+            if (distanceFromTie > 8 * Math.ulp(scaled)) {
+                long units = (long) floor + (scaled - floor > 0.5 ? 1 : 0);
+                if (value < 0 || (value == 0 && 1 / value < 0)) {
+                    line.append('-');
+                }
+                line.append(units / POWERS_OF_TEN[precision]);
+                if (precision > 0) {
+                    line.append(decimalSeparator);
+                    long fraction = units % POWERS_OF_TEN[precision];
+                    for (long unit = POWERS_OF_TEN[precision - 1]; unit > fraction && unit > 1; unit /= 10) {
+                        line.append('0');
+                    }
+                    line.append(fraction);
+                }
+                return;
+            }
+        }
+        formatter.format(precision == 2 ? "%.2f" : precision == 1 ? "%.1f" : "%.0f", value);
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Stand-in router for a book sharded over processes: XYZBank --route <port> with -Dxyzbank.shards=<N>
+// Starts one JVM per shard, each an XYZBank --serve holding that shard alone (-Dxyzbank.shard=<i>) with its own
+// heap, journal, snapshot and disk book, then serves the BankServer protocol on its port by relaying to them.
+// Requests about one customer go to their shard over a connection the client's session keeps to it. PRINTALL,
+// METRICS and REPORT without a page are sent to every shard at once, so they all work in parallel, and the
+// answers are relayed shard by shard. A paged REPORT pages through one shard after the other, its cursor naming
+// the shard, so a page stops at the end of a shard; ranking by exposure needs the exposures the protocol does not
+// carry and is left to in-process shards (ShardedBook).
+// The shard processes get the router's xyzbank.* system properties and its other arguments, so an --import or
+// --generate runs in every one of them and each keeps the rows of its own shard. Stopping the router stops them,
+// and each writes its final snapshot as a stopped server does.
+//
+// System properties:
+//   xyzbank.router.basePort   port of shard 0, shard i listens on basePort + i (default the router's port + 1)
+//   xyzbank.router.heap       maximum heap of each shard process, such as 4g (default the JVM's default)
+class ShardRouter implements Closeable {
+    // How long a shard process may take to open its port, however large the book it loads
+    private static final long START_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final int shardCount;
+    private final Partitioning partitioning;
+    private final int basePort;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections = BankServer.newThreadPerTaskExecutor("router-connection");
+    private final List<Process> shards = new ArrayList<>();
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    public ShardRouter(int port, int shardCount, Partitioning partitioning, int basePort) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        this.shardCount = shardCount;
+        this.partitioning = partitioning;
+        this.basePort = basePort;
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port), 1024);
+        this.acceptor = new Thread(this::acceptLoop, "router-acceptor");
+    }
+
+    // Router on the given port with the shards and partitioning from system properties
+    public static ShardRouter fromSystemProperties(int port) throws IOException {
+        return new ShardRouter(port, Integer.getInteger("xyzbank.shards", 2),
+                Partitioning.parse(System.getProperty("xyzbank.shards.partitioning", "hash")),
+                Integer.getInteger("xyzbank.router.basePort", port + 1));
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // Method to start the shard processes with the given XYZBank arguments, wait until each one serves, then
+    // start accepting clients
+    public void start(List<String> arguments) throws IOException, InterruptedException {
+        String heap = System.getProperty("xyzbank.router.heap");
+        for (int i = 0; i < shardCount; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            if (heap != null) {
+                command.add("-Xmx" + heap);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+                String name = property.getKey().toString();
+                if (name.startsWith("xyzbank.") && !name.equals("xyzbank.shard") && !name.startsWith("xyzbank.router.")) {
+                    command.add("-D" + name + "=" + property.getValue());
+                }
+            }
+            command.add("-Dxyzbank.shards=" + shardCount);
+            command.add("-Dxyzbank.shards.partitioning=" + partitioning.name().toLowerCase());
+            command.add("-Dxyzbank.shard=" + i);
+            command.add("XYZBank");
+            command.addAll(arguments);
+            command.add("--serve");
+            command.add(Integer.toString(basePort + i));
+            shards.add(new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT).start());
+        }
+        for (int i = 0; i < shardCount; i++) {
+            awaitShard(i);
+        }
+        startAccepting();
+    }
+
+    // Method to start accepting clients, once a server answers on the port of every shard
+    void startAccepting() {
+        acceptor.start();
+    }
+
+    // Method to block until the router is closed
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    // Method to stop accepting, then stop the shard processes and wait for them to write their snapshots
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        connections.shutdown();
+        for (Process shard : shards) {
+            shard.destroy();
+        }
+        for (Process shard : shards) {
+            try {
+                shard.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Waits until a shard process accepts connections, fails if it exits first
+    private void awaitShard(int shard) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket probe = new Socket("localhost", basePort + shard)) {
+                probe.getOutputStream().write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            } catch (ConnectException e) {
+                if (!shards.get(shard).isAlive()) {
+                    throw new IOException("Shard " + shard + " exited with code " + shards.get(shard).exitValue());
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Shard " + shard + " did not open port " + (basePort + shard));
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    // Accept failures are waited out as BankServer does
+    private void acceptLoop() {
+        long backoffMillis = 1;
+        while (running) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+                backoffMillis = 1;
+            } catch (IOException e) {
+                if (!running || !server.isOpen()) {
+                    return;
+                }
+                System.out.println("Accept failed, retrying in " + backoffMillis + " ms: " + e.getMessage());
+                backoffMillis = BankServer.backOff(backoffMillis);
+                continue;
+            }
+            try {
+                connections.execute(() -> serve(client));
+            } catch (RuntimeException e) {
+                try {
+                    client.close();
+                } catch (IOException closeFailure) {
+                    // the client is gone already
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        Upstream[] upstreams = new Upstream[shardCount];
+        try (SocketChannel channel = client) {
+            channel.socket().setTcpNoDelay(true);
+            LineReader in = new LineReader(Channels.newInputStream(channel), StandardCharsets.UTF_8,
+                    BankServer.MAX_LINE);
+            ReportWriter out = new ReportWriter(channel, StandardCharsets.UTF_8, false, 16 * 1024);
+            String line;
+            while (running && (line = in.readLine()) != null) {
+                if (in.tooLong()) {
+                    out.println("ERR SYNTAX request longer than " + BankServer.MAX_LINE + " characters");
+                    out.flush();
+                    continue;
+                }
+                String request = line.trim();
+                String[] fields = request.split("\\s+");
+                String command = fields[0].toUpperCase();
+                if (command.equals("QUIT")) {
+                    out.println("OK");
+                    out.flush();
+                    break;
+                }
+                switch (command) {
+                    case "PRINTALL":
+                    case "METRICS":
+                        fanOut(upstreams, request, command.equals("METRICS"), out);
+                        break;
+                    case "REPORT":
+                        report(upstreams, fields, out);
+                        break;
+                    default:
+                        // Requests without a customer ID go to shard 0, which answers them as a single book would
+                        int shard = fields.length > 1 ? shardOf(fields[1]) : 0;
+                        out.println(upstream(upstreams, shard).relay(request, out));
+                }
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a broken connection, to the client or a shard, only ends that client's session
+        } finally {
+            for (Upstream upstream : upstreams) {
+                if (upstream != null) {
+                    upstream.close();
+                }
+            }
+        }
+    }
+
+    // Sends a request to every shard, then relays their answers in shard order, ending with the first error if any
+    private void fanOut(Upstream[] upstreams, String request, boolean labelled, ReportWriter out) throws IOException {
+        for (int shard = 0; shard < shardCount; shard++) {
+            upstream(upstreams, shard).send(request);
+        }
+        String status = "OK";
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (labelled) {
+                out.println("Shard " + shard + ":");
+            }
+            String shardStatus = upstreams[shard].relayAnswer(out);
+            if (status.equals("OK")) {
+                status = shardStatus;
+            }
+        }
+        out.println(status);
+    }
+
+    // REPORT: every match from all shards at once, or a page of one shard, resumed with "<shard>:<cursor>"
+    private void report(Upstream[] upstreams, String[] fields, ReportWriter out) throws IOException {
+        StringBuilder options = new StringBuilder();
+        String after = null;
+        for (int i = 1; i < fields.length; i++) {
+            if (fields[i].regionMatches(true, 0, "after=", 0, 6)) {
+                after = fields[i].substring(6);
+            } else if (!fields[i].isEmpty()) {
+                options.append(' ').append(fields[i]);
+            }
+        }
+        ReportQuery query;
+        try {
+            query = ReportQuery.parse(options.toString());
+        } catch (IllegalArgumentException e) {
+            out.println("ERR SYNTAX " + e.getMessage());
+            return;
+        }
+        if (query.isByExposure()) {
+            out.println("ERR SYNTAX top= ranks by exposure across processes, which this router does not do");
+            return;
+        }
+        if (query.getPageSize() == 0) {
+            fanOut(upstreams, "REPORT" + options, false, out);
+            return;
+        }
+        int shard = 0;
+        String shardCursor = null;
+        if (after != null) {
+            int colon = after.indexOf(':');
+            try {
+                shard = Integer.parseInt(colon < 0 ? after : after.substring(0, colon));
+            } catch (NumberFormatException e) {
+                shard = -1;
+            }
+            if (shard < 0 || shard >= shardCount) {
+                out.println("ERR SYNTAX Invalid report cursor: " + after);
+                return;
+            }
+            shardCursor = colon < 0 ? null : after.substring(colon + 1);
+        }
+        Upstream upstream = upstream(upstreams, shard);
+        upstream.send("REPORT" + options + (shardCursor == null ? "" : " after=" + shardCursor));
+        String next = null;
+        String line;
+        while (!isStatus(line = upstream.readLine())) {
+            if (line.startsWith("NEXT ")) {
+                next = shard + ":" + line.substring(5);
+            } else {
+                out.println(line);
+            }
+        }
+        if (line.equals("OK") && next == null && shard + 1 < shardCount) {
+            next = Integer.toString(shard + 1);
+        }
+        if (next != null && line.equals("OK")) {
+            out.println("NEXT " + next);
+        }
+        out.println(line);
+    }
+
+    private int shardOf(String customerID) {
+        return partitioning.shardOf(CustomerIds.encode(customerID), shardCount);
+    }
+
+    // The session's connection to a shard, opened on first use
+    private Upstream upstream(Upstream[] upstreams, int shard) throws IOException {
+        if (upstreams[shard] == null) {
+            upstreams[shard] = new Upstream(basePort + shard);
+        }
+        return upstreams[shard];
+    }
+
+    private static boolean isStatus(String line) {
+        return line.equals("OK") || line.startsWith("ERR ");
+    }
+
+    // A connection from one client's session to one shard process
+    private static final class Upstream implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        Upstream(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 16 * 1024);
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+        }
+
+        String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Shard on port " + socket.getPort() + " closed the connection");
+            }
+            return line;
+        }
+
+        // Method to send a request and relay its answer, returns the status line, which is not relayed
+        String relay(String request, ReportWriter to) throws IOException {
+            send(request);
+            return relayAnswer(to);
+        }
+
+        // Method to relay the report lines of an answer, returns its status line
+        String relayAnswer(ReportWriter to) throws IOException {
+            String line;
+            while (!isStatus(line = readLine())) {
+                to.println(line);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// The book split into shards, each a BankService of its own over a shard of a ShardedRegistry
+// Every shard has its own customers, locks, loan index, journal and snapshot, and is built, checkpointed and
+// scanned independently. Operations on one customer go to their shard alone; a batch is split by shard and the
+// shards apply their parts in parallel. Reports, bulk eligibility and checkpoints fan out over the shards in
+// parallel and merge what they return. With a single shard, or a process holding one shard of a ShardRouter's
+// book, everything goes straight to that shard's BankService and reports keep their usual cursors.
+//
+// Reports across shards read one BookView per shard, opened together: each shard is read as of one moment, the
+// shards as of nearly the same one. A page across shards is merged from a page of each shard, fetched in
+// parallel: in exposure order highest first, ties by shard; otherwise shard by shard, each in registration order.
+// Its cursor lists where each shard resumes, "*" for a shard not started and "-" for one finished.
+// A whole-book print streams the shards in order while every shard reads its next pages ahead.
+//
+// System properties, read by XYZBank:
+//   xyzbank.shards               number of shards (default 1)
+//   xyzbank.shards.partitioning  hash or prefix, see Partitioning (default hash)
+//   xyzbank.shard                the one shard held by this process, for the processes behind a ShardRouter
+class ShardedBook implements AutoCloseable {
+    // Pages each shard reads ahead of a whole-book print
+    private static final int READ_AHEAD_PAGES = 2;
+    private static final String NOT_STARTED = "*";
+    private static final String FINISHED = "-";
+    // Put by a shard's reader that failed, so the print stops waiting for it
+    private static final ReportPage FAILED = new ReportPage(Collections.emptyList(), new int[0], false, null);
+
+    private final CustomerRegistry registry;
+    private final Partitioning partitioning;
+    // One service per shard, null for shards held by another process
+    private final BankService[] shards;
+    private final CustomerReport[] reports;
+    // The shards held by this process
+    private final int[] local;
+    private final BankMetrics metrics;
+    private final ExecutorService workers = BankServer.newThreadPerTaskExecutor("shard");
+
+    // registry: a ShardedRegistry, or any other registry as the only shard
+    // persistence: the snapshot and journal of each shard, by shard; entries may be null
+    public ShardedBook(CustomerRegistry registry, BookPersistence[] persistence, BankMetrics metrics) {
+        this.registry = registry;
+        this.metrics = metrics;
+        CustomerRegistry[] parts;
+        if (registry instanceof ShardedRegistry) {
+            ShardedRegistry sharded = (ShardedRegistry) registry;
+            this.partitioning = sharded.getPartitioning();
+            parts = new CustomerRegistry[sharded.getShardCount()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = sharded.getShard(i);
+            }
+        } else {
+            this.partitioning = Partitioning.HASH;
+            parts = new CustomerRegistry[] {registry};
+        }
+        this.shards = new BankService[parts.length];
+        this.reports = new CustomerReport[parts.length];
+
+        // Each shard builds its loan index on a thread of its own
+        List<Future<BankService>> builds = new ArrayList<>(parts.length);
+        for (int i = 0; i < parts.length; i++) {
+            CustomerRegistry part = parts[i];
+            BookPersistence shardPersistence = persistence[i];
+            builds.add(part == null ? null : workers.submit(() -> new BankService(part, shardPersistence, metrics)));
+        }
+        for (int i = 0; i < parts.length; i++) {
+            if (builds.get(i) != null) {
+                shards[i] = await(builds.get(i), RuntimeException.class);
+                reports[i] = new CustomerReport(shards[i]);
+            }
+        }
+        int[] held = new int[parts.length];
+        int count = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (shards[i] != null) {
+                held[count++] = i;
+            }
+        }
+        this.local = Arrays.copyOf(held, count);
+        metrics.setLoanTotals(this::getLoanTotals);
+    }
+
+    public CustomerRegistry getRegistry() {
+        return registry;
+    }
+
+    public BankMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // The service of a shard, or null when another process holds it
+    public BankService getShard(int shard) {
+        return shards[shard];
+    }
+
+    public int shardOf(int code) {
+        return partitioning.shardOf(code, shards.length);
+    }
+
+    // Method to register a new customer
+    public BankService.Status registerCustomer(String customerID, int income) {
+        return apply(BankCommand.register(customerID, income));
+    }
+
+    // Method to update a customer's annual income
+    public BankService.Status updateIncome(String customerID, int income) {
+        return apply(BankCommand.updateIncome(customerID, income));
+    }
+
+    // Method to update a customer's eligibility status
+    public BankService.Status updateEligibility(String customerID, boolean eligible) {
+        return apply(BankCommand.updateEligibility(customerID, eligible));
+    }
+
+    // Method to add a loan, with the same checks as the menu: eligibility status and a unique record ID
+    public BankService.Status addLoan(String customerID, Loan loan) {
+        return apply(BankCommand.addLoan(customerID, loan));
+    }
+
+    // Method to remove every loan of a customer with the given record ID
+    public BankService.Status removeLoan(String customerID, int recordID) {
+        return apply(BankCommand.removeLoan(customerID, recordID));
+    }
+
+    // Method to apply one change on the customer's shard and wait until it is durable
+    public BankService.Status apply(BankCommand command) {
+        BankService shard = shards[shardOf(command.getCustomerCode())];
+        if (shard == null) {
+            return metrics.record(command.getKind().getOperation(), metrics.start(), BankService.Status.WRONG_SHARD);
+        }
+        return shard.apply(command);
+    }
+
+    // Method to apply commands[from, to), in which the commands of a customer are next to each other, leaving
+    // one status per command in results
+    // The range is split by shard, keeping each customer's commands together and in order, and the shards apply
+    // their parts in parallel, each with one wait for its own journal
+    public void applyAll(BankCommand[] commands, int from, int to, BankService.Status[] results) {
+        if (shards.length == 1) {
+            applyTo(0, commands, from, to, results);
+            return;
+        }
+        int[] counts = new int[shards.length];
+        int[] shardOfCommand = new int[to - from];
+        for (int i = from; i < to; i++) {
+            shardOfCommand[i - from] = shardOf(commands[i].getCustomerCode());
+            counts[shardOfCommand[i - from]]++;
+        }
+        BankCommand[][] parts = new BankCommand[shards.length][];
+        int[][] indexes = new int[shards.length][];
+        for (int shard = 0; shard < shards.length; shard++) {
+            parts[shard] = new BankCommand[counts[shard]];
+            indexes[shard] = new int[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (int i = from; i < to; i++) {
+            int shard = shardOfCommand[i - from];
+            parts[shard][counts[shard]] = commands[i];
+            indexes[shard][counts[shard]++] = i;
+        }
+
+        BankService.Status[][] statuses = new BankService.Status[shards.length][];
+        List<Future<?>> applies = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (counts[shard] == 0) {
+                continue;
+            }
+            int target = shard;
+            statuses[shard] = new BankService.Status[counts[shard]];
+            applies.add(workers.submit(() -> applyTo(target, parts[target], 0, counts[target], statuses[target])));
+        }
+        for (Future<?> apply : applies) {
+            await(apply, RuntimeException.class);
+        }
+        for (int shard = 0; shard < shards.length; shard++) {
+            for (int i = 0; i < counts[shard]; i++) {
+                results[indexes[shard][i]] = statuses[shard][i];
+            }
+        }
+    }
+
+    private void applyTo(int shard, BankCommand[] commands, int from, int to, BankService.Status[] results) {
+        if (shards[shard] != null) {
+            shards[shard].applyAll(commands, from, to, results);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            results[i] = metrics.record(commands[i].getKind().getOperation(), metrics.start(),
+                    BankService.Status.WRONG_SHARD);
+        }
+    }
+
+    // Method to read a customer consistently on their shard, returns null if the customer does not exist
+    // The reader runs under the customer's lock and must not keep the Customer reference
+    public <T> T query(String customerID, Function<? super Customer, T> reader) {
+        BankService shard = serviceFor(customerID);
+        return shard == null ? null : shard.query(customerID, reader);
+    }
+
+    // Method to check whether a customer may arrange new loans, returns null if the customer does not exist
+    public Boolean isEligible(String customerID) {
+        BankService shard = serviceFor(customerID);
+        return shard == null ? null : shard.isEligible(customerID);
+    }
+
+    // Method to check whether a customer has a loan with this record ID
+    public boolean hasLoan(String customerID, int recordID) {
+        BankService shard = serviceFor(customerID);
+        return shard != null && shard.hasLoan(customerID, recordID);
+    }
+
+    // Method to check whether a customer exists
+    public boolean exists(String customerID) {
+        BankService shard = serviceFor(customerID);
+        return shard != null && shard.exists(customerID);
+    }
+
+    public int customerCount() {
+        int count = 0;
+        for (BankService shard : shards) {
+            if (shard != null) {
+                count += shard.customerCount();
+            }
+        }
+        return count;
+    }
+
+    // Method to compact and snapshot every shard in parallel, see BankService.checkpoint
+    // Each shard pauses only its own writers
+    public void checkpoint() throws IOException {
+        if (local.length == 1) {
+            shards[local[0]].checkpoint();
+            return;
+        }
+        List<Future<Void>> checkpoints = new ArrayList<>(shards.length);
+        for (int shard : local) {
+            checkpoints.add(workers.submit(() -> {
+                shards[shard].checkpoint();
+                return null;
+            }));
+        }
+        for (Future<Void> checkpoint : checkpoints) {
+            await(checkpoint, IOException.class);
+        }
+    }
+
+    // Method to total the loans held per type across the shards held here, each counted in parallel
+    public LoanTotals getLoanTotals() {
+        List<Future<LoanTotals>> counts = new ArrayList<>(local.length);
+        for (int shard : local) {
+            counts.add(workers.submit(shards[shard]::getLoanTotals));
+        }
+        LoanTotals totals = new LoanTotals();
+        for (Future<LoanTotals> count : counts) {
+            totals.add(await(count, RuntimeException.class));
+        }
+        return totals;
+    }
+
+    // Method to check every customer against the eligibility rule and store the statuses that differ from it,
+    // returns the number stored; stats receives the aggregate of the book
+    // Each shard is evaluated from a view in parallel, then the differences are applied as ELIGIBILITY commands
+    // through applyAll, under the customers' locks and journaled like any other change. A customer changed between
+    // the two steps is given the status evaluated from the view.
+    public int storeEligibility(BulkEligibilityEngine engine, PortfolioStats stats) {
+        List<List<BankCommand>> changes = new ArrayList<>(local.length);
+        List<Future<PortfolioStats>> runs = new ArrayList<>(local.length);
+        for (int shard : local) {
+            List<BankCommand> shardChanges = new ArrayList<>();
+            changes.add(shardChanges);
+            runs.add(workers.submit(() -> {
+                try (BookView view = shards[shard].openView()) {
+                    return engine.run(view, shardChanges);
+                }
+            }));
+        }
+        List<BankCommand> all = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i++) {
+            stats.merge(await(runs.get(i), RuntimeException.class));
+            all.addAll(changes.get(i));
+        }
+        BankCommand[] commands = all.toArray(new BankCommand[0]);
+        BankService.Status[] results = new BankService.Status[commands.length];
+        applyAll(commands, 0, commands.length, results);
+        int stored = 0;
+        for (BankService.Status result : results) {
+            if (result == BankService.Status.OK) {
+                stored++;
+            }
+        }
+        return stored;
+    }
+
+    // Method to check every customer against the eligibility rule, each shard from a view in parallel, and
+    // aggregate the book; the stored statuses are not changed
+    public PortfolioStats evaluateEligibility(BulkEligibilityEngine engine) {
+        List<Future<PortfolioStats>> runs = new ArrayList<>(shards.length);
+        for (int shard : local) {
+            runs.add(workers.submit(() -> {
+                try (BookView view = shards[shard].openView()) {
+                    return engine.run(view);
+                }
+            }));
+        }
+        PortfolioStats stats = new PortfolioStats();
+        for (Future<PortfolioStats> run : runs) {
+            stats = stats.merge(await(run, RuntimeException.class));
+        }
+        return stats;
+    }
+
+    // Method to write the query's page, or every match when it has no page size; returns the next page's cursor,
+    // or null if there are no more customers
+    public String print(ReportQuery query, ReportWriter out) {
+        if (local.length == 1) {
+            return reports[local[0]].print(query, out);
+        }
+        if (query.isByExposure() || query.getPageSize() > 0) {
+            return printPage(query, out);
+        }
+        printAll(query, out);
+        return null;
+    }
+
+    // Merges one page of every shard into the page of the book
+    private String printPage(ReportQuery query, ReportWriter out) {
+        // A page of the top k without a page size is all of the top k
+        int pageSize = query.pageLimit(query.getPageSize() > 0 ? query.getPageSize() : query.getTop());
+        String[] after = parseCursor(query.getAfter());
+        List<Future<ReportPage>> fetches = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (shards[shard] == null || after[shard].equals(FINISHED)) {
+                after[shard] = FINISHED;
+                fetches.add(null);
+                continue;
+            }
+            ReportQuery shardQuery = query.page(pageSize, after[shard].equals(NOT_STARTED) ? null : after[shard]);
+            CustomerReport report = reports[shard];
+            fetches.add(workers.submit(() -> report.fetch(shardQuery)));
+        }
+        ReportPage[] pages = new ReportPage[shards.length];
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (fetches.get(shard) != null) {
+                pages[shard] = await(fetches.get(shard), RuntimeException.class);
+            }
+        }
+
+        int[] taken = new int[shards.length];
+        int remaining = pageSize;
+        if (query.isByExposure()) {
+            // Highest exposure first among the shards' next customers, the lower shard on a tie
+            while (remaining > 0) {
+                int best = -1;
+                for (int shard = 0; shard < shards.length; shard++) {
+                    if (pages[shard] == null || taken[shard] == pages[shard].getCustomers().size()) {
+                        continue;
+                    }
+                    if (best < 0 || exposureAt(pages[shard], taken[shard]) > exposureAt(pages[best], taken[best])) {
+                        best = shard;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                printCustomer(pages[best].getCustomers().get(taken[best]++), out);
+                remaining--;
+            }
+        } else {
+            for (int shard = 0; shard < shards.length && remaining > 0; shard++) {
+                if (pages[shard] == null) {
+                    continue;
+                }
+                List<Customer> customers = pages[shard].getCustomers();
+                while (remaining > 0 && taken[shard] < customers.size()) {
+                    printCustomer(customers.get(taken[shard]++), out);
+                    remaining--;
+                }
+            }
+        }
+
+        boolean more = false;
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (pages[shard] != null) {
+                if (taken[shard] > 0) {
+                    String next = pages[shard].cursorAfter(taken[shard] - 1);
+                    after[shard] = next == null ? FINISHED : next;
+                } else if (pages[shard].getCustomers().isEmpty()) {
+                    after[shard] = FINISHED;
+                }
+            }
+            more |= !after[shard].equals(FINISHED);
+        }
+        return query.nextCursor(pageSize - remaining, more ? String.join(",", after) : null);
+    }
+
+    // Streams every match shard by shard while each shard reads its next pages ahead from its own view
+    private void printAll(ReportQuery query, ReportWriter out) {
+        List<BlockingQueue<ReportPage>> queues = new ArrayList<>(shards.length);
+        List<Future<?>> readers = new ArrayList<>(shards.length);
+        try {
+            for (int shard : local) {
+                BlockingQueue<ReportPage> queue = new ArrayBlockingQueue<>(READ_AHEAD_PAGES);
+                BankService service = shards[shard];
+                CustomerReport report = reports[shard];
+                queues.add(queue);
+                readers.add(workers.submit(() -> {
+                    try (BookView open = service.openView()) {
+                        ReportQuery page = query;
+                        while (true) {
+                            ReportPage result = report.fetch(page, open);
+                            queue.put(result);
+                            if (result.getNextCursor() == null) {
+                                return null;
+                            }
+                            page = query.withCursor(result.getNextCursor());
+                        }
+                    } catch (RuntimeException | Error e) {
+                        queue.clear();
+                        queue.put(FAILED);
+                        throw e;
+                    }
+                }));
+            }
+            for (int i = 0; i < queues.size(); i++) {
+                while (true) {
+                    ReportPage page = queues.get(i).take();
+                    if (page == FAILED) {
+                        await(readers.get(i), RuntimeException.class);
+                    }
+                    for (Customer customer : page.getCustomers()) {
+                        printCustomer(customer, out);
+                    }
+                    if (page.getNextCursor() == null) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while printing the book", e);
+        } finally {
+            for (Future<?> reader : readers) {
+                reader.cancel(true);
+            }
+        }
+    }
+
+    private static void printCustomer(Customer customer, ReportWriter out) {
+        out.printCustomer(customer, customer.isEligibleForNewLoans());
+        out.println(); //an empty line between customers
+    }
+
+    private static double exposureAt(ReportPage page, int index) {
+        return page.getCustomers().get(index).getTotalExposure();
+    }
+
+    // The cursor of each shard in a cursor across shards, NOT_STARTED for all of them when there is none
+    private String[] parseCursor(String cursor) {
+        String[] after = new String[shards.length];
+        if (cursor == null) {
+            Arrays.fill(after, NOT_STARTED);
+            return after;
+        }
+        String[] parts = cursor.split(",", -1);
+        if (parts.length != shards.length) {
+            throw new IllegalArgumentException("Invalid report cursor: " + cursor);
+        }
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (parts[shard].isEmpty()) {
+                throw new IllegalArgumentException("Invalid report cursor: " + cursor);
+            }
+            after[shard] = parts[shard];
+        }
+        return after;
+    }
+
+    // The shard of a customer ID, or null when another process holds it; invalid IDs go to shard 0, which
+    // rejects them as a single book would
+    private BankService serviceFor(String customerID) {
+        return shards[shardOf(CustomerIds.encode(customerID))];
+    }
+
+    // Method to stop the shards' worker threads
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    // Method to wait for a shard's task, rethrowing what it failed with: unchecked exceptions and errors as they
+    // are, an exception of the checked type as that type
+    static <T, E extends Exception> T await(Future<T> task, Class<E> checked) throws E {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (checked.isInstance(cause)) {
+                throw checked.cast(cause);
+            }
+            throw new IllegalStateException("Shard task failed", cause);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// How customer codes are spread over the shards of a book
+enum Partitioning {
+    // A mixed hash of the code, so every shard gets an even share of any ID range
+    HASH,
+    // Contiguous ranges of the three-letter prefix, so a prefix report or a run of nearby IDs stays on one shard
+    PREFIX;
+
+    private static final int PREFIXES = 26 * 26 * 26;
+
+    // Method to find the shard of a customer code, 0 <= shard < shards; codes of invalid IDs go to shard 0
+    public int shardOf(int code, int shards) {
+        if (shards == 1 || code == CustomerIds.NONE) {
+            return 0;
+        }
+        if (this == PREFIX) {
+            return (int) ((long) (code / 1000) * shards / PREFIXES);
+        }
+        int hash = code * 0x9E3779B9;
+        return (int) (((hash ^ (hash >>> 16)) & 0xFFFFFFFFL) % shards);
+    }
+
+    // Method to parse a partitioning name, case-insensitive
+    public static Partitioning parse(String name) {
+        for (Partitioning partitioning : values()) {
+            if (partitioning.name().equalsIgnoreCase(name.trim())) {
+                return partitioning;
+            }
+        }
+        throw new IllegalArgumentException("Unknown partitioning: " + name + " (expected hash or prefix)");
+    }
+}
+
+// Customer registry split into shards, each a registry of its own: heap, off-heap or disk
+// Lookups and registrations go to the customer's shard; positions, scans and the size run over the shards in
+// order, so everything written against one CustomerRegistry works on a sharded book unchanged.
+// A shard held by another process is null here: its customers are not found, and adding them is refused, which
+// is how the processes behind a ShardRouter each keep only their own part of an import or a generated book.
+// Like CustomerRegistry, it is not thread-safe; each shard's BankService guards its own shard.
+class ShardedRegistry extends CustomerRegistry {
+    private final Partitioning partitioning;
+    private final CustomerRegistry[] shards;
+
+    // shards: one registry per shard, null for shards held by another process
+    public ShardedRegistry(Partitioning partitioning, CustomerRegistry[] shards) {
+        super(0);
+        if (shards.length < 1) {
+            throw new IllegalArgumentException("A book needs at least one shard");
+        }
+        this.partitioning = partitioning;
+        this.shards = shards.clone();
+    }
+
+    // Method to spread the customers of a registry over new heap registries, one per shard
+    public static CustomerRegistry[] split(CustomerRegistry registry, Partitioning partitioning, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        CustomerRegistry[] split = new CustomerRegistry[shards];
+        if (shards == 1) {
+            split[0] = registry;
+            return split;
+        }
+        for (int i = 0; i < shards; i++) {
+            split[i] = new CustomerRegistry(registry.size() / shards + 16);
+        }
+        for (Customer customer : registry) {
+            split[partitioning.shardOf(customer.getCustomerCode(), shards)].add(customer);
+        }
+        return split;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    // The registry of a shard, or null when another process holds it
+    public CustomerRegistry getShard(int shard) {
+        return shards[shard];
+    }
+
+    public int shardOf(int code) {
+        return partitioning.shardOf(code, shards.length);
+    }
+
+    // Whether the customer's shard is held here
+    @Override
+    public boolean owns(int code) {
+        return shards[shardOf(code)] != null;
+    }
+
+    // Method to add a customer to their shard, returns false if the ID is taken or another process holds the shard
+    @Override
+    public boolean add(Customer customer) {
+        int code = customer.getCustomerCode();
+        if (code == CustomerIds.NONE) {
+            throw new IllegalArgumentException("Customer has no ID");
+        }
+        CustomerRegistry shard = shards[shardOf(code)];
+        return shard != null && shard.add(customer);
+    }
+
+    @Override
+    public Customer find(int code) {
+        if (code == CustomerIds.NONE) {
+            return null;
+        }
+        CustomerRegistry shard = shards[shardOf(code)];
+        return shard == null ? null : shard.find(code);
+    }
+
+    // Positions run through the shards in order, each shard's customers in registration order
+    @Override
+    public Customer get(int index) {
+        int rest = index;
+        if (rest >= 0) {
+            for (CustomerRegistry shard : shards) {
+                if (shard == null) {
+                    continue;
+                }
+                if (rest < shard.size()) {
+                    return shard.get(rest);
+                }
+                rest -= shard.size();
+            }
+        }
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (CustomerRegistry shard : shards) {
+            if (shard != null) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isFragmented() {
+        for (CustomerRegistry shard : shards) {
+            if (shard != null && shard.isFragmented()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void compact() {
+        for (CustomerRegistry shard : shards) {
+            if (shard != null && shard.isFragmented()) {
+                shard.compact();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (CustomerRegistry shard : shards) {
+            if (shard != null) {
+                shard.flush();
+            }
+        }
+    }
+
+    // The customers held in each shard, then the storage statistics of the shards
+    @Override
+    public String formatStats() {
+        StringBuilder stats = new StringBuilder();
+        stats.append(String.format("Shards: %d by %s, customers", shards.length, partitioning.name().toLowerCase()));
+        for (int i = 0; i < shards.length; i++) {
+            stats.append(i == 0 ? " " : " / ").append(shards[i] == null ? "-" : Integer.toString(shards[i].size()));
+        }
+        stats.append(System.lineSeparator());
+        for (CustomerRegistry shard : shards) {
+            if (shard != null) {
+                stats.append(shard.formatStats());
+            }
+        }
+        return stats.toString();
+    }
+
+    // Method to import a customers file and, optionally, a loans file into every shard held here in parallel
+    // Each shard's loader reads the whole file and keeps its own rows, so the shards need no lock between them;
+    // the results are merged, with rows for other processes' shards counted as skipped
+    public List<BulkLoader.LoadResult> load(Path customersFile, Path loansFile) throws IOException {
+        ExecutorService workers = BankServer.newThreadPerTaskExecutor("shard-import");
+        List<Future<BulkLoader.LoadResult[]>> loads = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == null) {
+                continue;
+            }
+            BulkLoader loader = new BulkLoader(only(i));
+            loads.add(workers.submit(() -> new BulkLoader.LoadResult[] {
+                    loader.loadCustomers(customersFile),
+                    loansFile == null ? null : loader.loadLoans(loansFile)}));
+        }
+        BulkLoader.LoadResult customers = null;
+        BulkLoader.LoadResult loans = null;
+        try {
+            for (Future<BulkLoader.LoadResult[]> load : loads) {
+                BulkLoader.LoadResult[] results = ShardedBook.await(load, IOException.class);
+                customers = customers == null ? results[0] : customers.merge(results[0]);
+                loans = loans == null ? results[1] : loans.merge(results[1]);
+            }
+        } finally {
+            workers.shutdown();
+        }
+        List<BulkLoader.LoadResult> results = new ArrayList<>(2);
+        results.add(customers);
+        if (loans != null) {
+            results.add(loans);
+        }
+        return results;
+    }
+
+    // A registry over one shard alone, owning none of the others
+    private ShardedRegistry only(int shard) {
+        CustomerRegistry[] one = new CustomerRegistry[shards.length];
+        one[shard] = shards[shard];
+        return new ShardedRegistry(partitioning, one);
+    }
+
+    // Customers are iterated shard by shard, as get() numbers them
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<Customer>() {
+            private int shard = -1;
+            private Iterator<Customer> current;
+
+            @Override
+            public boolean hasNext() {
+                while (current == null || !current.hasNext()) {
+                    if (++shard >= shards.length) {
+                        return false;
+                    }
+                    current = shards[shard] == null ? null : shards[shard].iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Customer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+}
@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+// Binary snapshot of the whole book, written with NIO and reloaded through a memory-mapped file
+//
+// Layout (big-endian):
+//   header    magic "XYZB", version, customer count, loan count, last journal generation covered (version 2)
+//   customer  code, income, eligibility byte, loan count, then that many loans
+//   loan      record ID, type ordinal byte, interest rate, term left, amount left, overpayment
+//   trailer   CRC32C of everything before it
+class SnapshotStore {
+    public static final int MAGIC = 0x58595A42; // "XYZB"
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE_V1 = 4 + 4 + 4 + 8;
+    private static final int HEADER_SIZE = HEADER_SIZE_V1 + 8;
+    private static final int CUSTOMER_SIZE = 4 + 4 + 1 + 4;
+    private static final int LOAN_SIZE = 4 + 1 + 8 + 8 + 8 + 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Files larger than this are mapped in several windows
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private final Path path;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pending;
+    // Journal generation covered by the last snapshot loaded
+    private long journalGeneration;
+
+    public SnapshotStore(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    // Journal generation covered by the last snapshot loaded, 0 if none
+    public long getJournalGeneration() {
+        return journalGeneration;
+    }
+
+    // Method to write a snapshot and wait for it to reach the disk
+    public void write(CustomerRegistry registry) throws IOException {
+        write(registry, 0);
+    }
+
+    // Same, recording that journal segments up to journalGeneration are included
+    public void write(CustomerRegistry registry, long journalGeneration) throws IOException {
+        writeImage(Image.capture(registry, journalGeneration));
+    }
+
+    public Future<?> writeAsync(BookView view) {
+        return writeAsync(view, 0, null);
+    }
+
+    // Method to snapshot a view of the book in the background: the writer thread copies the view into primitive
+    // columns, then encodes and writes them, so callers do not wait at all. The view is closed once copied.
+    // A snapshot already running is returned instead, and the view closed.
+    // onWritten runs on the writer thread once the snapshot is safely on disk.
+    public synchronized Future<?> writeAsync(BookView view, long journalGeneration, Runnable onWritten) {
+        if (isWriting()) {
+            view.close();
+            return pending;
+        }
+        pending = writer.submit(() -> {
+            Image image;
+            try {
+                image = Image.capture(view, journalGeneration);
+            } finally {
+                view.close();
+            }
+            writeImage(image);
+            if (onWritten != null) {
+                onWritten.run();
+            }
+            return null;
+        });
+        return pending;
+    }
+
+    // Whether a background snapshot is still being written
+    public synchronized boolean isWriting() {
+        return pending != null && !pending.isDone();
+    }
+
+    // Method to wait for a background snapshot, rethrowing its failure
+    public void awaitPending() throws IOException {
+        Future<?> current;
+        synchronized (this) {
+            current = pending;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for snapshot", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Snapshot failed", e.getCause());
+        }
+    }
+
+    // Method to load the snapshot into a new registry, verifying version and checksum first
+    public CustomerRegistry load() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE_V1 + 4) {
+                throw new IOException(path + ": file too short for a snapshot");
+            }
+            verifyChecksum(channel, size);
+            MappedReader in = new MappedReader(channel, size - 4);
+            in.ensure(HEADER_SIZE_V1);
+            if (in.buffer.getInt() != MAGIC) {
+                throw new IOException(path + ": not a snapshot file");
+            }
+            int version = in.buffer.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(path + ": unsupported snapshot version " + version);
+            }
+            int customerCount = in.buffer.getInt();
+            in.buffer.getLong(); // loan count, for sizing by other readers
+            if (version >= 2) {
+                in.ensure(8);
+                journalGeneration = in.buffer.getLong();
+            } else {
+                journalGeneration = 0;
+            }
+
+            CustomerRegistry registry = new CustomerRegistry(customerCount);
+            for (int i = 0; i < customerCount; i++) {
+                in.ensure(CUSTOMER_SIZE);
+                Customer customer = new Customer();
+                customer.setCustomerCode(in.buffer.getInt());
+                customer.setCustomerIncome(in.buffer.getInt());
+                customer.setEligibilityStatus(in.buffer.get() != 0);
+                int loanCount = in.buffer.getInt();
+                for (int j = 0; j < loanCount; j++) {
+                    in.ensure(LOAN_SIZE);
+                    int recordID = in.buffer.getInt();
+                    int type = in.buffer.get();
+                    double interestRate = in.buffer.getDouble();
+                    double loanTermLeft = in.buffer.getDouble();
+                    double amountLeftToPay = in.buffer.getDouble();
+                    double overpayment = in.buffer.getDouble();
+                    customer.addCreditRecord(LoanTypes.byOrdinal(type).create(recordID, interestRate, loanTermLeft, overpayment,
+                            amountLeftToPay));
+                }
+                if (!registry.add(customer)) {
+                    throw new IOException(path + ": duplicate customer " + customer.getCustomerID());
+                }
+            }
+            return registry;
+        }
+    }
+
+    private void writeImage(Image image) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(image.codes.length).putLong(image.loans.size())
+                    .putLong(image.journalGeneration);
+            LoanStore loans = image.loans;
+            for (int i = 0; i < image.codes.length; i++) {
+                int code = image.codes[i];
+                int first = loans.firstRow(code);
+                int count = loans.rowCount(code);
+                if (buffer.remaining() < CUSTOMER_SIZE) {
+                    drain(buffer, channel, checksum);
+                }
+                buffer.putInt(code).putInt(image.incomes[i]).put((byte) (image.eligible[i] ? 1 : 0)).putInt(count);
+                for (int row = first; row < first + count; row++) {
+                    if (buffer.remaining() < LOAN_SIZE) {
+                        drain(buffer, channel, checksum);
+                    }
+                    buffer.putInt(loans.recordID(row)).put((byte) loans.type(row)).putDouble(loans.interestRate(row))
+                            .putDouble(loans.loanTermLeft(row)).putDouble(loans.amountLeftToPay(row))
+                            .putDouble(loans.overpayment(row));
+                }
+            }
+            drain(buffer, channel, checksum);
+            buffer.putInt((int) checksum.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Checksums and writes out the filled part of the buffer
+    private static void drain(ByteBuffer buffer, FileChannel channel, CRC32C checksum) throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void verifyChecksum(FileChannel channel, long size) throws IOException {
+        CRC32C checksum = new CRC32C();
+        for (long offset = 0; offset < size - 4; offset += MAP_WINDOW) {
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_WINDOW, size - 4 - offset)));
+        }
+        ByteBuffer stored = ByteBuffer.allocate(4);
+        channel.read(stored, size - 4);
+        if (stored.flip().getInt() != (int) checksum.getValue()) {
+            throw new IOException(path + ": snapshot checksum mismatch");
+        }
+    }
+
+    // Sequential reader over a file mapped in windows of at most MAP_WINDOW bytes
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final long end;
+        private long windowStart;
+        private MappedByteBuffer buffer;
+
+        MappedReader(FileChannel channel, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            map(0);
+        }
+
+        // Makes sure the next bytes of a record are inside the current window
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + buffer.position();
+            if (end - position < bytes) {
+                throw new IOException("Snapshot truncated at offset " + position);
+            }
+            map(position);
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_WINDOW, end - start));
+        }
+    }
+
+    // Point-in-time copy of the book in primitive columns, cheap to take and safe to write from another thread
+    static class Image {
+        private final int[] codes;
+        private final int[] incomes;
+        private final boolean[] eligible;
+        private final LoanStore loans;
+        private final long journalGeneration;
+
+        private Image(int[] codes, int[] incomes, boolean[] eligible, LoanStore loans, long journalGeneration) {
+            this.codes = codes;
+            this.incomes = incomes;
+            this.eligible = eligible;
+            this.loans = loans;
+            this.journalGeneration = journalGeneration;
+        }
+
+        static Image capture(CustomerRegistry registry, long journalGeneration) {
+            int size = registry.size();
+            int[] codes = new int[size];
+            int[] incomes = new int[size];
+            boolean[] eligible = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                Customer customer = registry.get(i);
+                codes[i] = customer.getCustomerCode();
+                incomes[i] = customer.getCustomerIncome();
+                eligible[i] = customer.isEligibilityStatus();
+            }
+            return new Image(codes, incomes, eligible, LoanStore.fromRegistry(registry), journalGeneration);
+        }
+
+        static Image capture(BookView view, long journalGeneration) {
+            int size = view.size();
+            int[] codes = new int[size];
+            int[] incomes = new int[size];
+            boolean[] eligible = new boolean[size];
+            int[] next = new int[1];
+            view.forEach(customer -> {
+                int i = next[0]++;
+                codes[i] = customer.getCustomerCode();
+                incomes[i] = customer.getCustomerIncome();
+                eligible[i] = customer.isEligibilityStatus();
+            });
+            return new Image(codes, incomes, eligible, LoanStore.fromView(view), journalGeneration);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Seeded synthetic book for scale testing: customers with valid IDs, incomes, and credit records whose type mix,
+// rates, terms and balances follow rough retail-bank distributions
+//
+// Customers are generated in fixed chunks, each from its own generator derived from the seed and the chunk number,
+// so the output depends only on the seed and the customer count, never on the thread count. Chunks are generated in
+// parallel and consumed in order, with at most a few chunks per thread in memory at once.
+// Output goes either straight into a CustomerRegistry or to files in the BulkLoader format.
+// Run with: java WorkloadGenerator <customers> <customersFile> <loansFile> [seed] [threads]
+class WorkloadGenerator {
+    private static final int CHUNK_SIZE = 1 << 16;
+    // Chunks in flight per thread, bounding memory
+    private static final int CHUNKS_PER_THREAD = 2;
+    // Customer i gets code (i * CODE_STRIDE + CODE_OFFSET) mod CAPACITY; the stride is coprime with CAPACITY
+    // (2^6 * 5^3 * 13^3), so the first CAPACITY customers get distinct, scattered IDs
+    private static final long CODE_STRIDE = 9_999_991;
+    private static final long CODE_OFFSET = 1_234_567;
+
+    // Share of loans by type, in LoanTypes ordinal order (Auto, Builder, Mortgage, Personal, Other), cumulative
+    private static final double[] TYPE_CUMULATIVE = {0.30, 0.38, 0.58, 0.88, 1.00};
+    // Per type: rate range (%), term range (months), balance range (x annual income)
+    private static final double[][] RATE_RANGE = {{4, 10}, {4, 8}, {3, 7}, {7, 18}, {6, 15}};
+    private static final int[][] TERM_MONTHS = {{6, 84}, {6, 60}, {12, 360}, {3, 60}, {3, 120}};
+    private static final double[][] BALANCE_RANGE = {{0.05, 0.6}, {0.3, 2.0}, {0.8, 4.0}, {0.02, 0.3}, {0.05, 0.5}};
+    // Share of customers by number of loans 0, 1, 2 ... as a cumulative distribution
+    private static final double[] LOAN_COUNT_CUMULATIVE = {0.15, 0.45, 0.70, 0.85, 0.93, 0.97, 0.99, 1.00};
+
+    private final long seed;
+    private final int threads;
+
+    public WorkloadGenerator(long seed, int threads) {
+        this.seed = seed;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java WorkloadGenerator <customers> <customersFile> <loansFile> [seed] [threads]");
+            return;
+        }
+        int customers = Integer.parseInt(args[0]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        long loans = new WorkloadGenerator(seed, threads).writeFiles(customers, Paths.get(args[1]), Paths.get(args[2]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %d customers and %d loans in %.1f s (%.0f customers/s)%n", customers, loans, seconds,
+                customers / seconds);
+    }
+
+    // Method to add generated customers to a registry, returns how many were added
+    // Customers whose ID is already registered, or who belong to a shard held by another process, are skipped
+    public int generateInto(CustomerRegistry registry, int customers) throws IOException {
+        int[] added = new int[1];
+        forEachChunk(customers, this::generateCustomers, chunk -> {
+            for (Customer customer : chunk) {
+                if (registry.add(customer)) {
+                    added[0]++;
+                }
+            }
+        });
+        return added[0];
+    }
+
+    // Method to write generated customers and loans to two files in the BulkLoader format, returns the loan count
+    public long writeFiles(int customers, Path customersFile, Path loansFile) throws IOException {
+        long[] loans = new long[1];
+        try (FileChannel customerOut = open(customersFile); FileChannel loanOut = open(loansFile)) {
+            writeFully(customerOut, ascii("# CustomerID,Income\n"));
+            writeFully(loanOut, ascii("# CustomerID,RecordID,LoanType,InterestRate,LoanTermLeft,AmountLeftToPay[,Overpayment]\n"));
+            forEachChunk(customers, this::renderChunk, chunk -> {
+                writeFully(customerOut, ByteBuffer.wrap(chunk.customers.bytes, 0, chunk.customers.length));
+                writeFully(loanOut, ByteBuffer.wrap(chunk.loans.bytes, 0, chunk.loans.length));
+                loans[0] += chunk.loanCount;
+            });
+        }
+        return loans[0];
+    }
+
+    // Customer ID of the i-th generated customer
+    public static String customerID(int index) {
+        return CustomerIds.decode(customerCode(index));
+    }
+
+    private static int customerCode(int index) {
+        if (index < 0 || index >= CustomerIds.CAPACITY) {
+            throw new IllegalArgumentException("At most " + CustomerIds.CAPACITY + " customers can be generated");
+        }
+        return (int) ((index * CODE_STRIDE + CODE_OFFSET) % CustomerIds.CAPACITY);
+    }
+
+    // Generates the chunks in parallel and hands them to the consumer in order, a bounded number at a time
+    private <T> void forEachChunk(int customers, ChunkGenerator<T> generator, ChunkConsumer<T> consumer)
+            throws IOException {
+        if (customers > CustomerIds.CAPACITY) {
+            throw new IllegalArgumentException("At most " + CustomerIds.CAPACITY + " customers can be generated");
+        }
+        int chunks = (customers + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<T>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            for (int consumed = 0; consumed < chunks; consumed++) {
+                while (next < chunks && inFlight.size() < threads * CHUNKS_PER_THREAD) {
+                    int chunk = next++;
+                    int from = chunk * CHUNK_SIZE;
+                    int to = Math.min(customers, from + CHUNK_SIZE);
+                    inFlight.add(pool.submit(() -> generator.generate(chunk, from, to)));
+                }
+                consumer.accept(inFlight.poll().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Generation failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Customer[] generateCustomers(int chunk, int from, int to) {
+        SplittableRandom random = chunkRandom(chunk);
+        Customer[] customers = new Customer[to - from];
+        for (int i = from; i < to; i++) {
+            Customer customer = new Customer();
+            customer.setCustomerCode(customerCode(i));
+            int income = income(random);
+            customer.setCustomerIncome(income);
+            int loans = loanCount(random);
+            for (int recordID = 1; recordID <= loans; recordID++) {
+                int type = type(random);
+                customer.addCreditRecord(LoanTypes.byOrdinal(type).create(recordID, rate(random, type),
+                        term(random, type), overpayment(random, type), balance(random, type, income)));
+            }
+            customers[i - from] = customer;
+        }
+        return customers;
+    }
+
+    private RenderedChunk renderChunk(int chunk, int from, int to) {
+        SplittableRandom random = chunkRandom(chunk);
+        RenderedChunk rendered = new RenderedChunk(to - from);
+        AsciiBuffer customers = rendered.customers;
+        AsciiBuffer loans = rendered.loans;
+        byte[] id = new byte[6];
+        for (int i = from; i < to; i++) {
+            idBytes(customerCode(i), id);
+            int income = income(random);
+            customers.append(id).append(',').appendLong(income).append('\n');
+            int count = loanCount(random);
+            for (int recordID = 1; recordID <= count; recordID++) {
+                int type = type(random);
+                double rate = rate(random, type);
+                double term = term(random, type);
+                double overpayment = overpayment(random, type);
+                double balance = balance(random, type, income);
+                LoanType loanType = LoanTypes.byOrdinal(type);
+                loans.append(id).append(',').appendLong(recordID).append(',').append(loanType.getName()).append(',')
+                        .appendFixed2(rate).append(',').appendFixed2(term).append(',').appendFixed2(balance);
+                if (loanType.hasOverpayment()) {
+                    loans.append(',').appendFixed2(overpayment);
+                }
+                loans.append('\n');
+            }
+            rendered.loanCount += count;
+        }
+        return rendered;
+    }
+
+    // Both outputs draw the same values in the same order, so the files load into the same book as generateInto
+    private SplittableRandom chunkRandom(int chunk) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + chunk);
+    }
+
+    // Log-normal income around a median of 55000, in whole hundreds between 12000 and 2000000
+    private static int income(SplittableRandom random) {
+        double income = 55_000 * Math.exp(0.5 * random.nextGaussian());
+        return (int) (Math.round(Math.min(2_000_000, Math.max(12_000, income)) / 100) * 100);
+    }
+
+    private static int loanCount(SplittableRandom random) {
+        return pick(random, LOAN_COUNT_CUMULATIVE);
+    }
+
+    private static int type(SplittableRandom random) {
+        return pick(random, TYPE_CUMULATIVE);
+    }
+
+    private static double rate(SplittableRandom random, int type) {
+        double[] range = RATE_RANGE[type];
+        return round2(range[0] + (range[1] - range[0]) * random.nextDouble());
+    }
+
+    // Term left in years, to whole months, rounded to two decimals
+    private static double term(SplittableRandom random, int type) {
+        int[] range = TERM_MONTHS[type];
+        return round2((range[0] + random.nextInt(range[1] - range[0] + 1)) / 12.0);
+    }
+
+    private static double balance(SplittableRandom random, int type, int income) {
+        double[] range = BALANCE_RANGE[type];
+        return Math.round(income * (range[0] + (range[1] - range[0]) * random.nextDouble()));
+    }
+
+    // Half of Builder and Mortgage loans carry an overpayment option of 5-20%; the value is drawn for every loan
+    // so all types consume the generator alike
+    private static double overpayment(SplittableRandom random, int type) {
+        double overpayment = random.nextInt(2) == 0 ? 0 : 5 + random.nextInt(16);
+        return LoanTypes.byOrdinal(type).hasOverpayment() ? overpayment : 0;
+    }
+
+    private static int pick(SplittableRandom random, double[] cumulative) {
+        double u = random.nextDouble();
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (u < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static void idBytes(int code, byte[] id) {
+        String text = CustomerIds.decode(code);
+        for (int i = 0; i < 6; i++) {
+            id[i] = (byte) text.charAt(i);
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private interface ChunkGenerator<T> {
+        T generate(int chunk, int from, int to);
+    }
+
+    private interface ChunkConsumer<T> {
+        void accept(T chunk) throws IOException;
+    }
+
+    // The lines of one chunk for both files
+    private static class RenderedChunk {
+        private final AsciiBuffer customers;
+        private final AsciiBuffer loans;
+        private long loanCount;
+
+        RenderedChunk(int customerCount) {
+            this.customers = new AsciiBuffer(customerCount * 14);
+            this.loans = new AsciiBuffer(customerCount * 80);
+        }
+    }
+
+    // Growable byte array for ASCII text, with the number formats the generator needs
+    private static class AsciiBuffer {
+        private byte[] bytes;
+        private int length;
+
+        AsciiBuffer(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        AsciiBuffer append(char c) {
+            ensure(1);
+            bytes[length++] = (byte) c;
+            return this;
+        }
+
+        AsciiBuffer append(byte[] text) {
+            ensure(text.length);
+            System.arraycopy(text, 0, bytes, length, text.length);
+            length += text.length;
+            return this;
+        }
+
+        AsciiBuffer append(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes[length++] = (byte) text.charAt(i);
+            }
+            return this;
+        }
+
+        // Non-negative whole number
+        AsciiBuffer appendLong(long value) {
+            ensure(20);
+            int start = length;
+            do {
+                bytes[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte b = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = b;
+            }
+            return this;
+        }
+
+        // Non-negative number with two decimals, trailing zeros dropped
+        AsciiBuffer appendFixed2(double value) {
+            long cents = Math.round(value * 100);
+            appendLong(cents / 100);
+            int fraction = (int) (cents % 100);
+            if (fraction != 0) {
+                append('.').append((char) ('0' + fraction / 10));
+                if (fraction % 10 != 0) {
+                    append((char) ('0' + fraction % 10));
+                }
+            }
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
+            }
+        }
+    }
+}
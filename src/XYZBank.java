@@ -1,6 +1,20 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 // Interface representing checker and printer functionalities
 interface CheckerPrinter {
@@ -15,14 +29,14 @@ interface CheckerPrinter {
 abstract class Loan {
     // Fields representing the attributes of a loan
     protected int recordID;
-    protected String loanType;
+    protected LoanType type;
     protected double interestRate;
     protected double loanTermLeft;
 
     // Constructor to initialize loan with provided values
-    public Loan(int recordID, String loanType, double interestRate, double loanTermLeft) {
+    public Loan(int recordID, LoanType type, double interestRate, double loanTermLeft) {
         this.recordID = recordID;
-        this.loanType = loanType;
+        this.type = type;
         this.interestRate = interestRate;
         this.loanTermLeft = loanTermLeft;
     }
@@ -30,12 +44,44 @@ abstract class Loan {
     // Abstract method to get the amount left to pay
     public abstract double getAmountLeftToPay();
 
+    // Getters for the common loan attributes
+    public int getRecordID() {
+        return recordID;
+    }
+
+    public LoanType getType() {
+        return type;
+    }
+
+    public String getLoanType() {
+        return getType().getName();
+    }
+
+    public double getInterestRate() {
+        return interestRate;
+    }
+
+    public double getLoanTermLeft() {
+        return loanTermLeft;
+    }
+
+    // Overpayment option in percent, zero for loan types without one
+    public double getOverpayment() {
+        return 0;
+    }
+
+    // Method to get a loan that stays valid on its own; standalone loans never change, so they return themselves
+    // while views over shared storage return a copy
+    public Loan toLoan() {
+        return this;
+    }
+
     // Method to print loan details
     public void printLoanDetails() {
-        System.out.println("Record ID: " + recordID);
-        System.out.println("Loan Type: " + loanType);
-        System.out.println("Interest Rate: " + interestRate);
-        System.out.println("Loan Term Left (in years): " + loanTermLeft);
+        System.out.println("Record ID: " + getRecordID());
+        System.out.println("Loan Type: " + getLoanType());
+        System.out.println("Interest Rate: " + getInterestRate());
+        System.out.println("Loan Term Left (in years): " + getLoanTermLeft());
     }
 }
 
@@ -45,7 +91,7 @@ class AutoLoan extends Loan {
 
     // Constructor to initialize auto loan
     public AutoLoan(int recordID, double interestRate, double loanTermLeft, double amountLeftToPay) {
-        super(recordID, "Auto", interestRate, loanTermLeft);
+        super(recordID, LoanTypes.AUTO, interestRate, loanTermLeft);
         this.amountLeftToPay = amountLeftToPay;
     }
 
@@ -62,7 +108,7 @@ class BuilderLoan extends Loan {
 
     // Constructor to initialize builder loan
     public BuilderLoan(int recordID, double interestRate, double loanTermLeft, double overpayment, double amountLeftToPay) {
-        super(recordID, "Builder", interestRate, loanTermLeft);
+        super(recordID, LoanTypes.BUILDER, interestRate, loanTermLeft);
         this.overpayment = overpayment;
         this.amountLeftToPay = amountLeftToPay;
     }
@@ -72,6 +118,10 @@ class BuilderLoan extends Loan {
         return amountLeftToPay;
     }
 
+    public double getOverpayment() {
+        return overpayment;
+    }
+
     // Method to print loan details along with overpayment option
     public void printLoanDetails() {
         super.printLoanDetails();
@@ -86,7 +136,7 @@ class MortgageLoan extends Loan {
 
     // Constructor to initialize mortgage loan
     public MortgageLoan(int recordID, double interestRate, double loanTermLeft, double overpayment, double amountLeftToPay) {
-        super(recordID, "Mortgage", interestRate, loanTermLeft);
+        super(recordID, LoanTypes.MORTGAGE, interestRate, loanTermLeft);
         this.overpayment = overpayment;
         this.amountLeftToPay = amountLeftToPay;
     }
@@ -96,6 +146,10 @@ class MortgageLoan extends Loan {
         return amountLeftToPay;
     }
 
+    public double getOverpayment() {
+        return overpayment;
+    }
+
     // Method to print loan details along with overpayment option
     public void printLoanDetails() {
         super.printLoanDetails();
@@ -109,7 +163,7 @@ class PersonalLoan extends Loan {
 
     // Constructor to initialize personal loan
     public PersonalLoan(int recordID, double interestRate, double loanTermLeft, double amountLeftToPay) {
-        super(recordID, "Personal", interestRate, loanTermLeft);
+        super(recordID, LoanTypes.PERSONAL, interestRate, loanTermLeft);
         this.amountLeftToPay = amountLeftToPay;
     }
 
@@ -125,7 +179,7 @@ class OtherLoan extends Loan {
 
     // Constructor to initialize other loan
     public OtherLoan(int recordID, double interestRate, double loanTermLeft, double amountLeftToPay) {
-        super(recordID, "Other", interestRate, loanTermLeft);
+        super(recordID, LoanTypes.OTHER, interestRate, loanTermLeft);
         this.amountLeftToPay = amountLeftToPay;
     }
 
@@ -137,27 +191,43 @@ class OtherLoan extends Loan {
 
 // Class representing a customer
 class Customer implements CheckerPrinter {
-    private String customerID;
+    // Debug mode cross-checking the cached exposure against a full recompute on every eligibility check
+    private static boolean verifyExposure = Boolean.getBoolean("xyzbank.verifyExposure");
+    // Customers may owe up to this multiple of their annual income and stay eligible
+    public static final double EXPOSURE_LIMIT_MULTIPLE = 4.0;
+
+    private int customerCode; // Customer ID packed by CustomerIds
     private int customerIncome;
     private boolean eligibilityStatus;
     private ArrayList<Loan> creditRecords;
+    // Running sum of getAmountLeftToPay() over creditRecords, and the 4x income limit it is checked against
+    private double totalExposure;
+    private double exposureLimit;
 
     // Default constructor
     public Customer() {
-        this.customerID = "";
-        this.customerIncome = 0;
+        this.customerCode = CustomerIds.NONE;
+        this.customerIncome = 0; // assigned directly, subclasses may store the income elsewhere
         this.eligibilityStatus = true;
         this.creditRecords = new ArrayList<>();
     }
 
     // Parameterized constructor with default parameters
     public Customer(String customerID, int customerIncome) {
-        this.customerID = customerID;
-        this.customerIncome = customerIncome;
+        setCustomerID(customerID);
+        setCustomerIncome(customerIncome);
         this.eligibilityStatus = true;
         this.creditRecords = new ArrayList<>();
     }
 
+    public static boolean isExposureVerification() {
+        return verifyExposure;
+    }
+
+    public static void setExposureVerification(boolean enabled) {
+        verifyExposure = enabled;
+    }
+
     // Method to fill in necessary information
     public void fillInformation() {
         // Code to fill in customer information
@@ -171,24 +241,59 @@ class Customer implements CheckerPrinter {
     // Method to print customer details in the specified format
     public void printCustomerDetails() {
         System.out.println("================================");
-        System.out.println("CustomerID\t" + customerID);
+        System.out.println("CustomerID\t" + getCustomerID());
         System.out.println("Eligible to arrange new loans -\t" + (checkEligibility(this) ? "YES" : "NO"));
         System.out.println("RecordID\tLoanType\tIntRate\tAmountLeft\tTimeLeft");
 
-        for (Loan creditRecord : creditRecords) {
-            System.out.printf("%06d\t\t%s\t\t%.2f\t\t%.2f\t\t%.2f%n", creditRecord.recordID, creditRecord.loanType,
-                    creditRecord.interestRate, creditRecord.getAmountLeftToPay(), creditRecord.loanTermLeft);
+        for (Loan creditRecord : getCreditRecords()) {
+            System.out.printf("%06d\t\t%s\t\t%.2f\t\t%.2f\t\t%.2f%n", creditRecord.getRecordID(), creditRecord.getLoanType(),
+                    creditRecord.getInterestRate(), creditRecord.getAmountLeftToPay(), creditRecord.getLoanTermLeft());
         }
     }
 
     // Implementing methods from CheckerPrinter interface
     @Override
     public boolean checkEligibility(Customer customer) {
-        double totalAmount = 0;
-        for (Loan creditRecord : customer.creditRecords) {
-            totalAmount += creditRecord.getAmountLeftToPay();
+        if (verifyExposure) {
+            customer.verifyExposure();
+        }
+        return customer.getTotalExposure() <= customer.getExposureLimit();
+    }
+
+    // Whether the customer may arrange new loans: not marked ineligible, and within the exposure limit
+    // This is what the reports print, rather than the stored status alone
+    public boolean isEligibleForNewLoans() {
+        return isEligibilityStatus() && checkEligibility(this);
+    }
+
+    // Method to copy the customer and its list of loans, so it can be read without the customer's lock
+    public Customer copy() {
+        Customer copy = new Customer();
+        copy.customerCode = getCustomerCode();
+        copy.setCustomerIncome(getCustomerIncome());
+        copy.eligibilityStatus = isEligibilityStatus();
+        List<Loan> loans = getCreditRecords();
+        copy.creditRecords = new ArrayList<>(loans.size());
+        for (Loan loan : loans) {
+            copy.creditRecords.add(loan.toLoan());
         }
-        return totalAmount <= 4 * customer.customerIncome;
+        copy.totalExposure = getTotalExposure();
+        return copy;
+    }
+
+    // Method for subclasses to fill in a customer read back from storage; the loans are taken as they are
+    protected void restore(int customerCode, int customerIncome, boolean eligibilityStatus, ArrayList<Loan> loans) {
+        this.customerCode = customerCode;
+        this.customerIncome = customerIncome;
+        this.exposureLimit = EXPOSURE_LIMIT_MULTIPLE * customerIncome;
+        this.eligibilityStatus = eligibilityStatus;
+        this.creditRecords = loans;
+        this.totalExposure = recomputeExposure();
+    }
+
+    // The eligibility rule on plain values, for code working on columns instead of Customer objects
+    public static boolean isWithinExposureLimit(double totalExposure, int customerIncome) {
+        return totalExposure <= EXPOSURE_LIMIT_MULTIPLE * customerIncome;
     }
 
     @Override
@@ -199,11 +304,28 @@ class Customer implements CheckerPrinter {
 
     // Getters and setters
     public String getCustomerID() {
-        return customerID;
+        return CustomerIds.decode(customerCode);
     }
 
+    // Accepts AAA999-style IDs, or an empty ID for a customer that is not registered yet
     public void setCustomerID(String customerID) {
-        this.customerID = customerID;
+        int code = CustomerIds.encode(customerID);
+        if (code == CustomerIds.NONE && !customerID.isEmpty()) {
+            throw new IllegalArgumentException("Invalid customer ID: " + customerID);
+        }
+        this.customerCode = code;
+    }
+
+    public int getCustomerCode() {
+        return customerCode;
+    }
+
+    // Sets the ID from its packed code, as produced by CustomerIds.encode
+    public void setCustomerCode(int customerCode) {
+        if (customerCode != CustomerIds.NONE && (customerCode < 0 || customerCode >= CustomerIds.CAPACITY)) {
+            throw new IllegalArgumentException("Invalid customer code: " + customerCode);
+        }
+        this.customerCode = customerCode;
     }
 
     public int getCustomerIncome() {
@@ -212,6 +334,7 @@ class Customer implements CheckerPrinter {
 
     public void setCustomerIncome(int customerIncome) {
         this.customerIncome = customerIncome;
+        this.exposureLimit = EXPOSURE_LIMIT_MULTIPLE * customerIncome;
     }
 
     public boolean isEligibilityStatus() {
@@ -222,18 +345,78 @@ class Customer implements CheckerPrinter {
         this.eligibilityStatus = eligibilityStatus;
     }
 
-    public ArrayList<Loan> getCreditRecords() {
-        return creditRecords;
+    // Read-only view, loans are added and removed through the methods below so the exposure stays current
+    public List<Loan> getCreditRecords() {
+        return Collections.unmodifiableList(creditRecords);
     }
 
     public void setCreditRecords(ArrayList<Loan> creditRecords) {
         this.creditRecords = creditRecords;
+        this.totalExposure = recomputeExposure();
+    }
+
+    // Method to add a credit record and account for its amount left to pay
+    public void addCreditRecord(Loan loan) {
+        creditRecords.add(loan);
+        totalExposure += loan.getAmountLeftToPay();
+    }
+
+    // Method to remove credit records, returns true if any of them were held by this customer
+    public boolean removeCreditRecords(Collection<Loan> loans) {
+        boolean removed = false;
+        for (Loan loan : loans) {
+            if (creditRecords.remove(loan)) {
+                totalExposure -= loan.getAmountLeftToPay();
+                removed = true;
+            }
+        }
+        if (creditRecords.isEmpty()) {
+            totalExposure = 0; // drop any rounding residue
+        }
+        return removed;
+    }
+
+    // Total amount left to pay over all credit records
+    public double getTotalExposure() {
+        return totalExposure;
+    }
+
+    // Exposure allowed by the income, EXPOSURE_LIMIT_MULTIPLE x income
+    public double getExposureLimit() {
+        return exposureLimit;
+    }
+
+    // Method to sum the amount left to pay from scratch
+    public double recomputeExposure() {
+        double total = 0;
+        for (Loan creditRecord : getCreditRecords()) {
+            total += creditRecord.getAmountLeftToPay();
+        }
+        return total;
+    }
+
+    // Method to compare the cached exposure with a full recompute, throws if they drifted apart
+    public void verifyExposure() {
+        double expected = recomputeExposure();
+        double cached = getTotalExposure();
+        if (Math.abs(expected - cached) > 1e-6 * Math.max(1.0, Math.abs(expected))) {
+            throw new IllegalStateException("Exposure drift for customer " + getCustomerID()
+                    + ": cached " + cached + ", recomputed " + expected);
+        }
     }
 }
 // Main class representing the XYZ Bank Management System
 public class XYZBank {
-    private static ArrayList<Customer> customers = new ArrayList<>();
+    private static CustomerRegistry customers = new CustomerRegistry();
     private static Scanner scanner = new Scanner(System.in);
+    // Sink for the customer and loan reports
+    private static ReportWriter report = ReportWriter.toStdout();
+    // Snapshot and journal of each shard, enabled through system properties (see BookPersistence)
+    private static BookPersistence[] persistence;
+    // Thread-safe operations on the book, each on the customer's shard; the menu goes through it
+    private static ShardedBook service;
+    // Background thread that compacts and snapshots the shards when due, see BookPersistence.isCheckpointDue
+    private static ScheduledExecutorService checkpointer;
     //test data
     static {
         // Initialize bank records with sample data
@@ -241,23 +424,109 @@ public class XYZBank {
         Customer customer2 = new Customer("BBB002", 75000);
 
         // Add some loans for customer 1
-        customer1.getCreditRecords().add(new AutoLoan(1001, 5.5, 3, 15000));
-        customer1.getCreditRecords().add(new MortgageLoan(1002, 4.0, 20, 10, 200000));
-        customer1.getCreditRecords().add(new PersonalLoan(1003, 8.0, 2, 5000));
+        customer1.addCreditRecord(new AutoLoan(1001, 5.5, 3, 15000));
+        customer1.addCreditRecord(new MortgageLoan(1002, 4.0, 20, 10, 200000));
+        customer1.addCreditRecord(new PersonalLoan(1003, 8.0, 2, 5000));
 
         // Add some loans for customer 2
-        customer2.getCreditRecords().add(new BuilderLoan(2001, 6.25, 5, 5, 100000));
-        customer2.getCreditRecords().add(new OtherLoan(2002, 7.5, 1, 7000));
+        customer2.addCreditRecord(new BuilderLoan(2001, 6.25, 5, 5, 100000));
+        customer2.addCreditRecord(new OtherLoan(2002, 7.5, 1, 7000));
 
         customers.add(customer1);
         customers.add(customer2);
     }
 
-    public static ArrayList<Customer> getCustomers() {
+    public static CustomerRegistry getCustomers() {
         return customers;
     }
 
+    // Method to redirect the reports, for example to ReportWriter.toFile
+    public static void setReportWriter(ReportWriter reportWriter) {
+        report.flush();
+        report = reportWriter;
+    }
+
     public static void main(String[] args) {
+        // Stand-in router over one process per shard instead of a book: --route <port>, with -Dxyzbank.shards=<N>
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--route")) {
+                route(Integer.parseInt(args[i + 1]), args, i);
+                return;
+            }
+        }
+
+        // Book split into shards: -Dxyzbank.shards=<N>, by -Dxyzbank.shards.partitioning=hash|prefix (default hash)
+        // A process started with -Dxyzbank.shard=<i> holds shard i alone, as the router's shard processes do
+        int shardCount = Integer.getInteger("xyzbank.shards", 1);
+        Integer heldShard = Integer.getInteger("xyzbank.shard");
+        if (heldShard != null && (heldShard < 0 || heldShard >= shardCount)) {
+            System.out.println("xyzbank.shard must be between 0 and " + (shardCount - 1));
+            System.exit(1);
+        }
+        Partitioning partitioning = Partitioning.parse(System.getProperty("xyzbank.shards.partitioning", "hash"));
+        CustomerRegistry[] shards = ShardedRegistry.split(customers, partitioning, shardCount);
+        persistence = new BookPersistence[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = heldShard == null || heldShard == i
+                    ? openShard(i, shards[i], shardCount == 1 ? "" : ".shard" + i) : null;
+        }
+        customers = shardCount == 1 ? shards[0] : new ShardedRegistry(partitioning, shards);
+
+        // Optional bulk import before the menu: --import <customers file> [<loans file>]
+        boolean imported = args.length >= 2 && args[0].equals("--import");
+        if (imported) {
+            requireSnapshots("--import");
+            importBook(args[1], args.length > 2 && !args[2].startsWith("--") ? args[2] : null);
+        }
+        // Optional synthetic customers for scale testing: --generate <customers> [<seed>]
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--generate")) {
+                boolean seeded = i + 2 < args.length && !args[i + 2].startsWith("--");
+                requireSnapshots("--generate");
+                generateBook(Integer.parseInt(args[i + 1]), seeded ? Long.parseLong(args[i + 2]) : 1L);
+                imported = true;
+            }
+        }
+
+        // Built once the book is complete, so its indexes cover the imported loans
+        service = new ShardedBook(customers, persistence, BankMetrics.fromSystemProperties());
+        if (imported) {
+            // Imported and generated customers are not journaled, persist them with a snapshot
+            for (BookPersistence shardPersistence : persistence) {
+                if (shardPersistence != null) {
+                    shardPersistence.requestCheckpoint();
+                }
+            }
+            checkpoint();
+        }
+        startCheckpoints();
+
+        // Network server instead of the menu: --serve <port>
+        // Month-by-month projection of the book instead of the menu: --simulate <months> [<seed>]
+        // Commands from a file, or standard input with -, instead of the menu: --batch <file|->
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--batch")) {
+                runBatch(args[i + 1]);
+                return;
+            }
+            if (args[i].equals("--serve")) {
+                serve(Integer.parseInt(args[i + 1]));
+                return;
+            }
+            if (args[i].equals("--simulate")) {
+                boolean seeded = i + 2 < args.length && !args[i + 2].startsWith("--");
+                simulate(Integer.parseInt(args[i + 1]), seeded ? Long.parseLong(args[i + 2]) : 1L);
+                return;
+            }
+        }
+        // Eligibility rule applied to the whole book and the changed statuses stored, instead of the menu: --reevaluate
+        for (String arg : args) {
+            if (arg.equals("--reevaluate")) {
+                reevaluate();
+                return;
+            }
+        }
+
         boolean exit = false;
 
         while (!exit) {
@@ -267,7 +536,8 @@ public class XYZBank {
             System.out.println("3. Register a credit record");
             System.out.println("4. Print information about a particular customer and their loans");
             System.out.println("5. Print information about all customers");
-            System.out.println("6. Exit");
+            System.out.println("6. Show operation metrics");
+            System.out.println("7. Exit");
 
             System.out.print("\nEnter your choice: ");
             int choice = getIntInput();
@@ -290,14 +560,261 @@ public class XYZBank {
                     printAllCustomers();
                     break;
                 case 6:
+                    System.out.print(service.getMetrics().formatSummary());
+                    System.out.print(customers.formatStats());
+                    break;
+                case 7:
                     exit = true;
                     break;
                 default:
-                    System.out.println("Invalid choice. Please enter a number between 1 and 6.");
+                    System.out.println("Invalid choice. Please enter a number between 1 and 7.");
             }
         }
 
         scanner.close(); // Close the scanner explicitly
+        service.getMetrics().close();
+        closePersistence();
+    }
+
+    // Method to serve the menu operations over the network until the process is stopped
+    private static void serve(int port) {
+        try {
+            BankServer server = BankServer.fromSystemProperties(service, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.out.println("Could not stop the server: " + e.getMessage());
+                }
+                service.getMetrics().close();
+                closePersistence();
+            }));
+            server.start();
+            System.out.println("Serving on port " + server.getPort()
+                    + (BankServer.hasVirtualThreads() ? " (virtual threads)" : " (platform threads)"));
+            server.awaitTermination();
+        } catch (IOException e) {
+            System.out.println("Could not start the server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Method to apply every command of a file or standard input, print the summary, then persist the book
+    // Apply threads default to one per processor, set with -Dxyzbank.batch.threads
+    private static void runBatch(String source) {
+        int threads = Integer.getInteger("xyzbank.batch.threads", Runtime.getRuntime().availableProcessors());
+        BatchProcessor processor = new BatchProcessor(service, threads);
+        try (Reader in = source.equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8)) {
+            processor.run(in).print();
+            System.out.print(customers.formatStats());
+        } catch (IOException e) {
+            System.out.println("Could not read commands: " + e.getMessage());
+        }
+        service.getMetrics().close();
+        closePersistence();
+    }
+
+    // Method to re-evaluate the eligibility rule for every customer and store the statuses that changed
+    private static void reevaluate() {
+        BulkEligibilityEngine engine = new BulkEligibilityEngine();
+        PortfolioStats stats = new PortfolioStats();
+        int stored = service.storeEligibility(engine, stats);
+        stats.print();
+        System.out.println("Stored statuses changed: " + stored);
+        service.getMetrics().close();
+        closePersistence();
+    }
+
+    // Method to simulate the book month by month and print each month's metrics; the book itself is not changed
+    private static void simulate(int months, long seed) {
+        PortfolioSimulator simulator = PortfolioSimulator.fromRegistry(customers, YearMonth.now(), seed,
+                Runtime.getRuntime().availableProcessors());
+        StepMetrics.printHeader();
+        simulator.run(months, StepMetrics::printRow);
+        simulator.shutdown();
+    }
+
+    // Method to start one process per shard and route the network protocol to them until the process is stopped
+    // The shard processes get the other arguments, without the --route option at index at
+    private static void route(int port, String[] args, int at) {
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (i != at && i != at + 1) {
+                arguments.add(args[i]);
+            }
+        }
+        try {
+            ShardRouter router = ShardRouter.fromSystemProperties(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    router.close();
+                } catch (IOException e) {
+                    System.out.println("Could not stop the router: " + e.getMessage());
+                }
+            }));
+            router.start(arguments);
+            System.out.println("Routing on port " + router.getPort() + " to " + router.getShardCount() + " shard processes");
+            router.awaitTermination();
+        } catch (IOException e) {
+            System.out.println("Could not start the router: " + e.getMessage());
+            System.exit(1); // runs the shutdown hook, which stops the shard processes already started
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Method to open a shard: recover it from its snapshot and journal, then move it to the configured storage
+    // suffix: added to the shard's file names, empty when the book is not sharded
+    private static CustomerRegistry openShard(int shard, CustomerRegistry registry, String suffix) {
+        persistence[shard] = BookPersistence.fromSystemProperties(suffix);
+        if (persistence[shard] != null) {
+            registry = openPersistence(persistence[shard], registry);
+        }
+
+        // Off-heap book for very large books: -Dxyzbank.offHeap=true
+        if (Boolean.getBoolean("xyzbank.offHeap")) {
+            registry = OffHeapRegistry.copyOf(registry);
+        }
+        // Columnar loans, rows of one LoanStore per shard instead of Loan objects: -Dxyzbank.loanStore=true
+        if (Boolean.getBoolean("xyzbank.loanStore")) {
+            registry = LoanStoreRegistry.copyOf(registry);
+        }
+        // Disk-backed book paged through a bounded cache, for books larger than the heap:
+        // -Dxyzbank.diskBook=<file>, with -Dxyzbank.diskBook.cache=<customers> cached (default 100000)
+        String diskBook = System.getProperty("xyzbank.diskBook");
+        if (diskBook != null) {
+            registry = openDiskBook(Paths.get(diskBook + suffix), Integer.getInteger("xyzbank.diskBook.cache", 100_000),
+                    registry, persistence[shard] != null);
+        }
+        return registry;
+    }
+
+    // Method to recover a book from its snapshot and journal
+    private static CustomerRegistry openPersistence(BookPersistence shardPersistence, CustomerRegistry initial) {
+        try {
+            return shardPersistence.open(initial);
+        } catch (IOException e) {
+            System.out.println("Could not recover the book: " + e.getMessage());
+            System.exit(1); // never overwrite a snapshot or journal we could not read
+            return null;
+        }
+    }
+
+    // Method to move a book into a disk file
+    // A book recovered from snapshots and the journal replaces what the file holds; without persistence the file
+    // is the book, and only a new or empty file starts from the customers in memory
+    private static CustomerRegistry openDiskBook(Path path, int cacheSize, CustomerRegistry registry,
+            boolean recovered) {
+        try {
+            if (recovered || !Files.exists(path) || Files.size(path) == 0) {
+                return DiskRegistry.copyOf(registry, path, cacheSize);
+            }
+            DiskRegistry opened = new DiskRegistry(path, cacheSize, false);
+            System.out.println("Opened " + opened.size() + " customers from " + path);
+            return opened;
+        } catch (IOException e) {
+            System.out.println("Could not open the disk book: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    // Method to write back changes held in memory and the final snapshot on exit
+    private static void closePersistence() {
+        checkpointer.shutdown(); // let a checkpoint in progress finish, the final snapshot waits for its write
+        try {
+            checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            customers.flush();
+        } catch (IOException e) {
+            System.out.println("Could not write back the book: " + e.getMessage());
+        }
+        for (int i = 0; i < persistence.length; i++) {
+            if (persistence[i] == null) {
+                continue;
+            }
+            try {
+                persistence[i].close(customers instanceof ShardedRegistry
+                        ? ((ShardedRegistry) customers).getShard(i) : customers);
+            } catch (IOException e) {
+                System.out.println("Could not write snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    // Method to stop if the book is journaled without snapshots: imported and generated customers are not
+    // journaled, so they would be lost on restart, and so would the journaled changes made to them
+    private static void requireSnapshots(String option) {
+        for (BookPersistence shardPersistence : persistence) {
+            if (shardPersistence != null && !shardPersistence.hasSnapshots()) {
+                System.out.println(option + " needs -Dxyzbank.snapshot when the book is journaled: the journal does "
+                        + "not hold imported customers");
+                System.exit(1);
+            }
+        }
+    }
+
+    // Method to bulk import customers and, optionally, their credit records
+    // The shards of a sharded book each load their own rows in parallel
+    private static void importBook(String customersFile, String loansFile) {
+        if (customers instanceof ShardedRegistry) {
+            try {
+                for (BulkLoader.LoadResult result : ((ShardedRegistry) customers).load(Paths.get(customersFile),
+                        loansFile == null ? null : Paths.get(loansFile))) {
+                    result.print();
+                }
+            } catch (IOException e) {
+                System.out.println("Import failed: " + e.getMessage());
+            }
+            return;
+        }
+        BulkLoader loader = new BulkLoader(customers);
+        try {
+            loader.loadCustomers(Paths.get(customersFile)).print();
+            if (loansFile != null) {
+                loader.loadLoans(Paths.get(loansFile)).print();
+            }
+        } catch (IOException e) {
+            System.out.println("Import failed: " + e.getMessage());
+        }
+    }
+
+    // Method to add seeded synthetic customers and loans to the book
+    private static void generateBook(int count, long seed) {
+        WorkloadGenerator generator = new WorkloadGenerator(seed, Runtime.getRuntime().availableProcessors());
+        try {
+            long start = System.nanoTime();
+            int added = generator.generateInto(customers, count);
+            System.out.printf("Generated %d customers in %.1f s%n", added, (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            System.out.println("Generation failed: " + e.getMessage());
+        }
+    }
+
+    // Method to check every second whether the book needs compacting or a snapshot, and start them if so
+    // Updates are journaled as they are made, so none of them waits for a snapshot
+    private static void startCheckpoints() {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(XYZBank::checkpoint, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Method to compact the book if needed and start a background snapshot when one is due
+    private static void checkpoint() {
+        try {
+            service.checkpoint();
+        } catch (IOException e) {
+            System.out.println("Could not start snapshot: " + e.getMessage());
+        }
     }
 
     // Method to register a new customer
@@ -311,18 +828,21 @@ public class XYZBank {
             return;
         }
 
+        // Reject IDs that are already registered
+        if (service.exists(customerID)) {
+            System.out.println("A customer with this ID already exists.");
+            return;
+        }
+
         System.out.print("Enter Annual Income: ");
         int annualIncome = getIntInput();
 
-        Customer customer = new Customer(customerID, annualIncome);
-        customers.add(customer);
-        System.out.println("Customer registered successfully.");
+        printOutcome(service.registerCustomer(customerID, annualIncome), "Customer registered successfully.");
     }
 
-    // Method to update information about an existing customer
     // Method to update information about an existing customer
     private static void updateCustomerInfo() {
-        if (customers.isEmpty()) {
+        if (service.customerCount() == 0) {
             System.out.println("No customers registered yet.");
             return;
         }
@@ -330,8 +850,7 @@ public class XYZBank {
         System.out.print("Enter Customer ID: ");
         String customerID = scanner.nextLine();
 
-        Customer customer = findCustomer(customerID);
-        if (customer == null) {
+        if (!service.exists(customerID)) {
             System.out.println("Customer not found.");
             return;
         }
@@ -348,51 +867,46 @@ public class XYZBank {
             case 1:
                 System.out.print("Enter New Annual Income: ");
                 int newIncome = getIntInput();
-                customer.setCustomerIncome(newIncome);
-                System.out.println("Annual Income updated successfully.");
+                printOutcome(service.updateIncome(customerID, newIncome), "Annual Income updated successfully.");
                 break;
             case 2:
                 System.out.print("Enter New Eligibility Status (true/false): ");
                 boolean newStatus = getBooleanInput();
-                customer.setEligibilityStatus(newStatus);
-                System.out.println("Eligibility Status updated successfully.");
+                printOutcome(service.updateEligibility(customerID, newStatus), "Eligibility Status updated successfully.");
                 break;
             case 3:
-                registerLoanForCustomer(customer);
+                registerLoanForCustomer(customerID);
                 break;
             case 4:
-                removeLoanForCustomer(customer);
+                removeLoanForCustomer(customerID);
                 break;
             default:
                 System.out.println("Invalid choice.");
         }
 
         // Save changes to the main data
-        saveChanges();
+        saveChanges(customerID);
     }
 
     // Method to save changes to the main data
-    private static void saveChanges() {
-        // Print out updated customer and loan information
-        System.out.println("Updated Customer and Loan Information:");
-        for (Customer customer : customers) {
-            System.out.println("Customer ID: " + customer.getCustomerID());
-            System.out.println("Eligible to arrange new loans - " + (customer.isEligibilityStatus() ? "YES" : "NO"));
-            System.out.println("RecordID | LoanType | IntRate | AmountLeft | TimeLeft");
-            System.out.println("------- | -------- | -------- | ---------- | --------");
-            for (Loan loan : customer.getCreditRecords()) {
-                System.out.printf("%07d | %-8s | %.2f | %.0f | %.0f%n",
-                        loan.recordID, loan.loanType, loan.interestRate,
-                        loan.getAmountLeftToPay(), loan.loanTermLeft);
-            }
-            System.out.println(); //an empty line between customers
+    // Only the changed customer is echoed; option 5 prints the whole book, which is too slow to repeat per change
+    private static void saveChanges(String customerID) {
+        long start = service.getMetrics().start();
+        Boolean found = service.query(customerID, customer -> {
+            report.println("Updated Customer and Loan Information:");
+            report.printCustomer(customer, customer.isEligibleForNewLoans());
+            return true;
+        });
+        if (found != null) {
+            report.flush();
+            service.getMetrics().record(BankMetrics.Operation.REPORT, start);
         }
     }
 
 
     // Method to register a loan for a customer
-    private static void registerLoanForCustomer(Customer customer) {
-        if (!customer.isEligibilityStatus()) {
+    private static void registerLoanForCustomer(String customerID) {
+        if (!Boolean.TRUE.equals(service.isEligible(customerID))) {
             System.out.println("Customer is not eligible for a new loan.");
             return;
         }
@@ -403,21 +917,19 @@ public class XYZBank {
         scanner.nextLine();
 
         // Check if the record already exists
-        for (Loan loan : customer.getCreditRecords()) {
-            if (loan.recordID == recordID) {
-                System.out.println("A loan with the specified Record ID already exists for this customer.");
-                return;
-            }
+        if (service.hasLoan(customerID, recordID)) {
+            System.out.println("A loan with the specified Record ID already exists for this customer.");
+            return;
         }
 
-        String loanType;
+        LoanType loanType;
         do {
-            System.out.print("Loan Type (Auto/Builder/Mortgage/Personal/Other): ");
-            loanType = scanner.nextLine();
-            if (!isValidLoanType(loanType)) {
-                System.out.println("Invalid Loan Type. Must be: Auto, Builder, Mortgage, Personal, or Other");
+            System.out.print("Loan Type (" + LoanTypes.names("/") + "): ");
+            loanType = LoanTypes.parse(scanner.nextLine());
+            if (loanType == null) {
+                System.out.println("Invalid Loan Type. Must be one of: " + LoanTypes.names(", "));
             }
-        } while (!isValidLoanType(loanType));
+        } while (loanType == null);
 
         System.out.print("Interest Rate: ");
         double interestRate = getDoubleInput();
@@ -428,39 +940,24 @@ public class XYZBank {
         System.out.print("Amount Left to Pay: ");
         double amountLeftToPay = getDoubleInput();
 
-        Loan loan;
-        switch (loanType) {
-            case "Auto":
-                loan = new AutoLoan(recordID, interestRate, loanTermLeft, amountLeftToPay);
-                break;
-            case "Builder":
-                System.out.print("Overpayment Option (%): ");
-                double overpayment = getDoubleInput();
-                loan = new BuilderLoan(recordID, interestRate, loanTermLeft, overpayment, amountLeftToPay);
-                break;
-            case "Mortgage":
-                System.out.print("Overpayment Option (%): ");
-                double mortgageOverpayment = getDoubleInput();
-                loan = new MortgageLoan(recordID, interestRate, loanTermLeft, mortgageOverpayment, amountLeftToPay);
-                break;
-            case "Personal":
-                loan = new PersonalLoan(recordID, interestRate, loanTermLeft, amountLeftToPay);
-                break;
-            case "Other":
-                loan = new OtherLoan(recordID, interestRate, loanTermLeft, amountLeftToPay);
-                break;
-            default:
-                System.out.println("Invalid loan type.");
-                return;
+        double overpayment = 0;
+        if (loanType.hasOverpayment()) {
+            System.out.print("Overpayment Option (%): ");
+            overpayment = getDoubleInput();
         }
+        Loan loan = loanType.create(recordID, interestRate, loanTermLeft, overpayment, amountLeftToPay);
 
-        customer.getCreditRecords().add(loan);
-        System.out.println("Loan registered successfully.");
+        printOutcome(service.addLoan(customerID, loan), "Loan registered successfully.");
     }
 
     // Method to remove a loan for a customer
-    private static void removeLoanForCustomer(Customer customer) {
-        if (customer.getCreditRecords().isEmpty()) {
+    private static void removeLoanForCustomer(String customerID) {
+        Boolean noLoans = service.query(customerID, customer -> customer.getCreditRecords().isEmpty());
+        if (noLoans == null) {
+            System.out.println("Customer not found.");
+            return;
+        }
+        if (noLoans) {
             System.out.println("No loans to remove for this customer.");
             return;
         }
@@ -469,25 +966,17 @@ public class XYZBank {
         int recordID = getIntInput();
         scanner.nextLine();
 
-        // Find and remove the loan with the specified record ID
-        ArrayList<Loan> creditRecords = customer.getCreditRecords();
-        ArrayList<Loan> loansToRemove = new ArrayList<>();
-        for (Loan loan : creditRecords) {
-            if (loan.recordID == recordID) {
-                loansToRemove.add(loan);
-            }
-        }
+        // Remove the loans with the specified record ID
+        printOutcome(service.removeLoan(customerID, recordID), "Loan(s) removed successfully.");
+    }
 
-        if (!loansToRemove.isEmpty()) {
-            creditRecords.removeAll(loansToRemove);
-            System.out.println("Loan(s) removed successfully.");
-        } else {
-            System.out.println("Loan with the specified Record ID not found.");
-        }
+    // Method to print the success message, or why the service rejected the operation
+    private static void printOutcome(BankService.Status status, String successMessage) {
+        System.out.println(status == BankService.Status.OK ? successMessage : status.getMessage());
     }
     // Method to register a loan
     private static void registerLoan() {
-        if (customers.isEmpty()) {
+        if (service.customerCount() == 0) {
             System.out.println("No customers registered yet.");
             return;
         }
@@ -495,74 +984,69 @@ public class XYZBank {
         System.out.print("Enter Customer ID: ");
         String customerID = scanner.nextLine();
 
-        Customer customer = findCustomer(customerID);
-        if (customer == null) {
+        if (!service.exists(customerID)) {
             System.out.println("Customer not found.");
             return;
         }
 
-        registerLoanForCustomer(customer);
+        registerLoanForCustomer(customerID);
     }
 
-    // Method to print information about a particular customer and their loans
+    // Method to print the customers and their loans, optionally filtered, ranked by exposure or paged
     public static void printAllCustomers() {
-        for (Customer customer : customers) {
-            System.out.println("Customer ID: " + customer.getCustomerID());
-            System.out.println("Eligible to arrange new loans - YES");
-            System.out.println("RecordID | LoanType | IntRate | AmountLeft | TimeLeft");
-            System.out.println("------- | -------- | -------- | ---------- | --------");
-            for (Loan loan : customer.getCreditRecords()) {
-                System.out.printf("%07d | %-8s | %.2f | %.0f | %.0f%n",
-                        loan.recordID, loan.loanType, loan.interestRate,
-                        loan.getAmountLeftToPay(), loan.loanTermLeft);
+        System.out.print("Report options, blank for all customers "
+                + "(type=<LoanType> eligible=<true|false> prefix=<ID prefix> top=<K> page=<size>): ");
+        ReportQuery query;
+        try {
+            query = ReportQuery.parse(scanner.nextLine());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid report options: " + e.getMessage());
+            return;
+        }
+
+        while (true) {
+            long start = service.getMetrics().start();
+            String cursor = service.print(query, report);
+            report.flush();
+            service.getMetrics().record(BankMetrics.Operation.REPORT, start);
+            if (cursor == null) {
+                return;
+            }
+            System.out.print("Show the next page? (y/n): ");
+            if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                return;
             }
-            System.out.println(); //an empty line between customers
+            query.after(cursor);
         }
     }
 
-
     public static void printCustomerAndLoanInfo() {
         System.out.print("Enter Customer ID: ");
         String customerID = scanner.nextLine();
 
-        Customer customer = findCustomer(customerID);
-        if (customer == null) {
+        long start = service.getMetrics().start();
+        Boolean found = service.query(customerID, customer -> {
+            report.printCustomer(customer, customer.isEligibleForNewLoans());
+            return true;
+        });
+        if (found == null) {
             System.out.println("Customer not found.");
             return;
         }
-
-        System.out.println("Customer ID: " + customer.getCustomerID());
-        System.out.println("Eligible to arrange new loans - YES");
-        System.out.println("RecordID | LoanType | IntRate | AmountLeft | TimeLeft");
-        System.out.println("------- | -------- | -------- | ---------- | --------");
-        for (Loan loan : customer.getCreditRecords()) {
-            System.out.printf("%07d | %-8s | %.2f | %.0f | %.0f%n",
-                    loan.recordID, loan.loanType, loan.interestRate,
-                    loan.getAmountLeftToPay(), loan.loanTermLeft);
-        }
-    }
-
-    // Method to find a customer by their ID
-    private static Customer findCustomer(String customerID) {
-        for (Customer customer : customers) {
-            if (customer.getCustomerID().equals(customerID)) {
-                return customer;
-            }
-        }
-        return null; // Customer not found
+        report.flush();
+        service.getMetrics().record(BankMetrics.Operation.REPORT, start);
     }
 
     // Method to validate the Customer ID format
-    private static boolean isValidCustomerID(String customerID) {
-        return customerID.matches("[A-Z]{3}[0-9]{3}");
+    // Package-private, like isValidLoanType, so the JMH benchmarks can measure it
+    static boolean isValidCustomerID(String customerID) {
+        return CustomerIds.isValid(customerID);
     }
 
     // Method to validate the Loan Type
-    private static boolean isValidLoanType(String loanType) {
-        // Convert the input loan type to lowercase and then check for validity
-        String lowercaseLoanType = loanType.toLowerCase();
-        return lowercaseLoanType.equals("auto") || lowercaseLoanType.equals("builder") || lowercaseLoanType.equals("mortgage")
-                || lowercaseLoanType.equals("personal") || lowercaseLoanType.equals("other");
+    static boolean isValidLoanType(String loanType) {
+        // Registered types are matched case-insensitively
+        return LoanTypes.parse(loanType) != null;
     }
 
     // Helper methods to handle different types of user inputs